@@ -0,0 +1,184 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.DeviceExtrinsics;
+import com.kanawish.raja.raja.Pose;
+import com.kanawish.raja.raja.PoseMath;
+import com.kanawish.raja.raja.ScenePoseCalculator;
+import com.shopify.volumizer.manager.PosePredictor;
+import com.shopify.volumizer.manager.PoseRingBuffer;
+import com.shopify.volumizer.plane.PlaneFitResult;
+
+import org.rajawali3d.math.Matrix4;
+import org.rajawali3d.math.Quaternion;
+import org.rajawali3d.math.vector.Vector3;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fails the build if a per-frame pose path allocates: the output argument overloads of
+ * {@link ScenePoseCalculator}, and the pose history, predictor and {@link PoseMath} camera pose
+ * path the activity runs every frame.
+ * <p>
+ * Allocations are counted per thread with {@link com.sun.management.ThreadMXBean}, after a
+ * warm-up so one-time class loading and scratch set-up don't count. A few hundred bytes of JIT
+ * and counter noise over the whole run remain, so the bar is under a byte per operation, the
+ * smallest object being 16. Run by {@code allocationCheck} with escape analysis off, ART doesn't
+ * have it, so a {@code new} the JIT happens to optimize away still fails the check.
+ */
+public final class AllocationCheck {
+
+    private static final int POSE_COUNT = 1024;
+    private static final int FIT_COUNT = 32;
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+    private static final double MAX_BYTES_PER_OP = 1;
+
+    private interface Check {
+        void run(int i);
+    }
+
+    private static class NamedCheck {
+        final String name;
+        final Check check;
+        // Sanity checks of the meter itself, expected to allocate.
+        final boolean allocates;
+
+        NamedCheck(String name, boolean allocates, Check check) {
+            this.name = name;
+            this.check = check;
+            this.allocates = allocates;
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final List<TangoPoseData> poses;
+    private final DeviceExtrinsics extrinsics;
+    private final List<PlaneFitResult> fits;
+
+    private final Pose pose = new Pose(new Vector3(), new Quaternion());
+    private final Matrix4 matrix = new Matrix4();
+    private final TangoPoseData planePose = new TangoPoseData();
+    private final PoseRingBuffer poseHistory = new PoseRingBuffer(POSE_COUNT);
+    private final PosePredictor posePredictor = new PosePredictor(0.05);
+    private final double[] deviceTCameraTranslation = new double[3];
+    private final double[] deviceTCameraRotation = new double[4];
+    private final double[] cameraTranslation = new double[3];
+    private final double[] cameraRotation = new double[4];
+    // Keeps results alive, so none of the work is dead code.
+    private volatile Object sink;
+
+    private AllocationCheck() throws IOException {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        poses = Poses.walk(POSE_COUNT);
+        extrinsics = Poses.extrinsics();
+        fits = Poses.planeFits(FIT_COUNT);
+
+        // Same device to OpenGL camera transform as the activity derives at connection time.
+        TangoPoseData cameraPose = ScenePoseCalculator.matrixToTangoPose(extrinsics.getDeviceTColorCamera());
+        System.arraycopy(cameraPose.translation, 0, deviceTCameraTranslation, 0, 3);
+        System.arraycopy(cameraPose.rotation, 0, deviceTCameraRotation, 0, 4);
+        PoseMath.multiplyQuaternion(deviceTCameraRotation, 0,
+                PoseMath.COLOR_CAMERA_R_OPENGL_CAMERA, 0, deviceTCameraRotation, 0);
+
+        for (TangoPoseData devicePose : poses) {
+            poseHistory.add(devicePose);
+            posePredictor.add(devicePose);
+        }
+    }
+
+    private TangoPoseData pose(int i) {
+        return poses.get(i % POSE_COUNT);
+    }
+
+    private List<NamedCheck> checks() {
+        List<NamedCheck> checks = new ArrayList<>();
+        checks.add(new NamedCheck("toOpenGlCameraPose", true,
+                i -> sink = ScenePoseCalculator.toOpenGlCameraPose(pose(i), extrinsics)));
+        checks.add(new NamedCheck("tangoPoseToMatrixInto", false,
+                i -> sink = ScenePoseCalculator.tangoPoseToMatrix(pose(i), matrix)));
+        checks.add(new NamedCheck("matrixToTangoPoseInto", false,
+                i -> sink = ScenePoseCalculator.matrixToTangoPose(extrinsics.getDeviceTColorCamera(), planePose)));
+        checks.add(new NamedCheck("toOpenGLPoseInto", false,
+                i -> sink = ScenePoseCalculator.toOpenGLPose(pose(i), pose)));
+        checks.add(new NamedCheck("toOpenGlCameraPoseInto", false,
+                i -> sink = ScenePoseCalculator.toOpenGlCameraPose(pose(i), extrinsics, pose)));
+        checks.add(new NamedCheck("toDepthCameraOpenGlPoseInto", false,
+                i -> sink = ScenePoseCalculator.toDepthCameraOpenGlPose(pose(i), extrinsics, pose)));
+        checks.add(new NamedCheck("toOpenGLPoseWithScreenRotationInto", false,
+                i -> sink = ScenePoseCalculator.toOpenGLPoseWithScreenRotation(pose(i), i & 3, pose)));
+        checks.add(new NamedCheck("planeFitToTangoWorldPoseInto", false, i -> {
+            PlaneFitResult fit = fits.get(i % fits.size());
+            sink = ScenePoseCalculator.planeFitToTangoWorldPose(
+                    fit.intersectionPoint, fit.planeModel, pose(i), extrinsics, planePose);
+        }));
+        checks.add(new NamedCheck("cameraPosePath", false, this::cameraPose));
+        return checks;
+    }
+
+    /**
+     * What {@code VolumizerActivity.lookupCameraPoseGlThread} does per frame, alternating
+     * timestamps covered by the history with ones past it.
+     */
+    private void cameraPose(int i) {
+        double timestamp = (i & 1) == 0
+                ? pose(i).timestamp + 0.01
+                : poseHistory.getLatestTimestamp() + 0.02;
+        if (!poseHistory.getPoseAtTime(timestamp, cameraTranslation, cameraRotation)
+                && !posePredictor.predict(timestamp, cameraTranslation, cameraRotation)) {
+            throw new IllegalStateException("No pose at " + timestamp);
+        }
+        PoseMath.compose(cameraTranslation, cameraRotation,
+                deviceTCameraTranslation, deviceTCameraRotation,
+                cameraTranslation, cameraRotation);
+        PoseMath.rotateVector(PoseMath.OPENGL_R_TANGO_WORLD, 0,
+                cameraTranslation, 0, cameraTranslation, 0);
+        PoseMath.multiplyQuaternion(PoseMath.OPENGL_R_TANGO_WORLD, 0,
+                cameraRotation, 0, cameraRotation, 0);
+        sink = cameraRotation;
+    }
+
+    private long measure(Check check) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            check.run(i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            check.run(i);
+        }
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private int run() {
+        // What the loop and reading the counter cost, if anything.
+        long overhead = measure(i -> { });
+
+        int failures = 0;
+        for (NamedCheck named : checks()) {
+            long bytes = measure(named.check) - overhead;
+            double bytesPerOp = (double) bytes / MEASURED_ITERATIONS;
+            boolean failed = named.allocates
+                    ? bytesPerOp < MAX_BYTES_PER_OP
+                    : bytesPerOp >= MAX_BYTES_PER_OP;
+            System.out.printf("%-36s %10.2f B/op%s%n", named.name, bytesPerOp,
+                    failed ? (named.allocates ? "  FAILED, meter saw nothing" : "  FAILED") : "");
+            if (failed) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int failures = new AllocationCheck().run();
+        if (failures > 0) {
+            System.err.println(failures + " allocation check(s) failed");
+            System.exit(1);
+        }
+    }
+}
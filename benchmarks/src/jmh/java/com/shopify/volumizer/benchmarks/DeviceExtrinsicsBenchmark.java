@@ -0,0 +1,41 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.DeviceExtrinsics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DeviceExtrinsics} construction, done on every Tango connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeviceExtrinsicsBenchmark {
+
+    private TangoPoseData imuTDevice;
+    private TangoPoseData imuTColorCamera;
+    private TangoPoseData imuTDepthCamera;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TangoPoseData[] imuPoses = Poses.imuPoses();
+        imuTDevice = imuPoses[0];
+        imuTColorCamera = imuPoses[1];
+        imuTDepthCamera = imuPoses[2];
+    }
+
+    @Benchmark
+    public DeviceExtrinsics construct() {
+        return new DeviceExtrinsics(imuTDevice, imuTColorCamera, imuTDepthCamera);
+    }
+}
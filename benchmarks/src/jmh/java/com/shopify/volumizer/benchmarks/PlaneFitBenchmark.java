@@ -0,0 +1,70 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.shopify.volumizer.plane.PlaneFitResult;
+import com.shopify.volumizer.plane.RansacPlaneFitter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link RansacPlaneFitter}, cycling through recorded or synthetic clouds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlaneFitBenchmark {
+
+    private static final int CLOUD_COUNT = 32;
+
+    @Param({"200"})
+    public int maxIterations;
+
+    @Param({"0.8", "1.1"})
+    public double earlyExitInlierRatio;
+
+    private final RansacPlaneFitter fitter = new RansacPlaneFitter();
+    private final PlaneFitResult result = new PlaneFitResult();
+    // Straight ahead of the depth camera, where users usually tap.
+    private final double[] tapRay = {0, 0, 1};
+
+    private List<FloatBuffer> clouds;
+    private int cloudIndex;
+
+    @Setup(Level.Trial)
+    public void loadClouds() throws IOException {
+        clouds = PointClouds.load(CLOUD_COUNT);
+        // Ratios over 1 disable the early exit, to measure full RANSAC runs.
+        fitter.setMaxIterations(maxIterations).setEarlyExitInlierRatio(earlyExitInlierRatio);
+    }
+
+    private FloatBuffer nextCloud() {
+        cloudIndex = (cloudIndex + 1) % clouds.size();
+        return clouds.get(cloudIndex);
+    }
+
+    @Benchmark
+    public PlaneFitResult fitWholeCloud() {
+        FloatBuffer cloud = nextCloud();
+        fitter.fit(cloud, PointClouds.pointCount(cloud), result);
+        return result;
+    }
+
+    @Benchmark
+    public PlaneFitResult fitNearTap() {
+        FloatBuffer cloud = nextCloud();
+        fitter.fitNearRay(cloud, PointClouds.pointCount(cloud), tapRay, 0.25f, result);
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.DeviceExtrinsics;
+import com.kanawish.raja.raja.ScenePoseCalculator;
+import com.shopify.volumizer.plane.PlaneFitResult;
+import com.shopify.volumizer.utils.TangoMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rajawali3d.math.Matrix4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TangoMath} plane transforms, from plane fits on synthetic or recorded clouds to the
+ * OpenGL world, with depth camera transforms along a walked path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlaneTransformBenchmark {
+
+    private static final int POSE_COUNT = 256;
+    private static final int FIT_COUNT = 32;
+
+    private final float[] up = {0, 1, 0, 0};
+    private final float[] openGlTplane = new float[16];
+
+    private List<float[]> openGlTdepths;
+    private List<PlaneFitResult> fits;
+    private int fitIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fits = Poses.planeFits(FIT_COUNT);
+
+        // What PointCloudHistory records along with each cloud.
+        DeviceExtrinsics extrinsics = Poses.extrinsics();
+        openGlTdepths = new ArrayList<>(POSE_COUNT);
+        for (TangoPoseData devicePose : Poses.walk(POSE_COUNT)) {
+            Matrix4 openGlTdepth = ScenePoseCalculator.OPENGL_T_TANGO_WORLD.clone()
+                    .multiply(ScenePoseCalculator.tangoPoseToMatrix(devicePose))
+                    .multiply(extrinsics.getDeviceTDepthCamera());
+            double[] values = openGlTdepth.getDoubleValues();
+            float[] m = new float[16];
+            for (int i = 0; i < 16; i++) {
+                m[i] = (float) values[i];
+            }
+            openGlTdepths.add(m);
+        }
+    }
+
+    private PlaneFitResult nextFit() {
+        fitIndex++;
+        return fits.get(fitIndex % fits.size());
+    }
+
+    private float[] currentOpenGlTdepth() {
+        return openGlTdepths.get(fitIndex % openGlTdepths.size());
+    }
+
+    @Benchmark
+    public float[] matrixFromPointNormalUp() {
+        PlaneFitResult fit = nextFit();
+        return TangoMath.matrixFromPointNormalUp(fit.intersectionPoint, fit.planeModel, up);
+    }
+
+    @Benchmark
+    public float[] calculatePlaneTransform() {
+        PlaneFitResult fit = nextFit();
+        return TangoMath.calculatePlaneTransform(
+                fit.intersectionPoint, fit.planeModel, currentOpenGlTdepth());
+    }
+
+    @Benchmark
+    public float[] calculatePlaneTransformInto() {
+        PlaneFitResult fit = nextFit();
+        return TangoMath.calculatePlaneTransform(
+                fit.intersectionPoint, fit.planeModel, currentOpenGlTdepth(), openGlTplane);
+    }
+}
@@ -0,0 +1,109 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.DeviceExtrinsics;
+import com.kanawish.raja.raja.PointCloudTransformer;
+import com.kanawish.raja.raja.ScenePoseCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rajawali3d.math.vector.Vector3;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Depth clouds per second transformed to the OpenGL world frame, with {@link PointCloudTransformer}
+ * on one thread and split over a pool, against {@link ScenePoseCalculator#getPointInEngineFrame}
+ * point by point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PointCloudTransformerBenchmark {
+
+    private static final int CLOUD_COUNT = 32;
+    private static final int POSE_COUNT = 1024;
+    private static final int CHUNK_POINTS = 4096;
+
+    private final PointCloudTransformer transformer = new PointCloudTransformer();
+    private final Vector3 point = new Vector3();
+
+    private List<FloatBuffer> clouds;
+    private List<TangoPoseData> poses;
+    private DeviceExtrinsics extrinsics;
+    private TangoPoseData deviceTDepthPose;
+    private FloatBuffer out;
+    private ExecutorService pool;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        clouds = PointClouds.load(CLOUD_COUNT);
+        poses = Poses.walk(POSE_COUNT);
+        extrinsics = Poses.extrinsics();
+        deviceTDepthPose = ScenePoseCalculator.matrixToTangoPose(extrinsics.getDeviceTDepthCamera());
+        int maxPoints = 0;
+        for (FloatBuffer cloud : clouds) {
+            maxPoints = Math.max(maxPoints, PointClouds.pointCount(cloud));
+        }
+        out = PointClouds.allocateDirect(maxPoints);
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private FloatBuffer nextCloud() {
+        index++;
+        transformer.setPoses(poses.get(index % poses.size()), extrinsics);
+        return clouds.get(index % clouds.size());
+    }
+
+    @Benchmark
+    public FloatBuffer transform() {
+        FloatBuffer cloud = nextCloud();
+        transformer.transform(cloud, PointCloudTransformer.TANGO_POINT_STRIDE,
+                out, PointCloudTransformer.TANGO_POINT_STRIDE, PointClouds.pointCount(cloud));
+        return out;
+    }
+
+    @Benchmark
+    public FloatBuffer transformParallel() throws InterruptedException {
+        FloatBuffer cloud = nextCloud();
+        transformer.transform(cloud, PointCloudTransformer.TANGO_POINT_STRIDE,
+                out, PointCloudTransformer.TANGO_POINT_STRIDE, PointClouds.pointCount(cloud),
+                pool, CHUNK_POINTS);
+        return out;
+    }
+
+    @Benchmark
+    public FloatBuffer getPointInEngineFrame() {
+        index++;
+        TangoPoseData devicePose = poses.get(index % poses.size());
+        FloatBuffer cloud = clouds.get(index % clouds.size());
+        int numPoints = PointClouds.pointCount(cloud);
+        for (int i = 0; i < numPoints; i++) {
+            int p = i * PointCloudTransformer.TANGO_POINT_STRIDE;
+            point.setAll(cloud.get(p), cloud.get(p + 1), cloud.get(p + 2));
+            Vector3 world = ScenePoseCalculator.getPointInEngineFrame(point, deviceTDepthPose, devicePose);
+            out.put(p, (float) world.x);
+            out.put(p + 1, (float) world.y);
+            out.put(p + 2, (float) world.z);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,101 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.shopify.volumizer.manager.SessionFormat;
+import com.shopify.volumizer.manager.SessionReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Point cloud fixtures for the benchmarks, (x, y, z, confidence) packed like Tango's.
+ * <p>
+ * Clouds come from the session file named by the {@code session} system property when set,
+ * otherwise synthetic depth frames are generated.
+ */
+final class PointClouds {
+
+    // Roughly what a Tango depth frame holds.
+    static final int SYNTHETIC_POINT_COUNT = 12000;
+
+    private PointClouds() {
+    }
+
+    static List<FloatBuffer> load(int maxClouds) throws IOException {
+        String session = System.getProperty("session");
+        if (session == null || session.isEmpty()) {
+            return synthetic(maxClouds, SYNTHETIC_POINT_COUNT);
+        }
+
+        List<FloatBuffer> clouds = new ArrayList<>();
+        try (SessionReader reader = new SessionReader(new File(session))) {
+            while (clouds.size() < maxClouds && reader.next()) {
+                if (reader.type == SessionFormat.RECORD_POINT_CLOUD && reader.numPoints > 0) {
+                    // Copied out of the mapping, so benchmarks don't measure page faults.
+                    clouds.add(copyToDirect(reader.points, reader.numPoints));
+                }
+            }
+        }
+        if (clouds.isEmpty()) {
+            throw new IOException("No point clouds in " + session);
+        }
+        return clouds;
+    }
+
+    /**
+     * A wall facing the camera 1.5 to 3m away, a floor below it, sensor noise and a few
+     * outliers, randomized per cloud.
+     */
+    static List<FloatBuffer> synthetic(int cloudCount, int pointCount) {
+        Random random = new Random(42);
+        List<FloatBuffer> clouds = new ArrayList<>(cloudCount);
+        for (int c = 0; c < cloudCount; c++) {
+            double wallDepth = 1.5 + random.nextDouble() * 1.5;
+            double wallSlope = random.nextDouble() * 0.4 - 0.2;
+            FloatBuffer points = allocateDirect(pointCount);
+            for (int i = 0; i < pointCount; i++) {
+                double x = random.nextDouble() * 2 - 1;
+                double y = random.nextDouble() * 1.5 - 0.75;
+                double z;
+                int kind = i % 10;
+                if (kind < 6) {
+                    z = wallDepth + x * wallSlope + random.nextGaussian() * 0.005;
+                } else if (kind < 9) {
+                    // Floor, 1.2m below the depth camera, y is down in the depth frame.
+                    y = 1.2 + random.nextGaussian() * 0.005;
+                    z = 0.5 + random.nextDouble() * wallDepth;
+                } else {
+                    z = 0.3 + random.nextDouble() * 4;
+                }
+                points.put((float) x).put((float) y).put((float) z).put(0.5f + random.nextFloat() * 0.5f);
+            }
+            points.rewind();
+            clouds.add(points);
+        }
+        return clouds;
+    }
+
+    static FloatBuffer allocateDirect(int pointCount) {
+        return ByteBuffer.allocateDirect(pointCount * SessionFormat.FLOATS_PER_POINT * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    private static FloatBuffer copyToDirect(FloatBuffer source, int pointCount) {
+        FloatBuffer copy = allocateDirect(pointCount);
+        FloatBuffer view = source.duplicate();
+        view.limit(pointCount * SessionFormat.FLOATS_PER_POINT);
+        copy.put(view);
+        copy.rewind();
+        return copy;
+    }
+
+    static int pointCount(FloatBuffer cloud) {
+        return cloud.limit() / SessionFormat.FLOATS_PER_POINT;
+    }
+}
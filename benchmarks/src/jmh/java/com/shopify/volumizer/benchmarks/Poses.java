@@ -0,0 +1,115 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.DeviceExtrinsics;
+import com.kanawish.raja.raja.PoseMath;
+import com.shopify.volumizer.plane.PlaneFitResult;
+import com.shopify.volumizer.plane.RansacPlaneFitter;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pose fixtures for the benchmarks, stub {@link TangoPoseData} filled like Tango would.
+ * <p>
+ * Device poses walk a handheld path through a store, in the start of service frame (z up).
+ * Extrinsics are in the ballpark of a Tango tablet's: cameras a few centimeters off the IMU,
+ * looking out the back of the device.
+ */
+final class Poses {
+
+    private static final double FRAME_SECONDS = 1 / 30.0;
+
+    private Poses() {
+    }
+
+    /**
+     * @return {@code count} consecutive device poses, 30 per second.
+     */
+    static List<TangoPoseData> walk(int count) {
+        Random random = new Random(42);
+        List<TangoPoseData> poses = new ArrayList<>(count);
+        double x = 0, y = 0, heading = 0;
+        double[] rotation = new double[4];
+        double[] tilt = new double[4];
+        for (int i = 0; i < count; i++) {
+            // About 1m/s, slowly turning, with hand shake.
+            heading += random.nextGaussian() * 0.02;
+            x += Math.cos(heading) * FRAME_SECONDS;
+            y += Math.sin(heading) * FRAME_SECONDS;
+            double z = 1.3 + random.nextGaussian() * 0.005;
+
+            // Held upright, screen towards the user: device y up, z back along the heading.
+            axisAngle(0, 0, 1, heading - Math.PI / 2, rotation);
+            axisAngle(1, 0, 0, Math.PI / 2 + random.nextGaussian() * 0.05, tilt);
+            PoseMath.multiplyQuaternion(rotation, 0, tilt, 0, rotation, 0);
+
+            TangoPoseData pose = pose(x, y, z, rotation);
+            pose.timestamp = i * FRAME_SECONDS;
+            pose.baseFrame = TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE;
+            pose.targetFrame = TangoPoseData.COORDINATE_FRAME_DEVICE;
+            poses.add(pose);
+        }
+        return poses;
+    }
+
+    /**
+     * @return IMU to device, color camera and depth camera poses, as Tango reports them.
+     */
+    static TangoPoseData[] imuPoses() {
+        double[] identity = {0, 0, 0, 1};
+        double[] lookingBack = new double[4];
+        // Camera frames have y down and z forward, out the back of the device.
+        axisAngle(1, 0, 0, Math.PI, lookingBack);
+        return new TangoPoseData[]{
+                pose(0.0035, -0.0066, 0, identity),
+                pose(0.0624, 0.0032, 0.0004, lookingBack),
+                pose(0.0626, 0.0152, -0.0012, lookingBack)};
+    }
+
+    static DeviceExtrinsics extrinsics() {
+        TangoPoseData[] imuPoses = imuPoses();
+        return new DeviceExtrinsics(imuPoses[0], imuPoses[1], imuPoses[2]);
+    }
+
+    /**
+     * @return valid plane fits near the middle of synthetic or recorded clouds, in the depth frame.
+     */
+    static List<PlaneFitResult> planeFits(int maxFits) throws IOException {
+        RansacPlaneFitter fitter = new RansacPlaneFitter();
+        double[] tapRay = {0, 0, 1};
+        List<PlaneFitResult> fits = new ArrayList<>();
+        for (FloatBuffer cloud : PointClouds.load(maxFits)) {
+            PlaneFitResult result = new PlaneFitResult();
+            fitter.fitNearRay(cloud, PointClouds.pointCount(cloud), tapRay, 0.25f, result);
+            if (result.valid) {
+                fits.add(result);
+            }
+        }
+        if (fits.isEmpty()) {
+            throw new IOException("No plane could be fitted");
+        }
+        return fits;
+    }
+
+    private static TangoPoseData pose(double x, double y, double z, double[] rotation) {
+        TangoPoseData pose = new TangoPoseData();
+        pose.translation[0] = x;
+        pose.translation[1] = y;
+        pose.translation[2] = z;
+        System.arraycopy(rotation, 0, pose.rotation, 0, 4);
+        pose.statusCode = TangoPoseData.POSE_VALID;
+        return pose;
+    }
+
+    private static void axisAngle(double x, double y, double z, double angle, double[] out) {
+        double s = Math.sin(angle / 2);
+        out[0] = x * s;
+        out[1] = y * s;
+        out[2] = z * s;
+        out[3] = Math.cos(angle / 2);
+    }
+}
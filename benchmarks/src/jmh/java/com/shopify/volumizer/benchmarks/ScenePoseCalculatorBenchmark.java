@@ -0,0 +1,134 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.DeviceExtrinsics;
+import com.kanawish.raja.raja.Pose;
+import com.kanawish.raja.raja.PoseMath;
+import com.kanawish.raja.raja.ScenePoseCalculator;
+import com.shopify.volumizer.plane.PlaneFitResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rajawali3d.math.Quaternion;
+import org.rajawali3d.math.vector.Vector3;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame and per-fit pose conversions of {@link ScenePoseCalculator}, allocating versions
+ * against their output argument overloads, and the {@link PoseMath} camera pose path the activity
+ * uses. Run with the gc profiler to see allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScenePoseCalculatorBenchmark {
+
+    private static final int POSE_COUNT = 1024;
+    private static final int FIT_COUNT = 32;
+
+    private final Pose pose = new Pose(new Vector3(), new Quaternion());
+    private final TangoPoseData planePose = new TangoPoseData();
+    private final double[] deviceTCameraTranslation = new double[3];
+    private final double[] deviceTCameraRotation = new double[4];
+    private final double[] cameraTranslation = new double[3];
+    private final double[] cameraRotation = new double[4];
+
+    private List<TangoPoseData> poses;
+    private DeviceExtrinsics extrinsics;
+    private List<PlaneFitResult> fits;
+    private int poseIndex;
+    private int fitIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        poses = Poses.walk(POSE_COUNT);
+        extrinsics = Poses.extrinsics();
+        fits = Poses.planeFits(FIT_COUNT);
+
+        // Same device to OpenGL camera transform as the activity derives at connection time.
+        TangoPoseData cameraPose = ScenePoseCalculator.matrixToTangoPose(extrinsics.getDeviceTColorCamera());
+        System.arraycopy(cameraPose.translation, 0, deviceTCameraTranslation, 0, 3);
+        System.arraycopy(cameraPose.rotation, 0, deviceTCameraRotation, 0, 4);
+        PoseMath.multiplyQuaternion(deviceTCameraRotation, 0,
+                PoseMath.COLOR_CAMERA_R_OPENGL_CAMERA, 0, deviceTCameraRotation, 0);
+    }
+
+    private TangoPoseData nextPose() {
+        poseIndex = (poseIndex + 1) % poses.size();
+        return poses.get(poseIndex);
+    }
+
+    private PlaneFitResult nextFit() {
+        fitIndex = (fitIndex + 1) % fits.size();
+        return fits.get(fitIndex);
+    }
+
+    @Benchmark
+    public Pose toOpenGlCameraPose() {
+        return ScenePoseCalculator.toOpenGlCameraPose(nextPose(), extrinsics);
+    }
+
+    @Benchmark
+    public Pose toOpenGlCameraPoseInto() {
+        return ScenePoseCalculator.toOpenGlCameraPose(nextPose(), extrinsics, pose);
+    }
+
+    @Benchmark
+    public Pose toDepthCameraOpenGlPose() {
+        return ScenePoseCalculator.toDepthCameraOpenGlPose(nextPose(), extrinsics);
+    }
+
+    @Benchmark
+    public Pose toDepthCameraOpenGlPoseInto() {
+        return ScenePoseCalculator.toDepthCameraOpenGlPose(nextPose(), extrinsics, pose);
+    }
+
+    @Benchmark
+    public Pose toOpenGLPoseWithScreenRotation() {
+        return ScenePoseCalculator.toOpenGLPoseWithScreenRotation(nextPose(), 1);
+    }
+
+    @Benchmark
+    public Pose toOpenGLPoseWithScreenRotationInto() {
+        return ScenePoseCalculator.toOpenGLPoseWithScreenRotation(nextPose(), 1, pose);
+    }
+
+    @Benchmark
+    public TangoPoseData planeFitToTangoWorldPose() {
+        PlaneFitResult fit = nextFit();
+        return ScenePoseCalculator.planeFitToTangoWorldPose(
+                fit.intersectionPoint, fit.planeModel, nextPose(), extrinsics);
+    }
+
+    @Benchmark
+    public TangoPoseData planeFitToTangoWorldPoseInto() {
+        PlaneFitResult fit = nextFit();
+        return ScenePoseCalculator.planeFitToTangoWorldPose(
+                fit.intersectionPoint, fit.planeModel, nextPose(), extrinsics, planePose);
+    }
+
+    /**
+     * What {@code VolumizerActivity} does per frame instead of {@link #toOpenGlCameraPose()}.
+     */
+    @Benchmark
+    public double[] poseMathCameraPose() {
+        TangoPoseData devicePose = nextPose();
+        PoseMath.compose(devicePose.translation, devicePose.rotation,
+                deviceTCameraTranslation, deviceTCameraRotation,
+                cameraTranslation, cameraRotation);
+        PoseMath.rotateVector(PoseMath.OPENGL_R_TANGO_WORLD, 0,
+                cameraTranslation, 0, cameraTranslation, 0);
+        PoseMath.multiplyQuaternion(PoseMath.OPENGL_R_TANGO_WORLD, 0,
+                cameraRotation, 0, cameraRotation, 0);
+        return cameraRotation;
+    }
+}
@@ -0,0 +1,55 @@
+package com.shopify.volumizer.benchmarks;
+
+import com.shopify.volumizer.fusion.VoxelFusionMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second {@link VoxelFusionMap} can integrate, with a slowly moving camera so the
+ * map keeps filling up and evicting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VoxelFusionBenchmark {
+
+    private static final int CLOUD_COUNT = 32;
+
+    private final VoxelFusionMap map = new VoxelFusionMap(0.04f, 1 << 17, 32);
+    private final float[] worldTdepth = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1
+    };
+
+    private List<FloatBuffer> clouds;
+    private int cloudIndex;
+
+    @Setup(Level.Trial)
+    public void loadClouds() throws IOException {
+        clouds = PointClouds.load(CLOUD_COUNT);
+    }
+
+    @Benchmark
+    public int integrate() {
+        cloudIndex++;
+        FloatBuffer cloud = clouds.get(cloudIndex % clouds.size());
+        // Walk 1cm per frame along x.
+        worldTdepth[12] = cloudIndex * 0.01f;
+        map.integrate(cloud, PointClouds.pointCount(cloud), worldTdepth, 0.5f);
+        return map.size();
+    }
+}
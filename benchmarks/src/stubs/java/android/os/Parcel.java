@@ -0,0 +1,10 @@
+package android.os;
+
+/**
+ * Compile and class loading stand-in, see {@link Parcelable}.
+ */
+public final class Parcel {
+
+    private Parcel() {
+    }
+}
@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * Compile and class loading stand-in, so Tango's parcelable data classes load on a plain JVM.
+ * Nothing here is ever called by the benchmarks.
+ */
+public interface Parcelable {
+
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}
@@ -0,0 +1,185 @@
+package com.kanawish.raja.raja;
+
+import com.google.atap.tangoservice.TangoPoseData;
+
+import org.rajawali3d.math.Matrix4;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Transforms whole depth clouds from the depth camera frame to the OpenGL world frame.
+ * <p>
+ * The start of service &lt;- device &lt;- depth camera &lt;- OpenGL chain is composed once per
+ * frame with {@link #setPoses}, then every point is streamed from a source buffer to a
+ * destination buffer with a single 3x4 transform, instead of going through
+ * {@link ScenePoseCalculator#getPointInEngineFrame} point by point. Large clouds can be split in
+ * chunks over an {@link Executor}.
+ * <p>
+ * Buffers are accessed with absolute indices, starting at 0, their positions are left untouched.
+ * Setting the transform isn't thread safe, transforming with it is.
+ */
+public class PointCloudTransformer {
+
+    /**
+     * Floats per point in Tango depth clouds, (x, y, z, confidence).
+     */
+    public static final int TANGO_POINT_STRIDE = 4;
+
+    private static final double[] OPENGL_T_TANGO_WORLD =
+            ScenePoseCalculator.OPENGL_T_TANGO_WORLD.getDoubleValues().clone();
+
+    private final Matrix4 startServiceTDevice = new Matrix4();
+    private final Matrix4 deviceTDepth = new Matrix4();
+    private final double[] openGlTDepth = new double[16];
+    private final float[] transform = new float[16];
+
+    public PointCloudTransformer() {
+        transform[0] = transform[5] = transform[10] = transform[15] = 1;
+    }
+
+    /**
+     * Composes the transform from a depth frame's device pose and the depth camera extrinsics.
+     *
+     * @param startServiceTDevicePose device pose at the depth frame's timestamp.
+     * @param deviceTDepthPose        depth camera pose relative to the device.
+     */
+    public void setPoses(TangoPoseData startServiceTDevicePose, TangoPoseData deviceTDepthPose) {
+        ScenePoseCalculator.tangoPoseToMatrix(deviceTDepthPose, deviceTDepth);
+        compose(startServiceTDevicePose);
+    }
+
+    /**
+     * Same as {@link #setPoses(TangoPoseData, TangoPoseData)}, with the depth camera pose
+     * taken from {@code extrinsics}.
+     */
+    public void setPoses(TangoPoseData startServiceTDevicePose, DeviceExtrinsics extrinsics) {
+        deviceTDepth.setAll(extrinsics.getDeviceTDepthCamera());
+        compose(startServiceTDevicePose);
+    }
+
+    private void compose(TangoPoseData startServiceTDevicePose) {
+        ScenePoseCalculator.tangoPoseToMatrix(startServiceTDevicePose, startServiceTDevice);
+        TransformKernel.multiply(OPENGL_T_TANGO_WORLD, 0,
+                startServiceTDevice.getDoubleValues(), 0, openGlTDepth, 0);
+        TransformKernel.multiply(openGlTDepth, 0,
+                deviceTDepth.getDoubleValues(), 0, openGlTDepth, 0);
+        for (int i = 0; i < 16; i++) {
+            transform[i] = (float) openGlTDepth[i];
+        }
+    }
+
+    /**
+     * Uses an already composed, column-major transform instead. Points come out in whatever frame
+     * it targets, so for OpenGL world points it must be an OpenGL world from depth camera matrix,
+     * e.g. from {@code TangoSupport.getMatrixTransformAtTime} with the OpenGL base engine.
+     */
+    public void setTransform(float[] m, int offset) {
+        System.arraycopy(m, offset, transform, 0, 16);
+    }
+
+    /**
+     * @return the current column-major transform, don't modify.
+     */
+    public float[] getTransform() {
+        return transform;
+    }
+
+    /**
+     * Transforms {@code numPoints} points on the calling thread.
+     * <p>
+     * Strides are in floats, at least 3. When both are at least 4, the fourth float of each point,
+     * Tango's confidence, is carried over. Other extra floats of {@code out} are left untouched.
+     * {@code in} and {@code out} may be the same buffer, with the same stride.
+     */
+    public void transform(FloatBuffer in, int inStride, FloatBuffer out, int outStride, int numPoints) {
+        transformRange(in, inStride, out, outStride, 0, numPoints);
+    }
+
+    /**
+     * Same as {@link #transform(FloatBuffer, int, FloatBuffer, int, int)}, split in chunks of
+     * {@code chunkPoints} run on {@code executor}, the last one on the calling thread. Returns once
+     * all chunks are done.
+     * <p>
+     * Chunks write disjoint ranges of {@code out}, only worth it for clouds of several chunks.
+     * Chunks {@code executor} rejects run on the calling thread instead. If a chunk fails, the
+     * first failure is rethrown once all chunks are done.
+     *
+     * @throws IllegalArgumentException if {@code chunkPoints} isn't positive.
+     */
+    public void transform(final FloatBuffer in, final int inStride,
+                          final FloatBuffer out, final int outStride, int numPoints,
+                          Executor executor, int chunkPoints) throws InterruptedException {
+        if (chunkPoints <= 0) {
+            throw new IllegalArgumentException("chunkPoints must be positive: " + chunkPoints);
+        }
+        int chunkCount = (numPoints + chunkPoints - 1) / chunkPoints;
+        if (chunkCount <= 1) {
+            transformRange(in, inStride, out, outStride, 0, numPoints);
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(chunkCount - 1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int chunk = 0; chunk < chunkCount - 1; chunk++) {
+            final int from = chunk * chunkPoints;
+            final int to = from + chunkPoints;
+            Runnable task = () -> {
+                try {
+                    transformRange(in, inStride, out, outStride, from, to);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    done.countDown();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                // Rejected or shut down, the latch still needs this chunk's count.
+                task.run();
+            }
+        }
+        try {
+            transformRange(in, inStride, out, outStride, (chunkCount - 1) * chunkPoints, numPoints);
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+        done.await();
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private void transformRange(FloatBuffer in, int inStride, FloatBuffer out, int outStride,
+                                int from, int to) {
+        float[] m = transform;
+        float m0 = m[0], m1 = m[1], m2 = m[2];
+        float m4 = m[4], m5 = m[5], m6 = m[6];
+        float m8 = m[8], m9 = m[9], m10 = m[10];
+        float tx = m[12], ty = m[13], tz = m[14];
+        boolean carryConfidence = inStride >= TANGO_POINT_STRIDE && outStride >= TANGO_POINT_STRIDE;
+
+        int i = from * inStride;
+        int o = from * outStride;
+        for (int p = from; p < to; p++, i += inStride, o += outStride) {
+            float x = in.get(i);
+            float y = in.get(i + 1);
+            float z = in.get(i + 2);
+            if (carryConfidence) {
+                out.put(o + 3, in.get(i + 3));
+            }
+            out.put(o, m0 * x + m4 * y + m8 * z + tx);
+            out.put(o + 1, m1 * x + m5 * y + m9 * z + ty);
+            out.put(o + 2, m2 * x + m6 * y + m10 * z + tz);
+        }
+    }
+}
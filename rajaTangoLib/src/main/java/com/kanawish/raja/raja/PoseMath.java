@@ -0,0 +1,191 @@
+package com.kanawish.raja.raja;
+
+/**
+ * Allocation-free rigid pose helpers working directly on primitive arrays.
+ * <p>
+ * Translations are {@code [x, y, z]} and rotations are quaternions stored in Tango order
+ * {@code [x, y, z, w]}, using the right-handed Hamilton convention of {@code TangoPoseData}.
+ * Every method reads its inputs into locals before writing, so outputs may alias inputs.
+ */
+public final class PoseMath {
+
+    private static final double HALF_SQRT_2 = Math.sqrt(0.5);
+
+    /**
+     * Rotation from the Tango start of service frame to the OpenGL world frame,
+     * the quaternion equivalent of {@link ScenePoseCalculator#OPENGL_T_TANGO_WORLD}.
+     */
+    public static final double[] OPENGL_R_TANGO_WORLD = {-HALF_SQRT_2, 0, 0, HALF_SQRT_2};
+
+    /**
+     * Rotation from the Tango color camera frame to the OpenGL camera frame,
+     * the quaternion equivalent of {@link ScenePoseCalculator#COLOR_CAMERA_T_OPENGL_CAMERA}.
+     */
+    public static final double[] COLOR_CAMERA_R_OPENGL_CAMERA = {1, 0, 0, 0};
+
+    // Below this cosine, slerp falls back to a normalized lerp to avoid dividing by ~0.
+    private static final double SLERP_LINEAR_THRESHOLD = 0.9995;
+
+    private PoseMath() {
+    }
+
+    /**
+     * Hamilton product {@code out = a * b}.
+     */
+    public static void multiplyQuaternion(double[] a, int aOffset, double[] b, int bOffset,
+                                          double[] out, int outOffset) {
+        double ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2], aw = a[aOffset + 3];
+        double bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+        out[outOffset] = aw * bx + ax * bw + ay * bz - az * by;
+        out[outOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        out[outOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        out[outOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * Rotates vector {@code v} by unit quaternion {@code q}, writing the result to {@code out}.
+     */
+    public static void rotateVector(double[] q, int qOffset, double[] v, int vOffset,
+                                    double[] out, int outOffset) {
+        double qx = q[qOffset], qy = q[qOffset + 1], qz = q[qOffset + 2], qw = q[qOffset + 3];
+        double vx = v[vOffset], vy = v[vOffset + 1], vz = v[vOffset + 2];
+        // t = 2 * cross(q.xyz, v); v' = v + w * t + cross(q.xyz, t)
+        double tx = 2 * (qy * vz - qz * vy);
+        double ty = 2 * (qz * vx - qx * vz);
+        double tz = 2 * (qx * vy - qy * vx);
+        out[outOffset] = vx + qw * tx + (qy * tz - qz * ty);
+        out[outOffset + 1] = vy + qw * ty + (qz * tx - qx * tz);
+        out[outOffset + 2] = vz + qw * tz + (qx * ty - qy * tx);
+    }
+
+    /**
+     * Composes two rigid transforms, {@code out = a * b}, i.e. maps frame b into a's base frame.
+     */
+    public static void compose(double[] aTranslation, double[] aRotation,
+                               double[] bTranslation, double[] bRotation,
+                               double[] outTranslation, double[] outRotation) {
+        double bx = bTranslation[0], by = bTranslation[1], bz = bTranslation[2];
+        double ax = aTranslation[0], ay = aTranslation[1], az = aTranslation[2];
+        // Rotate b's translation in place of out first, since out may alias a or b.
+        outTranslation[0] = bx;
+        outTranslation[1] = by;
+        outTranslation[2] = bz;
+        rotateVector(aRotation, 0, outTranslation, 0, outTranslation, 0);
+        outTranslation[0] += ax;
+        outTranslation[1] += ay;
+        outTranslation[2] += az;
+        multiplyQuaternion(aRotation, 0, bRotation, 0, outRotation, 0);
+    }
+
+    /**
+     * Inverts a rigid transform.
+     */
+    public static void invert(double[] translation, double[] rotation,
+                              double[] outTranslation, double[] outRotation) {
+        outRotation[0] = -rotation[0];
+        outRotation[1] = -rotation[1];
+        outRotation[2] = -rotation[2];
+        outRotation[3] = rotation[3];
+        outTranslation[0] = -translation[0];
+        outTranslation[1] = -translation[1];
+        outTranslation[2] = -translation[2];
+        rotateVector(outRotation, 0, outTranslation, 0, outTranslation, 0);
+    }
+
+    /**
+     * Rotation vector {@code [x, y, z]} of the rotation from unit quaternion {@code a} to
+     * {@code b} in the base frame, i.e. {@code b * a^-1}, the axis scaled by the angle in radians,
+     * along the shortest arc.
+     */
+    public static void rotationVectorBetween(double[] a, int aOffset, double[] b, int bOffset,
+                                             double[] out, int outOffset) {
+        double ax = -a[aOffset], ay = -a[aOffset + 1], az = -a[aOffset + 2], aw = a[aOffset + 3];
+        double bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+        double x = bw * ax + bx * aw + by * az - bz * ay;
+        double y = bw * ay - bx * az + by * aw + bz * ax;
+        double z = bw * az + bx * ay - by * ax + bz * aw;
+        double w = bw * aw - bx * ax - by * ay - bz * az;
+        if (w < 0) {
+            x = -x;
+            y = -y;
+            z = -z;
+            w = -w;
+        }
+
+        double sin = Math.sqrt(x * x + y * y + z * z);
+        // angle / sin(angle / 2), tends to 2 for small angles.
+        double scale = sin < 1e-9 ? 2 : 2 * Math.atan2(sin, w) / sin;
+        out[outOffset] = x * scale;
+        out[outOffset + 1] = y * scale;
+        out[outOffset + 2] = z * scale;
+    }
+
+    /**
+     * Applies rotation vector {@code v}, in the base frame, to unit quaternion {@code q}:
+     * {@code out = exp(v) * q}.
+     */
+    public static void rotateByVector(double[] v, int vOffset, double[] q, int qOffset,
+                                      double[] out, int outOffset) {
+        double vx = v[vOffset], vy = v[vOffset + 1], vz = v[vOffset + 2];
+        double angle = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        // sin(angle / 2) / angle, tends to 1/2 for small angles.
+        double scale = angle < 1e-9 ? 0.5 : Math.sin(angle / 2) / angle;
+        double dx = vx * scale, dy = vy * scale, dz = vz * scale, dw = Math.cos(angle / 2);
+        double qx = q[qOffset], qy = q[qOffset + 1], qz = q[qOffset + 2], qw = q[qOffset + 3];
+        out[outOffset] = dw * qx + dx * qw + dy * qz - dz * qy;
+        out[outOffset + 1] = dw * qy - dx * qz + dy * qw + dz * qx;
+        out[outOffset + 2] = dw * qz + dx * qy - dy * qx + dz * qw;
+        out[outOffset + 3] = dw * qw - dx * qx - dy * qy - dz * qz;
+    }
+
+    /**
+     * Linear interpolation between two 3-vectors.
+     */
+    public static void lerp(double[] a, int aOffset, double[] b, int bOffset, double alpha,
+                            double[] out, int outOffset) {
+        for (int i = 0; i < 3; i++) {
+            double from = a[aOffset + i];
+            out[outOffset + i] = from + (b[bOffset + i] - from) * alpha;
+        }
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions, along the shortest arc.
+     */
+    public static void slerp(double[] a, int aOffset, double[] b, int bOffset, double alpha,
+                             double[] out, int outOffset) {
+        double ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2], aw = a[aOffset + 3];
+        double bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+
+        double cos = ax * bx + ay * by + az * bz + aw * bw;
+        if (cos < 0) {
+            cos = -cos;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+
+        double wa;
+        double wb;
+        if (cos > SLERP_LINEAR_THRESHOLD) {
+            wa = 1 - alpha;
+            wb = alpha;
+        } else {
+            double theta = Math.acos(cos);
+            double sin = Math.sin(theta);
+            wa = Math.sin((1 - alpha) * theta) / sin;
+            wb = Math.sin(alpha * theta) / sin;
+        }
+
+        double x = wa * ax + wb * bx;
+        double y = wa * ay + wb * by;
+        double z = wa * az + wb * bz;
+        double w = wa * aw + wb * bw;
+        double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+        out[outOffset] = x / norm;
+        out[outOffset + 1] = y / norm;
+        out[outOffset + 2] = z / norm;
+        out[outOffset + 3] = w / norm;
+    }
+}
@@ -25,6 +25,10 @@ import org.rajawali3d.math.vector.Vector3;
 /**
  * Convenient class for calculating transformations from the Tango world to the OpenGL world,
  * using Rajawali specific classes and conventions.
+ * <p>
+ * Methods taking an output argument write their result into it and return it, using per-thread
+ * scratch objects for intermediate results, so they allocate nothing once a thread warmed up.
+ * Use them on per-frame and per-pose paths.
  */
 public final class ScenePoseCalculator {
     private static final String TAG = ScenePoseCalculator.class.getSimpleName();
@@ -103,6 +107,25 @@ public final class ScenePoseCalculator {
      */
     public static final Vector3 TANGO_WORLD_UP = new Vector3(0, 0, 1);
 
+    private static final Vector3 UNIT_SCALE = new Vector3(1, 1, 1);
+
+    private static class Scratch {
+        final Matrix4 a = new Matrix4();
+        final Matrix4 b = new Matrix4();
+        final Matrix4 c = new Matrix4();
+        final Vector3 translation = new Vector3();
+        final Quaternion rotation = new Quaternion();
+        final Vector3 up = new Vector3();
+        final double[] upValues = new double[3];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
     /**
      * Avoid instantiating the class since it will only be used statically.
      */
@@ -113,38 +136,54 @@ public final class ScenePoseCalculator {
      * Converts from TangoPoseData to a Matrix4 for transformations.
      */
     public static Matrix4 tangoPoseToMatrix(TangoPoseData tangoPose) {
-        Vector3 v = new Vector3(tangoPose.translation[0],
+        return tangoPoseToMatrix(tangoPose, new Matrix4());
+    }
+
+    /**
+     * Same as {@link #tangoPoseToMatrix(TangoPoseData)}, writing into {@code out}.
+     */
+    public static Matrix4 tangoPoseToMatrix(TangoPoseData tangoPose, Matrix4 out) {
+        Scratch scratch = SCRATCH.get();
+        scratch.translation.setAll(tangoPose.translation[0],
                 tangoPose.translation[1], tangoPose.translation[2]);
-        Quaternion q = new Quaternion(tangoPose.rotation[3], tangoPose.rotation[0],
+        Quaternion q = scratch.rotation.setAll(tangoPose.rotation[3], tangoPose.rotation[0],
                 tangoPose.rotation[1], tangoPose.rotation[2]);
         // NOTE: Rajawali quaternions use a left-hand rotation around the axis convention.
         q.conjugate();
-        Matrix4 m = new Matrix4();
-        m.setAll(v, new Vector3(1, 1, 1), q);
-        return m;
+        return out.setAll(scratch.translation, UNIT_SCALE, q);
     }
 
     /**
      * Converts a transform in Matrix4 format to TangoPoseData.
      */
     public static TangoPoseData matrixToTangoPose(Matrix4 transform) {
+        TangoPoseData tangoPose = new TangoPoseData();
+        tangoPose.translation = new double[3];
+        tangoPose.rotation = new double[4];
+        return matrixToTangoPose(transform, tangoPose);
+    }
+
+    /**
+     * Same as {@link #matrixToTangoPose(Matrix4)}, writing into {@code out}'s translation and
+     * rotation arrays.
+     */
+    public static TangoPoseData matrixToTangoPose(Matrix4 transform, TangoPoseData out) {
         // Get translation and rotation components from the transformation matrix.
-        Vector3 p = transform.getTranslation();
-        Quaternion q = new Quaternion();
-        q.fromMatrix(transform);
+        double[] m = transform.getDoubleValues();
+        Quaternion q = SCRATCH.get().rotation;
+        q.fromMatrix(m);
 
-        TangoPoseData tangoPose = new TangoPoseData();
-        double[] t = tangoPose.translation = new double[3];
-        t[0] = p.x;
-        t[1] = p.y;
-        t[2] = p.z;
-        double[] r = tangoPose.rotation = new double[4];
+        double[] t = out.translation;
+        t[0] = m[Matrix4.M03];
+        t[1] = m[Matrix4.M13];
+        t[2] = m[Matrix4.M23];
+        double[] r = out.rotation;
         r[0] = q.x;
         r[1] = q.y;
         r[2] = q.z;
         r[3] = q.w;
 
-        return tangoPose;
+        return out;
     }
 
     /**
@@ -152,15 +191,21 @@ public final class ScenePoseCalculator {
      * Rajawali conventions.
      */
     public static Pose matrixToPose(Matrix4 m) {
+        return matrixToPose(m, new Pose(new Vector3(), new Quaternion()));
+    }
+
+    /**
+     * Same as {@link #matrixToPose(Matrix4)}, writing into {@code out}'s position and orientation.
+     */
+    public static Pose matrixToPose(Matrix4 m, Pose out) {
         // Get translation and rotation components from the transformation matrix.
-        Vector3 p = m.getTranslation();
-        Quaternion q = new Quaternion();
-        q.fromMatrix(m);
+        double[] values = m.getDoubleValues();
+        out.getPosition().setAll(values[Matrix4.M03], values[Matrix4.M13], values[Matrix4.M23]);
 
         // NOTE: Rajawali quaternions use a left-hand rotation around the axis convention.
-        q.conjugate();
+        out.getOrientation().fromMatrix(values).conjugate();
 
-        return new Pose(p, q);
+        return out;
     }
 
     /**
@@ -168,12 +213,20 @@ public final class ScenePoseCalculator {
      * position and orientation for a 3D object in the Rajawali world.
      */
     public static Pose toOpenGLPose(TangoPoseData tangoPose) {
-        Matrix4 startServiceTDevice = tangoPoseToMatrix(tangoPose);
+        return toOpenGLPose(tangoPose, new Pose(new Vector3(), new Quaternion()));
+    }
+
+    /**
+     * Same as {@link #toOpenGLPose(TangoPoseData)}, writing into {@code out}.
+     */
+    public static Pose toOpenGLPose(TangoPoseData tangoPose, Pose out) {
+        Scratch scratch = SCRATCH.get();
+        Matrix4 startServiceTDevice = tangoPoseToMatrix(tangoPose, scratch.b);
 
         // Get device pose in OpenGL world frame.
-        Matrix4 openglWorldTDevice = OPENGL_T_TANGO_WORLD.clone().multiply(startServiceTDevice);
+        Matrix4 openglWorldTDevice = scratch.a.setAll(OPENGL_T_TANGO_WORLD).multiply(startServiceTDevice);
 
-        return matrixToPose(openglWorldTDevice);
+        return matrixToPose(openglWorldTDevice, out);
     }
 
     /**
@@ -186,10 +239,21 @@ public final class ScenePoseCalculator {
      *                      http://developer.android.com/reference/android/view/Surface.html#ROTATION_0 // NO_LINT
      */
     public static Pose toOpenGLPoseWithScreenRotation(TangoPoseData tangoPose, int rotationIndex) {
-        Matrix4 startServiceTDevice = tangoPoseToMatrix(tangoPose);
+        return toOpenGLPoseWithScreenRotation(tangoPose, rotationIndex,
+                new Pose(new Vector3(), new Quaternion()));
+    }
+
+    /**
+     * Same as {@link #toOpenGLPoseWithScreenRotation(TangoPoseData, int)}, writing into
+     * {@code out}.
+     */
+    public static Pose toOpenGLPoseWithScreenRotation(TangoPoseData tangoPose, int rotationIndex,
+                                                      Pose out) {
+        Scratch scratch = SCRATCH.get();
+        Matrix4 startServiceTDevice = tangoPoseToMatrix(tangoPose, scratch.b);
 
         // Get device pose in OpenGL world frame.
-        Matrix4 openglWorldTDevice = OPENGL_T_TANGO_WORLD.clone().multiply(startServiceTDevice);
+        Matrix4 openglWorldTDevice = scratch.a.setAll(OPENGL_T_TANGO_WORLD).multiply(startServiceTDevice);
 
         switch (rotationIndex) {
             case 0:
@@ -209,7 +273,7 @@ public final class ScenePoseCalculator {
                 break;
         }
 
-        return matrixToPose(openglWorldTDevice);
+        return matrixToPose(openglWorldTDevice, out);
     }
 
     /**
@@ -244,17 +308,27 @@ public final class ScenePoseCalculator {
      * position and orientation for a OpenGL Scene Camera in the Rajawali world.
      */
     public static Pose toOpenGlCameraPose(TangoPoseData devicePose, DeviceExtrinsics extrinsics) {
-        Matrix4 startServiceTdevice = tangoPoseToMatrix(devicePose);
+        return toOpenGlCameraPose(devicePose, extrinsics, new Pose(new Vector3(), new Quaternion()));
+    }
+
+    /**
+     * Same as {@link #toOpenGlCameraPose(TangoPoseData, DeviceExtrinsics)}, writing into
+     * {@code out}.
+     */
+    public static Pose toOpenGlCameraPose(TangoPoseData devicePose, DeviceExtrinsics extrinsics,
+                                          Pose out) {
+        Scratch scratch = SCRATCH.get();
+        Matrix4 startServiceTdevice = tangoPoseToMatrix(devicePose, scratch.b);
 
         // Get device pose in OpenGL world frame.
-        Matrix4 openglTDevice = OPENGL_T_TANGO_WORLD.clone().multiply(startServiceTdevice);
+        Matrix4 openglTDevice = scratch.a.setAll(OPENGL_T_TANGO_WORLD).multiply(startServiceTdevice);
 
         // Get OpenGL camera pose in OpenGL world frame.
         Matrix4 openglWorldTOpenglCamera =
                 openglTDevice.multiply(extrinsics.getDeviceTColorCamera()).
                         multiply(COLOR_CAMERA_T_OPENGL_CAMERA);
 
-        return matrixToPose(openglWorldTOpenglCamera);
+        return matrixToPose(openglWorldTOpenglCamera, out);
     }
 
     /**
@@ -263,16 +337,27 @@ public final class ScenePoseCalculator {
      */
     public static Pose toDepthCameraOpenGlPose(TangoPoseData devicePose,
                                                DeviceExtrinsics extrinsics) {
-        Matrix4 startServiceTdevice = tangoPoseToMatrix(devicePose);
+        return toDepthCameraOpenGlPose(devicePose, extrinsics,
+                new Pose(new Vector3(), new Quaternion()));
+    }
+
+    /**
+     * Same as {@link #toDepthCameraOpenGlPose(TangoPoseData, DeviceExtrinsics)}, writing into
+     * {@code out}.
+     */
+    public static Pose toDepthCameraOpenGlPose(TangoPoseData devicePose,
+                                               DeviceExtrinsics extrinsics, Pose out) {
+        Scratch scratch = SCRATCH.get();
+        Matrix4 startServiceTdevice = tangoPoseToMatrix(devicePose, scratch.b);
 
         // Get device pose in OpenGL world frame.
-        Matrix4 openglTDevice = OPENGL_T_TANGO_WORLD.clone().multiply(startServiceTdevice);
+        Matrix4 openglTDevice = scratch.a.setAll(OPENGL_T_TANGO_WORLD).multiply(startServiceTdevice);
 
         // Get OpenGL camera pose in OpenGL world frame.
         Matrix4 openglWorldTOpenglCamera =
                 openglTDevice.multiply(extrinsics.getDeviceTDepthCamera());
 
-        return matrixToPose(openglWorldTOpenglCamera);
+        return matrixToPose(openglWorldTOpenglCamera, out);
     }
 
     /**
@@ -288,21 +373,35 @@ public final class ScenePoseCalculator {
      */
     public static TangoPoseData planeFitToTangoWorldPose(
             double[] point, double[] normal, TangoPoseData tangoPose, DeviceExtrinsics extrinsics) {
-        Matrix4 startServiceTdevice = tangoPoseToMatrix(tangoPose);
+        TangoPoseData out = new TangoPoseData();
+        out.translation = new double[3];
+        out.rotation = new double[4];
+        return planeFitToTangoWorldPose(point, normal, tangoPose, extrinsics, out);
+    }
+
+    /**
+     * Same as {@link #planeFitToTangoWorldPose(double[], double[], TangoPoseData, DeviceExtrinsics)},
+     * writing into {@code out}'s translation and rotation arrays.
+     */
+    public static TangoPoseData planeFitToTangoWorldPose(
+            double[] point, double[] normal, TangoPoseData tangoPose, DeviceExtrinsics extrinsics,
+            TangoPoseData out) {
+        Scratch scratch = SCRATCH.get();
+        Matrix4 startServiceTdevice = tangoPoseToMatrix(tangoPose, scratch.b);
 
         // Calculate the UP vector in the depth frame at the provided measurement pose.
-        Vector3 depthUp = TANGO_WORLD_UP.clone();
-        startServiceTdevice.clone().multiply(extrinsics.getDeviceTDepthCamera())
+        Vector3 depthUp = scratch.up.setAll(TANGO_WORLD_UP);
+        scratch.a.setAll(startServiceTdevice).multiply(extrinsics.getDeviceTDepthCamera())
                 .inverse().rotateVector(depthUp);
 
         // Calculate the transform in depth frame corresponding to the plane fitting information.
-        Matrix4 depthTplane = matrixFromPointNormalUp(point, normal, depthUp);
+        Matrix4 depthTplane = matrixFromPointNormalUp(point, normal, depthUp, scratch.c);
 
         // Convert to OpenGL frame.
         Matrix4 tangoWorldTplane = startServiceTdevice.multiply(extrinsics.getDeviceTDepthCamera()).
                 multiply(depthTplane);
 
-        return matrixToTangoPose(tangoWorldTplane);
+        return matrixToTangoPose(tangoWorldTplane, out);
     }
 
     /**
@@ -310,41 +409,36 @@ public final class ScenePoseCalculator {
      * The coordinate frame of the target transformation will be Z forward, X left, Y up.
      */
     public static Matrix4 matrixFromPointNormalUp(double[] point, double[] normal, Vector3 up) {
-        Vector3 zAxis = new Vector3(normal);
-        zAxis.normalize();
-        Vector3 xAxis = new Vector3();
-        xAxis.crossAndSet(up, zAxis);
-        xAxis.normalize();
-        Vector3 yAxis = new Vector3();
-        yAxis.crossAndSet(xAxis, zAxis);
-        yAxis.normalize();
-
-        double[] rot = new double[16];
-
-        rot[Matrix4.M00] = xAxis.x;
-        rot[Matrix4.M10] = xAxis.y;
-        rot[Matrix4.M20] = xAxis.z;
-
-        rot[Matrix4.M01] = yAxis.x;
-        rot[Matrix4.M11] = yAxis.y;
-        rot[Matrix4.M21] = yAxis.z;
-
-        rot[Matrix4.M02] = zAxis.x;
-        rot[Matrix4.M12] = zAxis.y;
-        rot[Matrix4.M22] = zAxis.z;
-
-        rot[Matrix4.M33] = 1;
-
-        Matrix4 m = new Matrix4(rot);
-        m.setTranslation(point[0], point[1], point[2]);
+        return matrixFromPointNormalUp(point, normal, up, new Matrix4());
+    }
 
-        return m;
+    /**
+     * Same as {@link #matrixFromPointNormalUp(double[], double[], Vector3)}, writing into
+     * {@code out}.
+     */
+    public static Matrix4 matrixFromPointNormalUp(double[] point, double[] normal, Vector3 up,
+                                                  Matrix4 out) {
+        double[] upValues = SCRATCH.get().upValues;
+        upValues[0] = up.x;
+        upValues[1] = up.y;
+        upValues[2] = up.z;
+        double[] m = out.getDoubleValues();
+        TransformKernel.planeFromPointNormalUp(point, 0, normal, 0, upValues, 0, m, 0);
+
+        // This X axis is up x normal, the kernel's is normal x up.
+        m[Matrix4.M00] = -m[Matrix4.M00];
+        m[Matrix4.M10] = -m[Matrix4.M10];
+        m[Matrix4.M20] = -m[Matrix4.M20];
+
+        return out;
     }
 
     /**
      * Converts a point, represented as a Vector3 from it's initial refrence frame to 
      * the OpenGl world refrence frame. This allows various points to be depicted in
      * the OpenGl rendering.
+     * <p>
+     * NOTE: Allocates several matrices per call, use {@link PointCloudTransformer} for clouds.
      */
     public static Vector3 getPointInEngineFrame(
             Vector3 inPoint,
@@ -0,0 +1,351 @@
+package com.kanawish.raja.raja;
+
+/**
+ * Allocation-free 4x4 transform helpers working directly on column-major {@code float[16]} and
+ * {@code double[16]} matrices, the layout of both {@code android.opengl.Matrix} and Rajawali's
+ * {@code Matrix4}, so either can be used without wrapping.
+ * <p>
+ * Quaternions are stored in Tango order {@code [x, y, z, w]}, like in {@link PoseMath}.
+ * Every method reads its inputs into locals before writing, so outputs may alias inputs.
+ */
+public final class TransformKernel {
+
+    private TransformKernel() {
+    }
+
+    /**
+     * {@code out = a * b}.
+     */
+    public static void multiply(float[] a, int aOffset, float[] b, int bOffset,
+                                float[] out, int outOffset) {
+        float a00 = a[aOffset], a10 = a[aOffset + 1], a20 = a[aOffset + 2], a30 = a[aOffset + 3];
+        float a01 = a[aOffset + 4], a11 = a[aOffset + 5], a21 = a[aOffset + 6], a31 = a[aOffset + 7];
+        float a02 = a[aOffset + 8], a12 = a[aOffset + 9], a22 = a[aOffset + 10], a32 = a[aOffset + 11];
+        float a03 = a[aOffset + 12], a13 = a[aOffset + 13], a23 = a[aOffset + 14], a33 = a[aOffset + 15];
+        for (int c = 0; c < 16; c += 4) {
+            float b0 = b[bOffset + c], b1 = b[bOffset + c + 1], b2 = b[bOffset + c + 2], b3 = b[bOffset + c + 3];
+            out[outOffset + c] = a00 * b0 + a01 * b1 + a02 * b2 + a03 * b3;
+            out[outOffset + c + 1] = a10 * b0 + a11 * b1 + a12 * b2 + a13 * b3;
+            out[outOffset + c + 2] = a20 * b0 + a21 * b1 + a22 * b2 + a23 * b3;
+            out[outOffset + c + 3] = a30 * b0 + a31 * b1 + a32 * b2 + a33 * b3;
+        }
+    }
+
+    /**
+     * {@code out = a * b}.
+     */
+    public static void multiply(double[] a, int aOffset, double[] b, int bOffset,
+                                double[] out, int outOffset) {
+        double a00 = a[aOffset], a10 = a[aOffset + 1], a20 = a[aOffset + 2], a30 = a[aOffset + 3];
+        double a01 = a[aOffset + 4], a11 = a[aOffset + 5], a21 = a[aOffset + 6], a31 = a[aOffset + 7];
+        double a02 = a[aOffset + 8], a12 = a[aOffset + 9], a22 = a[aOffset + 10], a32 = a[aOffset + 11];
+        double a03 = a[aOffset + 12], a13 = a[aOffset + 13], a23 = a[aOffset + 14], a33 = a[aOffset + 15];
+        for (int c = 0; c < 16; c += 4) {
+            double b0 = b[bOffset + c], b1 = b[bOffset + c + 1], b2 = b[bOffset + c + 2], b3 = b[bOffset + c + 3];
+            out[outOffset + c] = a00 * b0 + a01 * b1 + a02 * b2 + a03 * b3;
+            out[outOffset + c + 1] = a10 * b0 + a11 * b1 + a12 * b2 + a13 * b3;
+            out[outOffset + c + 2] = a20 * b0 + a21 * b1 + a22 * b2 + a23 * b3;
+            out[outOffset + c + 3] = a30 * b0 + a31 * b1 + a32 * b2 + a33 * b3;
+        }
+    }
+
+    /**
+     * Inverts a rotation and translation only transform, {@code [R | t]^-1 = [R^T | -R^T t]}.
+     */
+    public static void invertRigid(float[] m, int offset, float[] out, int outOffset) {
+        float r00 = m[offset], r10 = m[offset + 1], r20 = m[offset + 2];
+        float r01 = m[offset + 4], r11 = m[offset + 5], r21 = m[offset + 6];
+        float r02 = m[offset + 8], r12 = m[offset + 9], r22 = m[offset + 10];
+        float tx = m[offset + 12], ty = m[offset + 13], tz = m[offset + 14];
+        out[outOffset] = r00;
+        out[outOffset + 1] = r01;
+        out[outOffset + 2] = r02;
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = r10;
+        out[outOffset + 5] = r11;
+        out[outOffset + 6] = r12;
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = r20;
+        out[outOffset + 9] = r21;
+        out[outOffset + 10] = r22;
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = -(r00 * tx + r10 * ty + r20 * tz);
+        out[outOffset + 13] = -(r01 * tx + r11 * ty + r21 * tz);
+        out[outOffset + 14] = -(r02 * tx + r12 * ty + r22 * tz);
+        out[outOffset + 15] = 1;
+    }
+
+    /**
+     * Inverts a rotation and translation only transform, {@code [R | t]^-1 = [R^T | -R^T t]}.
+     */
+    public static void invertRigid(double[] m, int offset, double[] out, int outOffset) {
+        double r00 = m[offset], r10 = m[offset + 1], r20 = m[offset + 2];
+        double r01 = m[offset + 4], r11 = m[offset + 5], r21 = m[offset + 6];
+        double r02 = m[offset + 8], r12 = m[offset + 9], r22 = m[offset + 10];
+        double tx = m[offset + 12], ty = m[offset + 13], tz = m[offset + 14];
+        out[outOffset] = r00;
+        out[outOffset + 1] = r01;
+        out[outOffset + 2] = r02;
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = r10;
+        out[outOffset + 5] = r11;
+        out[outOffset + 6] = r12;
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = r20;
+        out[outOffset + 9] = r21;
+        out[outOffset + 10] = r22;
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = -(r00 * tx + r10 * ty + r20 * tz);
+        out[outOffset + 13] = -(r01 * tx + r11 * ty + r21 * tz);
+        out[outOffset + 14] = -(r02 * tx + r12 * ty + r22 * tz);
+        out[outOffset + 15] = 1;
+    }
+
+    /**
+     * Transforms point {@code [x, y, z]}, as {@code w = 1}.
+     */
+    public static void transformPoint(float[] m, int offset, float[] p, int pOffset,
+                                      float[] out, int outOffset) {
+        float x = p[pOffset], y = p[pOffset + 1], z = p[pOffset + 2];
+        out[outOffset] = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z + m[offset + 12];
+        out[outOffset + 1] = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z + m[offset + 13];
+        out[outOffset + 2] = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z + m[offset + 14];
+    }
+
+    /**
+     * Transforms point {@code [x, y, z]}, as {@code w = 1}.
+     */
+    public static void transformPoint(double[] m, int offset, double[] p, int pOffset,
+                                      double[] out, int outOffset) {
+        double x = p[pOffset], y = p[pOffset + 1], z = p[pOffset + 2];
+        out[outOffset] = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z + m[offset + 12];
+        out[outOffset + 1] = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z + m[offset + 13];
+        out[outOffset + 2] = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z + m[offset + 14];
+    }
+
+    /**
+     * Rotates direction {@code [x, y, z]}, ignoring the translation.
+     */
+    public static void rotateVector(float[] m, int offset, float[] v, int vOffset,
+                                    float[] out, int outOffset) {
+        float x = v[vOffset], y = v[vOffset + 1], z = v[vOffset + 2];
+        out[outOffset] = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z;
+        out[outOffset + 1] = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z;
+        out[outOffset + 2] = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z;
+    }
+
+    /**
+     * Rotates direction {@code [x, y, z]} by the inverse rotation of a rigid transform, without
+     * inverting it.
+     */
+    public static void inverseRotateVector(float[] m, int offset, float[] v, int vOffset,
+                                           float[] out, int outOffset) {
+        float x = v[vOffset], y = v[vOffset + 1], z = v[vOffset + 2];
+        out[outOffset] = m[offset] * x + m[offset + 1] * y + m[offset + 2] * z;
+        out[outOffset + 1] = m[offset + 4] * x + m[offset + 5] * y + m[offset + 6] * z;
+        out[outOffset + 2] = m[offset + 8] * x + m[offset + 9] * y + m[offset + 10] * z;
+    }
+
+    /**
+     * Rotates direction {@code [x, y, z]} by the inverse rotation of a rigid transform, without
+     * inverting it.
+     */
+    public static void inverseRotateVector(double[] m, int offset, double[] v, int vOffset,
+                                           double[] out, int outOffset) {
+        double x = v[vOffset], y = v[vOffset + 1], z = v[vOffset + 2];
+        out[outOffset] = m[offset] * x + m[offset + 1] * y + m[offset + 2] * z;
+        out[outOffset + 1] = m[offset + 4] * x + m[offset + 5] * y + m[offset + 6] * z;
+        out[outOffset + 2] = m[offset + 8] * x + m[offset + 9] * y + m[offset + 10] * z;
+    }
+
+    public static void getTranslation(float[] m, int offset, double[] out, int outOffset) {
+        out[outOffset] = m[offset + 12];
+        out[outOffset + 1] = m[offset + 13];
+        out[outOffset + 2] = m[offset + 14];
+    }
+
+    /**
+     * Distance between the translations of two transforms.
+     */
+    public static double translationDistance(float[] a, int aOffset, float[] b, int bOffset) {
+        double dx = a[aOffset + 12] - b[bOffset + 12];
+        double dy = a[aOffset + 13] - b[bOffset + 13];
+        double dz = a[aOffset + 14] - b[bOffset + 14];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Unit quaternion of the transform's rotation part, which must be orthonormal.
+     */
+    public static void getRotation(float[] m, int offset, double[] q, int qOffset) {
+        rotationToQuaternion(m[offset], m[offset + 4], m[offset + 8],
+                m[offset + 1], m[offset + 5], m[offset + 9],
+                m[offset + 2], m[offset + 6], m[offset + 10], q, qOffset);
+    }
+
+    /**
+     * Unit quaternion of the transform's rotation part, which must be orthonormal.
+     */
+    public static void getRotation(double[] m, int offset, double[] q, int qOffset) {
+        rotationToQuaternion(m[offset], m[offset + 4], m[offset + 8],
+                m[offset + 1], m[offset + 5], m[offset + 9],
+                m[offset + 2], m[offset + 6], m[offset + 10], q, qOffset);
+    }
+
+    /**
+     * Rigid transform of translation {@code t} and unit quaternion {@code q}.
+     */
+    public static void fromPose(double[] t, int tOffset, double[] q, int qOffset,
+                                float[] out, int outOffset) {
+        double x = q[qOffset], y = q[qOffset + 1], z = q[qOffset + 2], w = q[qOffset + 3];
+        double xx = x * x, yy = y * y, zz = z * z;
+        double xy = x * y, xz = x * z, yz = y * z;
+        double wx = w * x, wy = w * y, wz = w * z;
+        out[outOffset] = (float) (1 - 2 * (yy + zz));
+        out[outOffset + 1] = (float) (2 * (xy + wz));
+        out[outOffset + 2] = (float) (2 * (xz - wy));
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = (float) (2 * (xy - wz));
+        out[outOffset + 5] = (float) (1 - 2 * (xx + zz));
+        out[outOffset + 6] = (float) (2 * (yz + wx));
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = (float) (2 * (xz + wy));
+        out[outOffset + 9] = (float) (2 * (yz - wx));
+        out[outOffset + 10] = (float) (1 - 2 * (xx + yy));
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = (float) t[tOffset];
+        out[outOffset + 13] = (float) t[tOffset + 1];
+        out[outOffset + 14] = (float) t[tOffset + 2];
+        out[outOffset + 15] = 1;
+    }
+
+    // Shepperd's method, branching on the largest diagonal term to keep the square root away from 0.
+    private static void rotationToQuaternion(double r00, double r01, double r02,
+                                             double r10, double r11, double r12,
+                                             double r20, double r21, double r22,
+                                             double[] q, int qOffset) {
+        double x, y, z, w;
+        double trace = r00 + r11 + r22;
+        if (trace > 0) {
+            double s = 0.5 / Math.sqrt(trace + 1);
+            w = 0.25 / s;
+            x = (r21 - r12) * s;
+            y = (r02 - r20) * s;
+            z = (r10 - r01) * s;
+        } else if (r00 > r11 && r00 > r22) {
+            double s = 2 * Math.sqrt(1 + r00 - r11 - r22);
+            w = (r21 - r12) / s;
+            x = 0.25 * s;
+            y = (r01 + r10) / s;
+            z = (r02 + r20) / s;
+        } else if (r11 > r22) {
+            double s = 2 * Math.sqrt(1 + r11 - r00 - r22);
+            w = (r02 - r20) / s;
+            x = (r01 + r10) / s;
+            y = 0.25 * s;
+            z = (r12 + r21) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + r22 - r00 - r11);
+            w = (r10 - r01) / s;
+            x = (r02 + r20) / s;
+            y = (r12 + r21) / s;
+            z = 0.25 * s;
+        }
+        q[qOffset] = x;
+        q[qOffset + 1] = y;
+        q[qOffset + 2] = z;
+        q[qOffset + 3] = w;
+    }
+
+    /**
+     * Transform of a plane from a point on it, its normal and the up gravity vector, with the
+     * normal as Z axis, X = Z x up and Y = Z x X.
+     */
+    public static void planeFromPointNormalUp(double[] point, int pointOffset,
+                                              double[] normal, int normalOffset,
+                                              float[] up, int upOffset,
+                                              float[] out, int outOffset) {
+        double px = point[pointOffset], py = point[pointOffset + 1], pz = point[pointOffset + 2];
+        double zx = normal[normalOffset], zy = normal[normalOffset + 1], zz = normal[normalOffset + 2];
+        double ux = up[upOffset], uy = up[upOffset + 1], uz = up[upOffset + 2];
+
+        double zLength = Math.sqrt(zx * zx + zy * zy + zz * zz);
+        zx /= zLength;
+        zy /= zLength;
+        zz /= zLength;
+        double xx = zy * uz - uy * zz;
+        double xy = zz * ux - uz * zx;
+        double xz = zx * uy - ux * zy;
+        double xLength = Math.sqrt(xx * xx + xy * xy + xz * xz);
+        xx /= xLength;
+        xy /= xLength;
+        xz /= xLength;
+        double yx = zy * xz - xy * zz;
+        double yy = zz * xx - xz * zx;
+        double yz = zx * xy - xx * zy;
+        double yLength = Math.sqrt(yx * yx + yy * yy + yz * yz);
+
+        out[outOffset] = (float) xx;
+        out[outOffset + 1] = (float) xy;
+        out[outOffset + 2] = (float) xz;
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = (float) (yx / yLength);
+        out[outOffset + 5] = (float) (yy / yLength);
+        out[outOffset + 6] = (float) (yz / yLength);
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = (float) zx;
+        out[outOffset + 9] = (float) zy;
+        out[outOffset + 10] = (float) zz;
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = (float) px;
+        out[outOffset + 13] = (float) py;
+        out[outOffset + 14] = (float) pz;
+        out[outOffset + 15] = 1;
+    }
+
+    /**
+     * Transform of a plane from a point on it, its normal and the up gravity vector, with the
+     * normal as Z axis, X = Z x up and Y = Z x X.
+     */
+    public static void planeFromPointNormalUp(double[] point, int pointOffset,
+                                              double[] normal, int normalOffset,
+                                              double[] up, int upOffset,
+                                              double[] out, int outOffset) {
+        double px = point[pointOffset], py = point[pointOffset + 1], pz = point[pointOffset + 2];
+        double zx = normal[normalOffset], zy = normal[normalOffset + 1], zz = normal[normalOffset + 2];
+        double ux = up[upOffset], uy = up[upOffset + 1], uz = up[upOffset + 2];
+
+        double zLength = Math.sqrt(zx * zx + zy * zy + zz * zz);
+        zx /= zLength;
+        zy /= zLength;
+        zz /= zLength;
+        double xx = zy * uz - uy * zz;
+        double xy = zz * ux - uz * zx;
+        double xz = zx * uy - ux * zy;
+        double xLength = Math.sqrt(xx * xx + xy * xy + xz * xz);
+        xx /= xLength;
+        xy /= xLength;
+        xz /= xLength;
+        double yx = zy * xz - xy * zz;
+        double yy = zz * xx - xz * zx;
+        double yz = zx * xy - xx * zy;
+        double yLength = Math.sqrt(yx * yx + yy * yy + yz * yz);
+
+        out[outOffset] = xx;
+        out[outOffset + 1] = xy;
+        out[outOffset + 2] = xz;
+        out[outOffset + 3] = 0;
+        out[outOffset + 4] = yx / yLength;
+        out[outOffset + 5] = yy / yLength;
+        out[outOffset + 6] = yz / yLength;
+        out[outOffset + 7] = 0;
+        out[outOffset + 8] = zx;
+        out[outOffset + 9] = zy;
+        out[outOffset + 10] = zz;
+        out[outOffset + 11] = 0;
+        out[outOffset + 12] = px;
+        out[outOffset + 13] = py;
+        out[outOffset + 14] = pz;
+        out[outOffset + 15] = 1;
+    }
+}
@@ -0,0 +1,209 @@
+package com.kanawish.raja.raja;
+
+import org.rajawali3d.Object3D;
+import org.rajawali3d.cameras.Camera;
+import org.rajawali3d.math.Matrix4;
+import org.rajawali3d.math.vector.Vector3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Visibility stage to run before the scene renders: hides objects whose bounding sphere is outside
+ * the camera frustum or too small on screen, and picks a level of detail for the others.
+ * <p>
+ * Culling works by toggling {@link Object3D#setVisible(boolean)}, Rajawali skips invisible objects
+ * before updating their matrices, so a culled object costs neither draw calls nor matrix updates.
+ * Objects must be direct children of the scene, their position being taken as world position.
+ * Since the culler owns visibility, show and hide registered objects with
+ * {@link Entry#setEnabled(boolean)} instead.
+ * <p>
+ * NOTE: This must be used from the OpenGL render thread - it is not thread safe. Only the counts
+ * can be read from other threads, e.g. for telemetry.
+ */
+public class VisibilityCuller {
+
+    /**
+     * Below this projected radius in pixels, single level objects are culled.
+     */
+    public static final double DEFAULT_MIN_PIXEL_RADIUS = 1;
+
+    public static class Entry {
+        private final Object3D root;
+        private final double radius;
+        private final Object3D[] levels;
+        private final double[] minPixelRadius;
+        private boolean enabled = true;
+        private int level = -1;
+
+        private Entry(Object3D root, double radius, Object3D[] levels, double[] minPixelRadius) {
+            this.root = root;
+            this.radius = radius;
+            this.levels = levels;
+            this.minPixelRadius = minPixelRadius;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * @return the level shown after the last update, -1 if culled.
+         */
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Matrix4 viewProjection = new Matrix4();
+    // Left, right, bottom, top, near, far, as normalized [a, b, c, d].
+    private final double[] planes = new double[24];
+
+    private volatile int visibleCount;
+    private volatile int culledCount;
+
+    /**
+     * Registers a single level object, hidden until the next {@link #update}. It is culled when
+     * its projected radius drops below {@link #DEFAULT_MIN_PIXEL_RADIUS}.
+     *
+     * @param radius bounding sphere radius around the object's origin.
+     */
+    public Entry add(Object3D object, double radius) {
+        return add(object, radius, new Object3D[]{object}, new double[]{DEFAULT_MIN_PIXEL_RADIUS});
+    }
+
+    /**
+     * Registers an object with levels of detail, hidden until the next {@link #update}. The root
+     * carries the transform, the levels are among its children and only one of them is visible
+     * at a time.
+     *
+     * @param levels         from most to least detailed.
+     * @param minPixelRadius decreasing projected radius each level needs to be shown, below the
+     *                       last one the object is culled.
+     */
+    public Entry add(Object3D root, double radius, Object3D[] levels, double[] minPixelRadius) {
+        if (levels.length != minPixelRadius.length) {
+            throw new IllegalArgumentException("One minimum pixel radius per level expected.");
+        }
+        Entry entry = new Entry(root, radius, levels, minPixelRadius);
+        // Hidden until the next update decides.
+        root.setVisible(false);
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Unregisters an entry, leaving its objects' visibility as it was.
+     */
+    public void remove(Entry entry) {
+        entries.remove(entry);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @param viewportHeight in pixels, for projected sizes.
+     */
+    public void update(Camera camera, int viewportHeight) {
+        Matrix4 projection = camera.getProjectionMatrix();
+        viewProjection.setAll(projection).multiply(camera.getViewMatrix());
+        extractPlanes(viewProjection.getDoubleValues());
+        // Pixels per unit of radius at a depth of 1.
+        double pixelScale = projection.getDoubleValues()[Matrix4.M11] * viewportHeight / 2;
+        double[] m = viewProjection.getDoubleValues();
+
+        int visible = 0;
+        int culled = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (!entry.enabled) {
+                setLevel(entry, -1);
+                continue;
+            }
+
+            Vector3 center = entry.root.getPosition();
+            int level = -1;
+            if (intersectsFrustum(center.x, center.y, center.z, entry.radius)) {
+                // Clip w is the view depth for a perspective projection.
+                double depth = m[3] * center.x + m[7] * center.y + m[11] * center.z + m[15];
+                double pixelRadius = depth > entry.radius
+                        ? entry.radius * pixelScale / depth
+                        : Double.MAX_VALUE;
+                for (int l = 0; l < entry.levels.length; l++) {
+                    if (pixelRadius >= entry.minPixelRadius[l]) {
+                        level = l;
+                        break;
+                    }
+                }
+            }
+            setLevel(entry, level);
+            if (level >= 0) {
+                visible++;
+            } else {
+                culled++;
+            }
+        }
+        visibleCount = visible;
+        culledCount = culled;
+    }
+
+    /**
+     * @return enabled entries shown by the last update.
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * @return enabled entries hidden by the last update, out of the frustum or too small.
+     */
+    public int getCulledCount() {
+        return culledCount;
+    }
+
+    private void setLevel(Entry entry, int level) {
+        if (entry.level == level) {
+            return;
+        }
+        entry.root.setVisible(level >= 0);
+        if (entry.levels.length > 1 || entry.levels[0] != entry.root) {
+            for (int l = 0; l < entry.levels.length; l++) {
+                entry.levels[l].setVisible(l == level);
+            }
+        }
+        entry.level = level;
+    }
+
+    // Gribb-Hartmann extraction from a column-major view projection.
+    private void extractPlanes(double[] m) {
+        for (int i = 0; i < 3; i++) {
+            setPlane(i * 2, m[3] + m[i], m[7] + m[4 + i], m[11] + m[8 + i], m[15] + m[12 + i]);
+            setPlane(i * 2 + 1, m[3] - m[i], m[7] - m[4 + i], m[11] - m[8 + i], m[15] - m[12 + i]);
+        }
+    }
+
+    private void setPlane(int plane, double a, double b, double c, double d) {
+        double length = Math.sqrt(a * a + b * b + c * c);
+        int o = plane * 4;
+        planes[o] = a / length;
+        planes[o + 1] = b / length;
+        planes[o + 2] = c / length;
+        planes[o + 3] = d / length;
+    }
+
+    private boolean intersectsFrustum(double x, double y, double z, double radius) {
+        for (int o = 0; o < planes.length; o += 4) {
+            if (planes[o] * x + planes[o + 1] * y + planes[o + 2] * z + planes[o + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,108 @@
+package com.kanawish.raja.raja.renderables;
+
+import android.graphics.Color;
+
+import org.rajawali3d.Object3D;
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.materials.shaders.FragmentShader;
+import org.rajawali3d.materials.shaders.VertexShader;
+
+import java.util.Locale;
+
+/**
+ * Metric floor grid drawn procedurally on a single quad, with anti-aliased minor and major lines
+ * fading out with distance.
+ * <p>
+ * Lines are computed per fragment from world coordinates, so memory and draw calls stay constant
+ * however large the floor is. Keep the quad under the camera with {@link #setCenter}, the lines
+ * stay put in the world while it moves, and the fade hides its edges.
+ * <p>
+ * Anti-aliasing relies on {@code GL_OES_standard_derivatives}, available on Tango devices.
+ */
+public class FloorGrid extends Object3D {
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n"
+                    + "uniform mat4 uModelMatrix;\n"
+                    + "attribute vec4 aPosition;\n"
+                    + "varying vec2 vWorld;\n"
+                    + "varying float vDistance;\n"
+                    + "void main() {\n"
+                    + "    gl_Position = uMVPMatrix * aPosition;\n"
+                    + "    vWorld = (uModelMatrix * aPosition).xz;\n"
+                    // The quad is centered under the camera.
+                    + "    vDistance = length(aPosition.xz);\n"
+                    + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_standard_derivatives : enable\n"
+                    + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+                    + "precision highp float;\n"
+                    + "#else\n"
+                    + "precision mediump float;\n"
+                    + "#endif\n"
+                    + "varying vec2 vWorld;\n"
+                    + "varying float vDistance;\n"
+                    // 1 on a line of the given spacing, 0 off it, over about a pixel.
+                    + "float line(vec2 coord) {\n"
+                    + "    vec2 d = abs(fract(coord - 0.5) - 0.5) / fwidth(coord);\n"
+                    + "    return 1.0 - min(min(d.x, d.y), 1.0);\n"
+                    + "}\n"
+                    + "void main() {\n"
+                    + "    float minor = line(vWorld / %1$f);\n"
+                    + "    float major = line(vWorld / %2$f);\n"
+                    + "    float fade = 1.0 - smoothstep(%3$f, %4$f, vDistance);\n"
+                    + "    vec4 color = mix(vec4(%5$f, %6$f, %7$f, %8$f) * minor,\n"
+                    + "            vec4(%9$f, %10$f, %11$f, %12$f), major);\n"
+                    + "    color.a *= fade;\n"
+                    + "    if (color.a <= 0.0) {\n"
+                    + "        discard;\n"
+                    + "    }\n"
+                    + "    gl_FragColor = color;\n"
+                    + "}\n";
+
+    // Fading starts at this fraction of the fade distance.
+    private static final float FADE_START = 0.5f;
+
+    /**
+     * @param step         minor line spacing, in meters.
+     * @param majorEvery   minor steps between major lines.
+     * @param fadeDistance lines are gone at this distance from the center, also the quad's
+     *                     half size.
+     */
+    public FloorGrid(float step, int majorEvery, float fadeDistance, int minorColor, int majorColor) {
+        super("floorGrid");
+        float h = fadeDistance;
+        setData(new float[]{-h, 0, -h, h, 0, -h, h, 0, h, -h, 0, h},
+                new float[]{0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0},
+                new float[]{0, 0, 1, 0, 1, 1, 0, 1},
+                null,
+                new int[]{0, 2, 1, 0, 3, 2},
+                true);
+
+        String fragmentShader = String.format(Locale.US, FRAGMENT_SHADER,
+                step, step * majorEvery, fadeDistance * FADE_START, fadeDistance,
+                Color.red(minorColor) / 255f, Color.green(minorColor) / 255f,
+                Color.blue(minorColor) / 255f, Color.alpha(minorColor) / 255f,
+                Color.red(majorColor) / 255f, Color.green(majorColor) / 255f,
+                Color.blue(majorColor) / 255f, Color.alpha(majorColor) / 255f);
+        setMaterial(new Material(new VertexShader(VERTEX_SHADER), new FragmentShader(fragmentShader)));
+        setDoubleSided(true);
+        setTransparent(true);
+    }
+
+    /**
+     * Puts the grid at the height of the detected floor, in the OpenGL world frame (y up).
+     */
+    public void setFloorHeight(double y) {
+        setY(y);
+    }
+
+    /**
+     * Re-centers the quad, typically under the camera.
+     */
+    public void setCenter(double x, double z) {
+        setX(x);
+        setZ(z);
+    }
+}
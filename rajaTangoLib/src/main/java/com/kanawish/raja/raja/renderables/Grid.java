@@ -27,7 +27,10 @@ import java.util.Stack;
  * Rajawali object which represents the 'floor' of the current scene.
  * This is a static grid placed in the scene to provide perspective in the
  * various views.
+ *
+ * @deprecated allocates a vector per line end and grows with the floor size, use {@link FloorGrid}.
  */
+@Deprecated
 public class Grid extends Line3D {
     public Grid(int size, int step, float thickness, int color) {
         super(calculatePoints(size, step), thickness, color);
@@ -0,0 +1,348 @@
+package com.kanawish.raja.raja.renderables;
+
+import android.graphics.Color;
+import android.opengl.GLES20;
+
+import org.rajawali3d.BufferInfo;
+import org.rajawali3d.Geometry3D;
+import org.rajawali3d.Object3D;
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.materials.shaders.FragmentShader;
+import org.rajawali3d.materials.shaders.VertexShader;
+import org.rajawali3d.materials.textures.ATexture;
+import org.rajawali3d.math.Matrix4;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Draws many copies of one mesh in a single draw call, each with its own transform, color and
+ * selected state.
+ * <p>
+ * OpenGL ES 2 has no instanced draws, so instances are baked into one shared geometry: each
+ * instance's vertices are transformed on the CPU, next to a per-vertex copy of its color.
+ * Changing an instance only re-uploads its own range, and removing one moves the last instance
+ * into its slot, so live instances stay packed and draw with a single glDrawElements.
+ * <p>
+ * Selected instances are drawn with the selection color instead of their own, no material swap.
+ * Textured instances can each show a sub-rectangle of the texture, like a {@link LabelAtlas}
+ * region.
+ * With more than 65535 batched vertices, devices without 32 bit indices won't draw correctly.
+ * <p>
+ * NOTE: Instances must be changed from the OpenGL render thread.
+ */
+public class InstanceBatch extends Object3D {
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n"
+                    + "attribute vec4 aPosition;\n"
+                    + "attribute vec4 aVertexColor;\n"
+                    + "varying vec4 vColor;\n"
+                    + "void main() {\n"
+                    + "    gl_Position = uMVPMatrix * aPosition;\n"
+                    + "    vColor = aVertexColor;\n"
+                    + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+                    + "varying vec4 vColor;\n"
+                    + "void main() {\n"
+                    + "    gl_FragColor = vColor;\n"
+                    + "}\n";
+
+    private static final String TEXTURED_VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n"
+                    + "attribute vec4 aPosition;\n"
+                    + "attribute vec2 aTextureCoord;\n"
+                    + "attribute vec4 aVertexColor;\n"
+                    + "varying vec2 vTextureCoord;\n"
+                    + "varying vec4 vColor;\n"
+                    + "void main() {\n"
+                    + "    gl_Position = uMVPMatrix * aPosition;\n"
+                    + "    vTextureCoord = aTextureCoord;\n"
+                    + "    vColor = aVertexColor;\n"
+                    + "}\n";
+
+    // The sampler is named after the texture, that's how Rajawali binds it.
+    private static final String TEXTURED_FRAGMENT_SHADER =
+            "precision mediump float;\n"
+                    + "uniform sampler2D %s;\n"
+                    + "varying vec2 vTextureCoord;\n"
+                    + "varying vec4 vColor;\n"
+                    + "void main() {\n"
+                    + "    gl_FragColor = texture2D(%s, vTextureCoord) * vColor;\n"
+                    + "}\n";
+
+    private final int mMaxInstances;
+    private final int mMeshVertexCount;
+    private final int mMeshIndexCount;
+    private final float[] mMeshVertices;
+    private final float[] mMeshTextureCoords;
+
+    // *** Indexed by slot, live instances are packed in [0, mInstanceCount) ***
+    private final int[] mSlotIds;
+    private final int[] mColors;
+    private final boolean[] mSelected;
+    // u0, v0, u1, v1 per slot.
+    private final float[] mTextureRegions;
+    private int mInstanceCount;
+
+    // *** Indexed by id, -1 when the id is free ***
+    private final int[] mIdSlots;
+    private final int[] mFreeIds;
+    private int mFreeIdCount;
+    private int mNextId;
+
+    private int mSelectionColor = Color.CYAN;
+    private final double[] mTransform = new double[16];
+
+    /**
+     * @param mesh    only read, its vertices, texture coordinates and indices are copied.
+     * @param texture optional, modulated by the instance colors.
+     */
+    public InstanceBatch(Object3D mesh, int maxInstances, ATexture texture) {
+        super();
+        mMaxInstances = maxInstances;
+
+        Geometry3D meshGeometry = mesh.getGeometry();
+        FloatBuffer meshVertices = meshGeometry.getVertices();
+        mMeshVertexCount = meshVertices.limit() / 3;
+        mMeshVertices = new float[mMeshVertexCount * 3];
+        for (int i = 0; i < mMeshVertices.length; i++) {
+            mMeshVertices[i] = meshVertices.get(i);
+        }
+        mMeshIndexCount = meshGeometry.getNumIndices();
+        int[] meshIndices = readIndices(meshGeometry.getIndices(), mMeshIndexCount);
+        FloatBuffer meshTextureCoords = texture == null ? null : meshGeometry.getTextureCoords();
+        if (meshTextureCoords != null) {
+            mMeshTextureCoords = new float[mMeshVertexCount * 2];
+            for (int i = 0; i < mMeshTextureCoords.length; i++) {
+                mMeshTextureCoords[i] = meshTextureCoords.get(i);
+            }
+        } else {
+            mMeshTextureCoords = null;
+        }
+
+        int[] indices = new int[maxInstances * mMeshIndexCount];
+        for (int instance = 0; instance < maxInstances; instance++) {
+            for (int i = 0; i < mMeshIndexCount; i++) {
+                indices[instance * mMeshIndexCount + i] = instance * mMeshVertexCount + meshIndices[i];
+            }
+        }
+        float[] textureCoords = null;
+        if (mMeshTextureCoords != null) {
+            textureCoords = new float[maxInstances * mMeshVertexCount * 2];
+            for (int i = 0; i < textureCoords.length; i++) {
+                textureCoords[i] = mMeshTextureCoords[i % mMeshTextureCoords.length];
+            }
+        }
+        setData(new float[maxInstances * mMeshVertexCount * 3], GLES20.GL_DYNAMIC_DRAW,
+                null, GLES20.GL_STATIC_DRAW,
+                textureCoords, GLES20.GL_DYNAMIC_DRAW,
+                new float[maxInstances * mMeshVertexCount * 4], GLES20.GL_DYNAMIC_DRAW,
+                indices, GLES20.GL_STATIC_DRAW,
+                true);
+        mGeometry.setNumIndices(0);
+
+        mSlotIds = new int[maxInstances];
+        mColors = new int[maxInstances];
+        mSelected = new boolean[maxInstances];
+        mTextureRegions = new float[maxInstances * 4];
+        mIdSlots = new int[maxInstances];
+        mFreeIds = new int[maxInstances];
+        Arrays.fill(mIdSlots, -1);
+
+        setMaterial(buildMaterial(textureCoords != null ? texture : null));
+    }
+
+    private static int[] readIndices(Buffer buffer, int count) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = buffer instanceof IntBuffer
+                    ? ((IntBuffer) buffer).get(i)
+                    : ((ShortBuffer) buffer).get(i) & 0xffff;
+        }
+        return indices;
+    }
+
+    private static Material buildMaterial(ATexture texture) {
+        Material material;
+        if (texture == null) {
+            material = new Material(new VertexShader(VERTEX_SHADER), new FragmentShader(FRAGMENT_SHADER));
+        } else {
+            String sampler = texture.getTextureName();
+            material = new Material(new VertexShader(TEXTURED_VERTEX_SHADER),
+                    new FragmentShader(String.format(TEXTURED_FRAGMENT_SHADER, sampler, sampler)));
+            try {
+                material.addTexture(texture);
+            } catch (ATexture.TextureException e) {
+                throw new RuntimeException("Couldn't add the instance batch texture", e);
+            }
+        }
+        material.useVertexColors(true);
+        return material;
+    }
+
+    /**
+     * @return the instance's id, stable until it's removed.
+     */
+    public int addInstance(Matrix4 transform, int color) {
+        if (mInstanceCount == mMaxInstances) {
+            throw new RuntimeException(
+                    String.format("instanceCount exceeds maximum number of instances = %d", mMaxInstances));
+        }
+        int id = mFreeIdCount > 0 ? mFreeIds[--mFreeIdCount] : mNextId++;
+        int slot = mInstanceCount++;
+        mIdSlots[id] = slot;
+        mSlotIds[slot] = id;
+        mColors[slot] = color;
+        mSelected[slot] = false;
+        writeTransform(slot, transform);
+        writeColor(slot);
+        writeTextureRegion(slot, 0, 0, 1, 1);
+        mGeometry.setNumIndices(mInstanceCount * mMeshIndexCount);
+        return id;
+    }
+
+    public void setTransform(int id, Matrix4 transform) {
+        writeTransform(mIdSlots[id], transform);
+    }
+
+    public void setColor(int id, int color) {
+        int slot = mIdSlots[id];
+        mColors[slot] = color;
+        writeColor(slot);
+    }
+
+    public void setSelected(int id, boolean selected) {
+        int slot = mIdSlots[id];
+        if (mSelected[slot] != selected) {
+            mSelected[slot] = selected;
+            writeColor(slot);
+        }
+    }
+
+    /**
+     * Maps the instance's texture coordinates into the [u0, u1] x [v0, v1] sub-rectangle.
+     * Instances start with the whole texture.
+     */
+    public void setTextureRegion(int id, float u0, float v0, float u1, float v1) {
+        writeTextureRegion(mIdSlots[id], u0, v0, u1, v1);
+    }
+
+    /**
+     * Color of selected instances, applies to instances selected from now on.
+     */
+    public void setSelectionColor(int color) {
+        mSelectionColor = color;
+    }
+
+    public void removeInstance(int id) {
+        int slot = mIdSlots[id];
+        int last = --mInstanceCount;
+        if (slot != last) {
+            // Keep instances packed, the last one takes the freed slot.
+            moveSlot(last, slot);
+        }
+        mIdSlots[id] = -1;
+        mFreeIds[mFreeIdCount++] = id;
+        mGeometry.setNumIndices(mInstanceCount * mMeshIndexCount);
+    }
+
+    public void clearInstances() {
+        Arrays.fill(mIdSlots, -1);
+        mFreeIdCount = 0;
+        mNextId = 0;
+        mInstanceCount = 0;
+        mGeometry.setNumIndices(0);
+    }
+
+    public int getInstanceCount() {
+        return mInstanceCount;
+    }
+
+    private void writeTransform(int slot, Matrix4 transform) {
+        // Column-major.
+        double[] m = mTransform;
+        transform.toArray(m);
+        FloatBuffer vertices = mGeometry.getVertices();
+        int first = slot * mMeshVertexCount * 3;
+        for (int i = 0; i < mMeshVertexCount * 3; i += 3) {
+            double x = mMeshVertices[i];
+            double y = mMeshVertices[i + 1];
+            double z = mMeshVertices[i + 2];
+            vertices.put(first + i, (float) (m[0] * x + m[4] * y + m[8] * z + m[12]));
+            vertices.put(first + i + 1, (float) (m[1] * x + m[5] * y + m[9] * z + m[13]));
+            vertices.put(first + i + 2, (float) (m[2] * x + m[6] * y + m[10] * z + m[14]));
+        }
+        upload(mGeometry.getVertexBufferInfo(), vertices, first, mMeshVertexCount * 3);
+    }
+
+    private void writeColor(int slot) {
+        int color = mSelected[slot] ? mSelectionColor : mColors[slot];
+        float r = Color.red(color) / 255f;
+        float g = Color.green(color) / 255f;
+        float b = Color.blue(color) / 255f;
+        float a = Color.alpha(color) / 255f;
+        FloatBuffer colors = mGeometry.getColors();
+        int first = slot * mMeshVertexCount * 4;
+        for (int i = 0; i < mMeshVertexCount * 4; i += 4) {
+            colors.put(first + i, r);
+            colors.put(first + i + 1, g);
+            colors.put(first + i + 2, b);
+            colors.put(first + i + 3, a);
+        }
+        upload(mGeometry.getColorBufferInfo(), colors, first, mMeshVertexCount * 4);
+    }
+
+    private void writeTextureRegion(int slot, float u0, float v0, float u1, float v1) {
+        mTextureRegions[slot * 4] = u0;
+        mTextureRegions[slot * 4 + 1] = v0;
+        mTextureRegions[slot * 4 + 2] = u1;
+        mTextureRegions[slot * 4 + 3] = v1;
+        if (mMeshTextureCoords == null) {
+            return;
+        }
+        FloatBuffer textureCoords = mGeometry.getTextureCoords();
+        int first = slot * mMeshVertexCount * 2;
+        for (int i = 0; i < mMeshVertexCount * 2; i += 2) {
+            textureCoords.put(first + i, u0 + mMeshTextureCoords[i] * (u1 - u0));
+            textureCoords.put(first + i + 1, v0 + mMeshTextureCoords[i + 1] * (v1 - v0));
+        }
+        upload(mGeometry.getTexCoordBufferInfo(), textureCoords, first, mMeshVertexCount * 2);
+    }
+
+    private void moveSlot(int from, int to) {
+        FloatBuffer vertices = mGeometry.getVertices();
+        int vertexFloats = mMeshVertexCount * 3;
+        for (int i = 0; i < vertexFloats; i++) {
+            vertices.put(to * vertexFloats + i, vertices.get(from * vertexFloats + i));
+        }
+        upload(mGeometry.getVertexBufferInfo(), vertices, to * vertexFloats, vertexFloats);
+
+        int id = mSlotIds[from];
+        mSlotIds[to] = id;
+        mColors[to] = mColors[from];
+        mSelected[to] = mSelected[from];
+        mIdSlots[id] = to;
+        writeColor(to);
+        writeTextureRegion(to,
+                mTextureRegions[from * 4], mTextureRegions[from * 4 + 1],
+                mTextureRegions[from * 4 + 2], mTextureRegions[from * 4 + 3]);
+    }
+
+    // The geometry's buffers are kept in sync, they're the source for context loss reloads.
+    private static void upload(BufferInfo bufferInfo, FloatBuffer data, int firstFloat, int floatCount) {
+        data.position(firstFloat);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferInfo.bufferHandle);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER,
+                firstFloat * Geometry3D.FLOAT_SIZE_BYTES,
+                floatCount * Geometry3D.FLOAT_SIZE_BYTES,
+                data);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        data.position(0);
+    }
+}
@@ -0,0 +1,249 @@
+package com.kanawish.raja.raja.renderables;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import org.rajawali3d.materials.textures.ATexture;
+import org.rajawali3d.materials.textures.Texture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs labels and marker glyphs into a few shared textures, instead of a bitmap and texture per
+ * label. Renderables draw with one of the page textures and the UV rectangle of their region.
+ * <p>
+ * Regions are cached by key and pinned while in use. Released regions stay cached, and are
+ * reused least recently used first once the pages are full. Packing is shelf based: regions go
+ * left to right along shelves about their height, new shelves are opened top to bottom.
+ * <p>
+ * Painting happens on the page bitmaps, which also back the textures, so a context loss reload
+ * keeps the labels. {@link #flush()} uploads the pages painted since the last call.
+ * <p>
+ * NOTE: This must be used from the OpenGL render thread - it is not thread safe.
+ */
+public class LabelAtlas {
+
+    // Keeps linear filtering from bleeding neighbours in.
+    private static final int PADDING = 1;
+    // Regions only go on shelves at most this much taller than them.
+    private static final float MAX_SHELF_WASTE = 1.5f;
+
+    public interface Painter {
+        /**
+         * Paints a region, the canvas is translated and clipped to it, and cleared.
+         */
+        void paint(Canvas canvas, int width, int height);
+    }
+
+    public static class Region {
+        private final String key;
+        private int page;
+        private int x;
+        private int y;
+        // Painted size, padding included.
+        private int width;
+        private int height;
+        // Space taken on the page, larger than the painted size when reusing a bigger region.
+        private int slotWidth;
+        private int slotHeight;
+        private int pins;
+        private long lastUsed;
+
+        public float u0;
+        public float v0;
+        public float u1;
+        public float v1;
+
+        private Region(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getPage() {
+            return page;
+        }
+    }
+
+    private static class Shelf {
+        final int y;
+        final int height;
+        int x;
+
+        Shelf(int y, int height) {
+            this.y = y;
+            this.height = height;
+        }
+    }
+
+    private static class Page {
+        final Bitmap bitmap;
+        final Texture texture;
+        final List<Shelf> shelves = new ArrayList<>();
+        int shelvesHeight;
+        boolean dirty;
+
+        Page(String textureName, int size) {
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            texture = new Texture(textureName, bitmap);
+            // No mipmaps, they'd have to be rebuilt on every update.
+            texture.setMipmap(false);
+            texture.setFilterType(ATexture.FilterType.LINEAR);
+            texture.setWrapType(ATexture.WrapType.CLAMP);
+        }
+    }
+
+    private final int pageSize;
+    private final Page[] pages;
+    private final Map<String, Region> regions = new HashMap<>();
+    private final Canvas canvas = new Canvas();
+    private long tick;
+
+    /**
+     * @param textureName page textures are named {@code textureName + page index}.
+     */
+    public LabelAtlas(String textureName, int pageSize, int pageCount) {
+        this.pageSize = pageSize;
+        pages = new Page[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pages[i] = new Page(textureName + i, pageSize);
+        }
+    }
+
+    public ATexture getTexture(int page) {
+        return pages[page].texture;
+    }
+
+    /**
+     * Pins the region cached under {@code key}, painting it first if it isn't cached.
+     *
+     * @return null if every page is full of pinned regions.
+     */
+    public Region acquire(String key, int width, int height, Painter painter) {
+        Region region = regions.get(key);
+        if (region == null) {
+            region = new Region(key);
+            if (!allocate(region, width + 2 * PADDING, height + 2 * PADDING)) {
+                return null;
+            }
+            regions.put(key, region);
+            paint(region, painter);
+        }
+        region.pins++;
+        region.lastUsed = ++tick;
+        return region;
+    }
+
+    /**
+     * Unpins a region, it stays cached until its space is needed.
+     */
+    public void release(Region region) {
+        region.pins--;
+        region.lastUsed = ++tick;
+    }
+
+    /**
+     * Uploads pages painted since the last call.
+     */
+    public void flush() {
+        for (Page page : pages) {
+            if (page.dirty && page.texture.getTextureId() > 0) {
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, page.texture.getTextureId());
+                GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, page.bitmap);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+                page.dirty = false;
+            }
+        }
+    }
+
+    public int size() {
+        return regions.size();
+    }
+
+    private boolean allocate(Region region, int width, int height) {
+        // An open shelf with room.
+        for (int i = 0; i < pages.length; i++) {
+            for (Shelf shelf : pages[i].shelves) {
+                if (height <= shelf.height && shelf.height <= height * MAX_SHELF_WASTE
+                        && shelf.x + width <= pageSize) {
+                    place(region, i, shelf.x, shelf.y, width, height, width, height);
+                    shelf.x += width;
+                    return true;
+                }
+            }
+        }
+
+        // A new shelf.
+        for (int i = 0; i < pages.length; i++) {
+            Page page = pages[i];
+            if (page.shelvesHeight + height <= pageSize && width <= pageSize) {
+                Shelf shelf = new Shelf(page.shelvesHeight, height);
+                page.shelves.add(shelf);
+                page.shelvesHeight += height;
+                place(region, i, 0, shelf.y, width, height, width, height);
+                shelf.x = width;
+                return true;
+            }
+        }
+
+        // The least recently used unpinned region big enough.
+        Region victim = null;
+        for (Region candidate : regions.values()) {
+            if (candidate.pins == 0 && candidate.slotWidth >= width && candidate.slotHeight >= height
+                    && (victim == null || candidate.lastUsed < victim.lastUsed)) {
+                victim = candidate;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        regions.remove(victim.key);
+        // Occupies the victim's whole slot, so it can be reused as is in turn, but only paints
+        // the size asked for.
+        place(region, victim.page, victim.x, victim.y, victim.slotWidth, victim.slotHeight, width, height);
+        return true;
+    }
+
+    private void place(Region region, int page, int x, int y,
+            int slotWidth, int slotHeight, int width, int height) {
+        region.page = page;
+        region.x = x;
+        region.y = y;
+        region.slotWidth = slotWidth;
+        region.slotHeight = slotHeight;
+        region.width = width;
+        region.height = height;
+    }
+
+    private void paint(Region region, Painter painter) {
+        Page page = pages[region.page];
+        int width = region.width - 2 * PADDING;
+        int height = region.height - 2 * PADDING;
+
+        canvas.setBitmap(page.bitmap);
+        canvas.save();
+        // Clears the whole slot, a reused one may hold a larger region's leftovers.
+        canvas.clipRect(region.x, region.y, region.x + region.slotWidth, region.y + region.slotHeight);
+        canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        canvas.translate(region.x + PADDING, region.y + PADDING);
+        canvas.clipRect(0, 0, width, height);
+        painter.paint(canvas, width, height);
+        canvas.restore();
+        canvas.setBitmap(null);
+        page.dirty = true;
+
+        // UVs cover the painted area only, not the padding.
+        region.u0 = (float) (region.x + PADDING) / pageSize;
+        region.v0 = (float) (region.y + PADDING) / pageSize;
+        region.u1 = (float) (region.x + PADDING + width) / pageSize;
+        region.v1 = (float) (region.y + PADDING + height) / pageSize;
+    }
+}
@@ -15,42 +15,74 @@
  */
 package com.kanawish.raja.raja.renderables;
 
+import android.graphics.Bitmap;
 import android.graphics.Color;
 
 
 import com.kanawish.raja.raja.renderables.primitives.Points;
 
 import org.rajawali3d.materials.Material;
+import org.rajawali3d.materials.shaders.FragmentShader;
+import org.rajawali3d.materials.shaders.VertexShader;
+import org.rajawali3d.materials.textures.ATexture;
+import org.rajawali3d.materials.textures.Texture;
 
 import java.nio.FloatBuffer;
+import java.util.Locale;
 
 /**
  * Renders a point cloud using colors to indicate distance to the depth sensor.
  * Coloring is based on the light spectrum: closest points are in red, farthest in violet.
+ * <p>
+ * Only positions are uploaded, the palette is a {@link #PALETTE_SIZE} x 1 texture looked up
+ * by depth in the fragment shader, so updating the cloud is a single streamed buffer upload.
  */
 public class PointCloud extends Points {
     // Maximum depth range used to calculate coloring (min = 0)
     public static final float CLOUD_MAX_Z = 5;
 
-    private float[] mColorArray;
-    private final int[] mPalette;
     public static final int PALETTE_SIZE = 360;
     public static final float HUE_BEGIN = 0;
     public static final float HUE_END = 320;
 
+    private static final String PALETTE_SAMPLER = "uPalette";
+    private static final float POINT_SIZE = 5;
+
+    // ES2 has no fixed function point size, it has to come from the vertex shader.
+    private static final String VERTEX_SHADER = String.format(Locale.US,
+            "uniform mat4 uMVPMatrix;\n"
+                    + "attribute vec4 aPosition;\n"
+                    + "varying float vDepth;\n"
+                    + "void main() {\n"
+                    + "    gl_Position = uMVPMatrix * aPosition;\n"
+                    + "    gl_PointSize = %.1f;\n"
+                    + "    vDepth = clamp(aPosition.z / %.1f, 0.0, 1.0);\n"
+                    + "}\n",
+            POINT_SIZE, CLOUD_MAX_Z);
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+                    + "uniform sampler2D " + PALETTE_SAMPLER + ";\n"
+                    + "varying float vDepth;\n"
+                    + "void main() {\n"
+                    + "    gl_FragColor = texture2D(" + PALETTE_SAMPLER + ", vec2(vDepth, 0.5));\n"
+                    + "}\n";
+
     public PointCloud(int maxPoints) {
-        super(maxPoints, true);
-        mPalette = createPalette();
-        mColorArray = new float[maxPoints * 4];
-        Material m = new Material();
-        m.useVertexColors(true);
+        super(maxPoints, false, true);
+        Material m = new Material(new VertexShader(VERTEX_SHADER), new FragmentShader(FRAGMENT_SHADER));
+        try {
+            m.addTexture(createPalette());
+        } catch (ATexture.TextureException e) {
+            throw new RuntimeException("Couldn't add the depth palette texture", e);
+        }
         setMaterial(m);
     }
 
     /**
-     * Pre-calculate a palette to be used to translate between point distance and RGB color.
+     * Pre-calculate a palette texture to be used to translate between point distance and RGB color.
      */
-    private int[] createPalette() {
+    private Texture createPalette() {
         int[] palette = new int[PALETTE_SIZE];
         float[] hsv = new float[3];
         hsv[1] = hsv[2] = 1;
@@ -58,38 +90,20 @@ public class PointCloud extends Points {
             hsv[0] = (HUE_END - HUE_BEGIN) * i / PALETTE_SIZE + HUE_BEGIN;
             palette[i] = Color.HSVToColor(hsv);
         }
-        return palette;
-    }
 
-    /**
-     * Calculate the right color for each point in the point cloud.
-     */
-    private void calculateColors(int pointCount, FloatBuffer pointCloudBuffer) {
-        float[] points = new float[pointCount * 3];
-        pointCloudBuffer.rewind();
-        pointCloudBuffer.get(points);
-        pointCloudBuffer.rewind();
-
-        int color;
-        int colorIndex;
-        float z;
-        for (int i = 0; i < pointCount; i++) {
-            z = points[i * 3 + 2];
-            colorIndex = (int) Math.min(z / CLOUD_MAX_Z * mPalette.length, mPalette.length - 1);
-            colorIndex = Math.max(colorIndex, 0);
-            color = mPalette[colorIndex];
-            mColorArray[i * 4] = Color.red(color) / 255f;
-            mColorArray[i * 4 + 1] = Color.green(color) / 255f;
-            mColorArray[i * 4 + 2] = Color.blue(color) / 255f;
-            mColorArray[i * 4 + 3] = Color.alpha(color) / 255f;
-        }
+        Texture texture = new Texture(PALETTE_SAMPLER,
+                Bitmap.createBitmap(palette, PALETTE_SIZE, 1, Bitmap.Config.ARGB_8888));
+        // Non power of two, so no mipmaps and clamped. Nearest keeps the palette's discrete bands.
+        texture.setMipmap(false);
+        texture.setWrapType(ATexture.WrapType.CLAMP);
+        texture.setFilterType(ATexture.FilterType.NEAREST);
+        return texture;
     }
 
     /**
-     * Update the points and colors in the point cloud.
+     * Update the points in the point cloud, packed as xyz floats.
      */
     public void updateCloud(int pointCount, FloatBuffer pointBuffer) {
-        calculateColors(pointCount, pointBuffer);
-        updatePoints(pointCount, pointBuffer, mColorArray);
+        updatePoints(pointCount, pointBuffer);
     }
 }
@@ -22,69 +22,279 @@ import org.rajawali3d.Object3D;
 import org.rajawali3d.materials.Material;
 import org.rajawali3d.math.vector.Vector3;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Rajawali object showing the Trajectory of the Project Tango
  * device in 3D space. Points are added when the trajectory is updated by
  * passing translation data obtained from Tango Pose Data.
+ * <p>
+ * The line strip is split in fixed size chunks, each with its own VBO, and every new vertex is
+ * uploaded on its own, so adding a pose costs the same an hour into a session as at its start.
+ * Poses closer than {@link #MIN_SEGMENT_LENGTH} to the last vertex are dropped, and a pose going
+ * the same way as the last segment moves its end instead of adding a vertex. Past
+ * {@link #MAX_CHUNKS}, the two oldest chunks are merged and simplified, so memory stays bounded
+ * and only old history loses detail.
  */
 public class Trajectory extends Object3D {
-    private static final int MAX_NUMBER_OF_VERTICES = 9000;
-    private Vector3 mLastPoint = new Vector3();
-    private FloatBuffer mVertexBuffer;
+    private static final int CHUNK_VERTICES = 1024;
+    // 16 chunks of 1024 vertices, ~200KB of vertices and indices.
+    private static final int MAX_CHUNKS = 16;
+
+    private static final double MIN_SEGMENT_LENGTH = 0.01;
+    private static final double MIN_COS_TURN = Math.cos(Math.toRadians(2));
+    // Starting tolerance when merging old chunks, doubled until the merge fits in one chunk.
+    private static final float SIMPLIFY_TOLERANCE = 0.01f;
+
+    private final Material mChunkMaterial;
+    private final List<Chunk> mChunks = new ArrayList<>();
+    private final Vector3 mLastPoint = new Vector3();
+    // Start of the last segment.
+    private final Vector3 mPreviousPoint = new Vector3();
     private int mTrajectoryCount;
 
+    // *** Merge scratch ***
+    private final float[] mMergeVertices = new float[CHUNK_VERTICES * 2 * 3];
+    private final boolean[] mMergeKeep = new boolean[CHUNK_VERTICES * 2];
+    private final int[] mMergeStack = new int[CHUNK_VERTICES * 4];
+
     public Trajectory(int color, float thickness) {
         super();
-        init(true);
-        Material m = new Material();
-        m.setColor(color);
-        setMaterial(m);
-        mVertexBuffer = ByteBuffer
-                .allocateDirect(MAX_NUMBER_OF_VERTICES * Geometry3D.FLOAT_SIZE_BYTES)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mChunkMaterial = new Material();
+        mChunkMaterial.setColor(color);
+        setMaterial(mChunkMaterial);
+    }
 
+    // Update the geometry of the Trajectory once new vertex is available.
+    public void addSegmentTo(Vector3 vertex) {
+        addSegmentTo(vertex.x, vertex.y, vertex.z);
     }
 
-    // Initialize the buffers for Trajectory primitive.
-    // Since only vertex and Index buffers are used, we only initialize them using setData call.
-    protected void init(boolean createVBOs) {
-        float[] vertices = new float[MAX_NUMBER_OF_VERTICES * 3];
-        int[] indices = new int[MAX_NUMBER_OF_VERTICES];
-        for (int i = 0; i < indices.length; ++i) {
-            indices[i] = i;
+    public void addSegmentTo(double x, double y, double z) {
+        if (mTrajectoryCount > 0) {
+            double dx = x - mLastPoint.x;
+            double dy = y - mLastPoint.y;
+            double dz = z - mLastPoint.z;
+            double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (length < MIN_SEGMENT_LENGTH) {
+                return;
+            }
+
+            Chunk tail = mChunks.get(mChunks.size() - 1);
+            // The tail's first vertex is shared with the previous chunk, it never moves.
+            if (tail.count >= 2) {
+                double px = mLastPoint.x - mPreviousPoint.x;
+                double py = mLastPoint.y - mPreviousPoint.y;
+                double pz = mLastPoint.z - mPreviousPoint.z;
+                double previousLength = Math.sqrt(px * px + py * py + pz * pz);
+                double cos = (px * dx + py * dy + pz * dz) / (previousLength * length);
+                if (cos > MIN_COS_TURN) {
+                    tail.set(tail.count - 1, x, y, z);
+                    mLastPoint.setAll(x, y, z);
+                    return;
+                }
+            }
         }
-        setData(vertices, GLES20.GL_STATIC_DRAW,
-                null, GLES20.GL_STATIC_DRAW,
-                null, GLES20.GL_STATIC_DRAW,
-                null, GLES20.GL_STATIC_DRAW,
-                indices, GLES20.GL_STATIC_DRAW,
-                createVBOs);
+        append(x, y, z);
     }
 
-    // Update the geometry of the Trajectory once new vertex is available.
-    public void addSegmentTo(Vector3 vertex) {
-        mVertexBuffer.position(mTrajectoryCount * 3);
-        mVertexBuffer.put((float) vertex.x);
-        mVertexBuffer.put((float) vertex.y);
-        mVertexBuffer.put((float) vertex.z);
+    private void append(double x, double y, double z) {
+        Chunk tail = mChunks.isEmpty() ? null : mChunks.get(mChunks.size() - 1);
+        if (tail == null || tail.count == CHUNK_VERTICES) {
+            Chunk chunk = new Chunk(mChunkMaterial);
+            if (tail != null) {
+                // Repeat the last vertex, keeping the strip connected across chunks.
+                chunk.append(mLastPoint.x, mLastPoint.y, mLastPoint.z);
+            }
+            addChild(chunk);
+            mChunks.add(chunk);
+            if (mChunks.size() > MAX_CHUNKS) {
+                mergeOldestChunks();
+            }
+            tail = chunk;
+        }
+        tail.append(x, y, z);
+        mPreviousPoint.setAll(mLastPoint);
+        mLastPoint.setAll(x, y, z);
         mTrajectoryCount++;
-        mLastPoint = vertex.clone();
-        mGeometry.setNumIndices(mTrajectoryCount);
-        mGeometry.getVertices().position(0);
-        mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mVertexBuffer, 0,
-                mTrajectoryCount * 3);
     }
 
-    public void preRender() {
-        super.preRender();
-        setDrawingMode(GLES20.GL_LINE_STRIP);
+    /**
+     * Merges the two oldest chunks into the oldest one, simplified to fit.
+     */
+    private void mergeOldestChunks() {
+        Chunk first = mChunks.get(0);
+        Chunk second = mChunks.get(1);
+        int count = first.copyTo(mMergeVertices, 0);
+        // The second chunk starts with the first's last vertex.
+        count += second.copyTo(mMergeVertices, count - 1) - 1;
+
+        float tolerance = SIMPLIFY_TOLERANCE;
+        int kept;
+        while ((kept = simplify(mMergeVertices, count, tolerance, mMergeKeep, mMergeStack)) > CHUNK_VERTICES) {
+            tolerance *= 2;
+        }
+        first.setAll(mMergeVertices, count, mMergeKeep);
+
+        mChunks.remove(1);
+        removeChild(second);
+        second.destroy();
+    }
+
+    /**
+     * Douglas-Peucker simplification of a polyline, the end points are always kept.
+     *
+     * @param keep receives which of the {@code count} vertices are kept.
+     * @param stack scratch, at least {@code 2 * count} long.
+     * @return the number of vertices kept.
+     */
+    static int simplify(float[] vertices, int count, float tolerance, boolean[] keep, int[] stack) {
+        Arrays.fill(keep, 0, count, false);
+        if (count <= 2) {
+            Arrays.fill(keep, 0, count, true);
+            return count;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+        int kept = 2;
+        float toleranceSquared = tolerance * tolerance;
+
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            float farthestSquared = toleranceSquared;
+            for (int i = first + 1; i < last; i++) {
+                float distanceSquared = distanceToSegmentSquared(vertices, i, first, last);
+                if (distanceSquared > farthestSquared) {
+                    farthest = i;
+                    farthestSquared = distanceSquared;
+                }
+            }
+            if (farthest != -1) {
+                keep[farthest] = true;
+                kept++;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        return kept;
+    }
+
+    private static float distanceToSegmentSquared(float[] v, int point, int start, int end) {
+        int p = point * 3;
+        int a = start * 3;
+        int b = end * 3;
+        float abx = v[b] - v[a];
+        float aby = v[b + 1] - v[a + 1];
+        float abz = v[b + 2] - v[a + 2];
+        float apx = v[p] - v[a];
+        float apy = v[p + 1] - v[a + 1];
+        float apz = v[p + 2] - v[a + 2];
+        float lengthSquared = abx * abx + aby * aby + abz * abz;
+        float t = lengthSquared == 0 ? 0 : (apx * abx + apy * aby + apz * abz) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        float dx = apx - t * abx;
+        float dy = apy - t * aby;
+        float dz = apz - t * abz;
+        return dx * dx + dy * dy + dz * dz;
     }
 
+    /**
+     * @return the last vertex, updated in place as the trajectory grows.
+     */
     public Vector3 getLastPoint() {
         return mLastPoint;
     }
+
+    public int getChunkCount() {
+        return mChunks.size();
+    }
+
+    /**
+     * One line strip VBO. The geometry's vertex buffer is kept in sync with the VBO, it's both
+     * the source for context loss reloads and for merges.
+     */
+    private static class Chunk extends Object3D {
+        int count;
+
+        Chunk(Material material) {
+            super();
+            int[] indices = new int[CHUNK_VERTICES];
+            for (int i = 0; i < indices.length; ++i) {
+                indices[i] = i;
+            }
+            setData(new float[CHUNK_VERTICES * 3], GLES20.GL_DYNAMIC_DRAW,
+                    null, GLES20.GL_STATIC_DRAW,
+                    null, GLES20.GL_STATIC_DRAW,
+                    null, GLES20.GL_STATIC_DRAW,
+                    indices, GLES20.GL_STATIC_DRAW,
+                    true);
+            mGeometry.setNumIndices(0);
+            setMaterial(material);
+        }
+
+        void append(double x, double y, double z) {
+            count++;
+            set(count - 1, x, y, z);
+            mGeometry.setNumIndices(count);
+        }
+
+        void set(int index, double x, double y, double z) {
+            FloatBuffer vertices = mGeometry.getVertices();
+            vertices.put(index * 3, (float) x);
+            vertices.put(index * 3 + 1, (float) y);
+            vertices.put(index * 3 + 2, (float) z);
+            upload(index * 3, 3);
+        }
+
+        int copyTo(float[] out, int firstVertex) {
+            FloatBuffer vertices = mGeometry.getVertices();
+            for (int i = 0; i < count * 3; i++) {
+                out[firstVertex * 3 + i] = vertices.get(i);
+            }
+            return count;
+        }
+
+        // Replaces the chunk's vertices with the kept ones, in a single upload.
+        void setAll(float[] source, int sourceCount, boolean[] keep) {
+            FloatBuffer vertices = mGeometry.getVertices();
+            count = 0;
+            for (int i = 0; i < sourceCount; i++) {
+                if (keep[i]) {
+                    vertices.put(count * 3, source[i * 3]);
+                    vertices.put(count * 3 + 1, source[i * 3 + 1]);
+                    vertices.put(count * 3 + 2, source[i * 3 + 2]);
+                    count++;
+                }
+            }
+            mGeometry.setNumIndices(count);
+            upload(0, count * 3);
+        }
+
+        private void upload(int firstFloat, int floatCount) {
+            FloatBuffer vertices = mGeometry.getVertices();
+            vertices.position(firstFloat);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mGeometry.getVertexBufferInfo().bufferHandle);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER,
+                    firstFloat * Geometry3D.FLOAT_SIZE_BYTES,
+                    floatCount * Geometry3D.FLOAT_SIZE_BYTES,
+                    vertices);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            vertices.position(0);
+        }
+
+        public void preRender() {
+            super.preRender();
+            setDrawingMode(GLES20.GL_LINE_STRIP);
+        }
+    }
 }
@@ -18,20 +18,53 @@ package com.kanawish.raja.raja.renderables.primitives;
 import android.opengl.GLES10;
 import android.opengl.GLES20;
 
+import org.rajawali3d.BufferInfo;
+import org.rajawali3d.Geometry3D;
 import org.rajawali3d.Object3D;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 /**
  * A Point primitive for Rajawali.
  * Intended to be contributed and PR'ed to Rajawali.
+ * <p>
+ * In streaming mode, every update orphans the VBO store before uploading into it, so the driver
+ * hands out fresh memory instead of stalling until the GPU is done drawing the previous cloud.
+ * Only the used range is uploaded, into a store sized to the largest cloud seen so far.
  */
 public class Points extends Object3D {
     private int mMaxNumberOfVertices;
+    private final boolean mStreaming;
+
+    // *** Streaming state, OpenGL thread only ***
+    private final StreamingBuffer mVertexStream = new StreamingBuffer();
+    private final StreamingBuffer mColorStream = new StreamingBuffer();
+    private FloatBuffer mColorBuffer;
+
+    // *** Upload counters ***
+    private long mUploadCount;
+    private long mUploadedBytes;
+    private long mUploadNanos;
+    private long mLastUploadNanos;
+
+    /**
+     * Store size of one streamed VBO, reset when Rajawali re-creates the buffer.
+     */
+    private static class StreamingBuffer {
+        int handle = -1;
+        int highWaterBytes;
+    }
 
     public Points(int numberOfPoints, boolean isCreateColors) {
+        this(numberOfPoints, isCreateColors, false);
+    }
+
+    public Points(int numberOfPoints, boolean isCreateColors, boolean isStreaming) {
         super();
         mMaxNumberOfVertices = numberOfPoints;
+        mStreaming = isStreaming;
         init(true, isCreateColors);
     }
 
@@ -53,27 +86,101 @@ public class Points extends Object3D {
 
     // Update the geometry of the points based on the provided points float buffer.
     public void updatePoints(int pointCount, FloatBuffer pointCloudBuffer) {
+        checkPointCount(pointCount);
+        long start = System.nanoTime();
         mGeometry.setNumIndices(pointCount);
-        mGeometry.setVertices(pointCloudBuffer);
-        mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mGeometry.getVertices(), 0,
-                pointCount * 3);
+        if (mStreaming) {
+            stream(mVertexStream, mGeometry.getVertexBufferInfo(), pointCloudBuffer, pointCount * 3);
+        } else {
+            mGeometry.setVertices(pointCloudBuffer);
+            mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mGeometry.getVertices(), 0,
+                    pointCount * 3);
+        }
+        countUpload(pointCount * 3, start);
     }
 
     // Update the geometry of the points based on the provided points float buffer and corresponding
     // colors based on the provided float array.
     public void updatePoints(int pointCount, FloatBuffer points, float[] colors) {
+        checkPointCount(pointCount);
+        long start = System.nanoTime();
+        mGeometry.setNumIndices(pointCount);
+        if (mStreaming) {
+            if (mColorBuffer == null) {
+                mColorBuffer = ByteBuffer
+                        .allocateDirect(mMaxNumberOfVertices * 4 * Geometry3D.FLOAT_SIZE_BYTES)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+            mColorBuffer.clear();
+            mColorBuffer.put(colors, 0, pointCount * 4);
+            stream(mVertexStream, mGeometry.getVertexBufferInfo(), points, pointCount * 3);
+            stream(mColorStream, mGeometry.getColorBufferInfo(), mColorBuffer, pointCount * 4);
+        } else {
+            mGeometry.setVertices(points);
+            mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mGeometry.getVertices(), 0,
+                    pointCount * 3);
+            mGeometry.setColors(colors);
+            mGeometry.changeBufferData(mGeometry.getColorBufferInfo(), mGeometry.getColors(), 0,
+                    pointCount * 4);
+        }
+        countUpload(pointCount * 7, start);
+    }
+
+    private void checkPointCount(int pointCount) {
         if (pointCount > mMaxNumberOfVertices) {
             throw new RuntimeException(
                     String.format("pointClount = %d exceeds maximum number of points = %d",
                             pointCount, mMaxNumberOfVertices));
         }
-        mGeometry.setNumIndices(pointCount);
-        mGeometry.setVertices(points);
-        mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mGeometry.getVertices(), 0,
-                pointCount * 3);
-        mGeometry.setColors(colors);
-        mGeometry.changeBufferData(mGeometry.getColorBufferInfo(), mGeometry.getColors(), 0,
-                pointCount * 4);
+    }
+
+    // Orphans the buffer's store, then uploads the first floatCount floats of data into it.
+    private void stream(StreamingBuffer stream, BufferInfo bufferInfo, FloatBuffer data, int floatCount) {
+        int bytes = floatCount * Geometry3D.FLOAT_SIZE_BYTES;
+        if (stream.handle != bufferInfo.bufferHandle) {
+            // First upload, or the buffer was re-created after a context loss.
+            stream.handle = bufferInfo.bufferHandle;
+            stream.highWaterBytes = 0;
+        }
+        stream.highWaterBytes = Math.max(stream.highWaterBytes, bytes);
+
+        int position = data.position();
+        data.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, stream.handle);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, stream.highWaterBytes, null, GLES20.GL_STREAM_DRAW);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes, data);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        data.position(position);
+    }
+
+    private void countUpload(int floatCount, long startNanos) {
+        mLastUploadNanos = System.nanoTime() - startNanos;
+        mUploadNanos += mLastUploadNanos;
+        mUploadedBytes += floatCount * Geometry3D.FLOAT_SIZE_BYTES;
+        mUploadCount++;
+    }
+
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    public long getUploadCount() {
+        return mUploadCount;
+    }
+
+    public long getUploadedBytes() {
+        return mUploadedBytes;
+    }
+
+    /**
+     * CPU time spent issuing uploads, the GPU side of the copy isn't included.
+     */
+    public long getUploadNanos() {
+        return mUploadNanos;
+    }
+
+    public long getLastUploadNanos() {
+        return mLastUploadNanos;
     }
 
     public void preRender() {
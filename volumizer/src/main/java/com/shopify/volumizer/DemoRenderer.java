@@ -24,14 +24,17 @@ import android.view.MotionEvent;
 import com.google.atap.tangoservice.TangoCameraIntrinsics;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.kanawish.raja.raja.ScenePoseCalculator;
+import com.kanawish.raja.raja.TransformKernel;
+import com.kanawish.raja.raja.VisibilityCuller;
+import com.kanawish.raja.raja.renderables.FloorGrid;
+import com.shopify.volumizer.mesh.PreparedMesh;
+import com.shopify.volumizer.telemetry.FrameTimings;
 
 import org.rajawali3d.Object3D;
 import org.rajawali3d.animation.Animation;
 import org.rajawali3d.animation.Animation3D;
 import org.rajawali3d.animation.RotateOnAxisAnimation;
 import org.rajawali3d.lights.DirectionalLight;
-import org.rajawali3d.loader.LoaderOBJ;
-import org.rajawali3d.loader.ParsingException;
 import org.rajawali3d.materials.Material;
 import org.rajawali3d.materials.methods.DiffuseMethod;
 import org.rajawali3d.materials.methods.SpecularMethod;
@@ -47,6 +50,9 @@ import org.rajawali3d.primitives.ScreenQuad;
 import org.rajawali3d.primitives.Sphere;
 import org.rajawali3d.renderer.Renderer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.microedition.khronos.opengles.GL10;
 
 /**
@@ -59,19 +65,48 @@ public class DemoRenderer extends Renderer {
     private static final String TAG = DemoRenderer.class.getSimpleName();
 
     private static final float CUBE_SIDE_LENGTH = 0.5f;
+    private static final float SPHERE_RADIUS = 0.25f;
+    // Sphere segments per level of detail, and the projected radius in pixels each level needs.
+    private static final int[] SPHERE_LOD_SEGMENTS = {20, 12, 6};
+    private static final double[] SPHERE_LOD_PIXELS = {60, 20, 1};
+    // 10cm lines, every meter a major one, fading out 10m away.
+    private static final float GRID_STEP = 0.1f;
+    private static final int GRID_MAJOR_EVERY = 10;
+    private static final float GRID_FADE_DISTANCE = 10;
+    // Plane fits with a normal this close to up are taken as the floor.
+    private static final double FLOOR_NORMAL_MIN_UP = Math.cos(Math.toRadians(10));
 
     // Augmented Reality related fields
     private ATexture tangoCameraTexture;
     private boolean sceneCameraConfigured;
+    // Scratch orientation, only touched from the OpenGL render thread.
+    private final Quaternion cameraOrientation = new Quaternion();
+    // Optional, set once the pipeline is connected.
+    private FrameTimings frameTimings;
 
-    // TODO: Floor, Viewer's camera, 2-3 Models
+    // TODO: Viewer's camera, 2-3 Models
+    private FloorGrid floorGrid;
     private Object3D cube;
     private Object3D sphere;
     private Object3D plane;
 
-    private Matrix4 objectTransform;
+    private float[] objectTransform;
+    // Scratch placement, only touched from the OpenGL render thread.
+    private final double[] objectTranslation = new double[3];
+    private final double[] objectRotation = new double[4];
+    private final Vector3 objectPosition = new Vector3();
+    private final Quaternion objectOrientation = new Quaternion();
     private boolean objectPoseUpdated = false;
 
+    private final VisibilityCuller culler = new VisibilityCuller();
+    private VisibilityCuller.Entry cubeEntry;
+    private VisibilityCuller.Entry sphereEntry;
+    private VisibilityCuller.Entry planeEntry;
+    private int viewportHeight;
+
+    // Loaded models waiting for their buffers, guarded by this.
+    private final List<PreparedMesh> pendingModels = new ArrayList<>();
+
     public DemoRenderer(Context context) {
         super(context);
     }
@@ -105,6 +140,11 @@ public class DemoRenderer extends Renderer {
         light.setPosition(0, 10, 0);
         getCurrentScene().addLight(light);
 
+        // Shown once a floor is found.
+        floorGrid = new FloorGrid(GRID_STEP, GRID_MAJOR_EVERY, GRID_FADE_DISTANCE, 0x40ffffff, 0x99ffffff);
+        floorGrid.setVisible(false);
+        getCurrentScene().addChild(floorGrid);
+
         // Set-up a material
         Material cubeMaterial = buildMaterial(Color.RED);
 
@@ -113,18 +153,26 @@ public class DemoRenderer extends Renderer {
         cube.setMaterial(cubeMaterial);
         cube.setPosition(0, 0, 0);
         cube.setRotation(Vector3.Axis.Z, 180);
-        cube.setVisible(false);
         getCurrentScene().addChild(cube);
+        cubeEntry = culler.add(cube, CUBE_SIDE_LENGTH * Math.sqrt(3) / 2);
+        cubeEntry.setEnabled(false);
 
         // Set-up a material
         Material sphereMaterial = buildMaterial(Color.BLUE);
 
-        // Build a Sphere
-        sphere = new Sphere(0.25f,20,20);
-        sphere.setMaterial(sphereMaterial);
+        // Build a Sphere, with coarser levels for when it's small on screen.
+        sphere = new Object3D();
+        Object3D[] sphereLevels = new Object3D[SPHERE_LOD_SEGMENTS.length];
+        for (int i = 0; i < sphereLevels.length; i++) {
+            int segments = SPHERE_LOD_SEGMENTS[i];
+            sphereLevels[i] = new Sphere(SPHERE_RADIUS, segments, segments);
+            sphereLevels[i].setMaterial(sphereMaterial);
+            sphere.addChild(sphereLevels[i]);
+        }
         sphere.setPosition(0, 0, 0);
-        sphere.setVisible(false);
         getCurrentScene().addChild(sphere);
+        sphereEntry = culler.add(sphere, SPHERE_RADIUS, sphereLevels, SPHERE_LOD_PIXELS);
+        sphereEntry.setEnabled(false);
 
         Material checkerboard = new Material();
         try {
@@ -137,8 +185,10 @@ public class DemoRenderer extends Renderer {
         plane.setMaterial(checkerboard);
         plane.setDoubleSided(true);
         plane.setColor(0xff0000ff);
-        plane.setVisible(false);
         getCurrentScene().addChild(plane);
+        // Default plane is 1x1.
+        planeEntry = culler.add(plane, Math.sqrt(2) / 2);
+        planeEntry.setEnabled(false);
     }
 
     @NonNull
@@ -162,30 +212,41 @@ public class DemoRenderer extends Renderer {
 
     @Override
     protected void onRender(long elapsedRealTime, double deltaTime) {
+        if (frameTimings != null) {
+            frameTimings.onSceneUpdateStart();
+        }
         // Update the AR object if necessary
         // Synchronize against concurrent access with the setter below.
         synchronized (this) {
             if (objectPoseUpdated) {
+                updateFloorGrid(objectTransform);
+                TransformKernel.getTranslation(objectTransform, 0, objectTranslation, 0);
+                TransformKernel.getRotation(objectTransform, 0, objectRotation, 0);
+                objectPosition.setAll(objectTranslation[0], objectTranslation[1], objectTranslation[2]);
+                objectOrientation.setAll(objectRotation[3], objectRotation[0], objectRotation[1], objectRotation[2]);
+                // NOTE: Rajawali quaternions use a left-hand rotation around the axis convention.
+                objectOrientation.conjugate();
+
                 // Place the 3D object in the location of the detected plane.
                 switch ( currentFurniture ) {
                     case PLANE:
-                        plane.setPosition(objectTransform.getTranslation());
-                        plane.setOrientation(new Quaternion().fromMatrix(objectTransform).conjugate());
-                        plane.setVisible(true);
+                        plane.setPosition(objectPosition);
+                        plane.setOrientation(objectOrientation);
+                        planeEntry.setEnabled(true);
                         break;
                     case CUBE:
-                        cube.setPosition(objectTransform.getTranslation());
-                        cube.setOrientation(new Quaternion().fromMatrix(objectTransform).conjugate());
+                        cube.setPosition(objectPosition);
+                        cube.setOrientation(objectOrientation);
                         // Move it forward by half of the size of the cube to make it
                         // flush with the plane surface.
                         cube.moveForward(CUBE_SIDE_LENGTH / 2.0f);
-                        cube.setVisible(true);
+                        cubeEntry.setEnabled(true);
                         break;
                     case SPHERE:
-                        sphere.setPosition(objectTransform.getTranslation());
-                        sphere.setOrientation(new Quaternion().fromMatrix(objectTransform).conjugate());
-                        sphere.moveForward(0.25f);
-                        sphere.setVisible(true);
+                        sphere.setPosition(objectPosition);
+                        sphere.setOrientation(objectOrientation);
+                        sphere.moveForward(SPHERE_RADIUS);
+                        sphereEntry.setEnabled(true);
                         break;
                 }
                 currentFurniture = currentFurniture.next();
@@ -194,21 +255,51 @@ public class DemoRenderer extends Renderer {
 
                 objectPoseUpdated = false;
             }
+
+            for (PreparedMesh model : pendingModels) {
+                Object3D o = model.build();
+                addModelObject(o);
+                culler.add(o, model.getBoundingRadius());
+            }
+            pendingModels.clear();
+        }
+
+        if (frameTimings != null) {
+            frameTimings.onSceneUpdated();
         }
 
         super.onRender(elapsedRealTime, deltaTime);
     }
 
+    /**
+     * Aligns the floor grid to a plane fit facing up, plane fits' normal is their z axis.
+     */
+    private void updateFloorGrid(float[] planeFitTransform) {
+        if (planeFitTransform[Matrix4.M12] >= FLOOR_NORMAL_MIN_UP) {
+            floorGrid.setFloorHeight(planeFitTransform[Matrix4.M13]);
+            floorGrid.setVisible(true);
+        }
+    }
+
     /**
      * Save the updated plane fit pose to update the AR object on the next render pass.
      * This is synchronized against concurrent access in the render loop above.
      */
     public synchronized void updateObjectPose(float[] planeFitTransform) {
-        objectTransform = new Matrix4(planeFitTransform);
+        objectTransform = planeFitTransform;
         objectPoseUpdated = true;
 
     }
 
+    /**
+     * Queues a model loaded by {@link com.shopify.volumizer.mesh.MeshLoader} for the next render
+     * pass, only its buffer uploads happen on the render thread.
+     * This is synchronized against concurrent access in the render loop above.
+     */
+    public synchronized void addModel(PreparedMesh model) {
+        pendingModels.add(model);
+    }
+
     /**
      * Update the scene camera based on the provided pose in Tango start of service frame.
      * The camera pose should match the pose of the camera color at the time the last rendered RGB
@@ -217,13 +308,32 @@ public class DemoRenderer extends Renderer {
      * NOTE: This must be called from the OpenGL render thread - it is not thread safe.
      */
     public void updateRenderCameraPose(TangoPoseData cameraPose) {
-        float[] translation = cameraPose.getTranslationAsFloats();
-        float[] rotation = cameraPose.getRotationAsFloats();
+        updateRenderCameraPose(cameraPose.translation, cameraPose.rotation);
+    }
 
+    /**
+     * Same as {@link #updateRenderCameraPose(TangoPoseData)}, taking the translation and the
+     * [x, y, z, w] rotation directly so the per-frame update doesn't allocate.
+     * <p/>
+     * NOTE: This must be called from the OpenGL render thread - it is not thread safe.
+     */
+    public void updateRenderCameraPose(double[] translation, double[] rotation) {
         getCurrentCamera().setPosition(translation[0], translation[1], translation[2]);
-        Quaternion quaternion = new Quaternion(rotation[3], rotation[0], rotation[1], rotation[2]);
-//        getCurrentCamera().setRotation(quaternion.conjugate());
-        getCurrentCamera().setRotation(quaternion.conjugate());
+        cameraOrientation.setAll(rotation[3], rotation[0], rotation[1], rotation[2]);
+        getCurrentCamera().setRotation(cameraOrientation.conjugate());
+    }
+
+    /**
+     * Re-centers the floor grid and culls the scene against the camera as it is for this frame.
+     * Call it once the frame's camera pose and projection are set, e.g. at the end of an
+     * {@code onPreFrame} callback, scene objects are drawn right after. Culling earlier, in
+     * {@link #onRender}, would use the previous frame's camera and let objects pop in on pans.
+     * <p/>
+     * NOTE: This must be called from the OpenGL render thread - it is not thread safe.
+     */
+    public void onCameraUpdated() {
+        floorGrid.setCenter(getCurrentCamera().getX(), getCurrentCamera().getZ());
+        culler.update(getCurrentCamera(), viewportHeight);
     }
 
     /**
@@ -243,12 +353,28 @@ public class DemoRenderer extends Renderer {
     public void onRenderSurfaceSizeChanged(GL10 gl, int width, int height) {
         super.onRenderSurfaceSizeChanged(gl, width, height);
         sceneCameraConfigured = false;
+        viewportHeight = height;
     }
 
     public boolean isSceneCameraConfigured() {
         return sceneCameraConfigured;
     }
 
+    /**
+     * Visible and culled counts of the last render pass, which can be read from any thread.
+     * Everything else on the culler must be called from the OpenGL render thread.
+     */
+    public VisibilityCuller getVisibilityCuller() {
+        return culler;
+    }
+
+    /**
+     * Starts feeding scene update timings into {@code frameTimings}.
+     */
+    public void setFrameTimings(FrameTimings frameTimings) {
+        this.frameTimings = frameTimings;
+    }
+
     /**
      * Sets the projection matrix for the scene camera to match the parameters of the color camera,
      * provided by the {@code TangoCameraIntrinsics}.
@@ -271,16 +397,7 @@ public class DemoRenderer extends Renderer {
 
     }
 
-    private Object3D buildOBJ() {
-        Object3D o ;
-        LoaderOBJ objParser = new LoaderOBJ(mContext.getResources(), mTextureManager, R.raw.untitled_3_obj);
-        try {
-            objParser.parse();
-        } catch (ParsingException e) {
-            e.printStackTrace();
-        }
-
-        o = objParser.getParsedObject();
+    private void addModelObject(Object3D o) {
         o.setPosition(0,-8,-1);
 
         getCurrentScene().addChild(o);
@@ -291,8 +408,6 @@ public class DemoRenderer extends Renderer {
         anim.setTransformable3D(o);
         getCurrentScene().registerAnimation(anim);
         anim.play();
-
-        return o;
     }
 
 }
@@ -16,11 +16,9 @@
 package com.shopify.volumizer;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -29,6 +27,12 @@ import android.view.MotionEvent;
 import com.google.atap.tangoservice.TangoCameraIntrinsics;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.kanawish.raja.raja.ScenePoseCalculator;
+import com.kanawish.raja.raja.TransformKernel;
+import com.kanawish.raja.raja.VisibilityCuller;
+import com.kanawish.raja.raja.renderables.FloorGrid;
+import com.kanawish.raja.raja.renderables.InstanceBatch;
+import com.kanawish.raja.raja.renderables.LabelAtlas;
+import com.shopify.volumizer.telemetry.FrameTimings;
 
 import org.rajawali3d.Object3D;
 import org.rajawali3d.lights.DirectionalLight;
@@ -37,7 +41,6 @@ import org.rajawali3d.materials.methods.DiffuseMethod;
 import org.rajawali3d.materials.methods.SpecularMethod;
 import org.rajawali3d.materials.textures.ATexture;
 import org.rajawali3d.materials.textures.StreamingTexture;
-import org.rajawali3d.materials.textures.Texture;
 import org.rajawali3d.math.Matrix4;
 import org.rajawali3d.math.Quaternion;
 import org.rajawali3d.math.vector.Vector3;
@@ -48,8 +51,8 @@ import org.rajawali3d.renderer.Renderer;
 import org.rajawali3d.util.Intersector;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -67,22 +70,83 @@ public class FloorPlanEditRenderer extends Renderer {
     private static final String TAG = FloorPlanEditRenderer.class.getSimpleName();
 
     private static final float CUBE_SIDE_LENGTH = 0.5f;
+    private static final int MAX_WALLS = 512;
+    // Reach of the axis gizmo around a wall's anchor.
+    private static final double WALL_GIZMO_RADIUS = 0.5;
+    // 100 labels of 96x96 fit in one 1024 page.
+    private static final int WALL_LABEL_SIZE = 96;
+    private static final int WALL_LABEL_PAGE_SIZE = 1024;
+    private static final Vector3 UNIT_SCALE = new Vector3(1, 1, 1);
+    // 10cm lines, every meter a major one, fading out 10m away.
+    private static final float GRID_STEP = 0.1f;
+    private static final int GRID_MAJOR_EVERY = 10;
+    private static final float GRID_FADE_DISTANCE = 10;
+    // Plane fits with a normal this close to up are taken as the floor.
+    private static final double FLOOR_NORMAL_MIN_UP = Math.cos(Math.toRadians(10));
 
     // Augmented Reality related fields
     private ATexture tangoCameraTexture;
     private boolean sceneCameraConfigured;
+    // Scratch orientation, only touched from the OpenGL render thread.
+    private final Quaternion cameraOrientation = new Quaternion();
+    // Optional, set once the pipeline is connected.
+    private FrameTimings frameTimings;
+    // Optional, set when rendering on demand.
+    private volatile RenderScheduler renderScheduler;
+    private volatile boolean renderOnDemand;
 
-    // TODO: Floor, Viewer's camera, 2-3 Models
+    // TODO: Viewer's camera, 2-3 Models
 
-    Map<float[], Plane> planeMap = new HashMap<>();
-    List<Object3D> lines = new ArrayList<>();
+    /**
+     * Scene objects of one wall, keyed by the wall's transform array in {@link #walls}.
+     */
+    private static class WallNode {
+        final float[] key;
+        // Transform the wall was last placed with, to spot walls edited in place.
+        final float[] transform = new float[16];
+        // Carries the wall's pose and axis gizmo, the wall itself is drawn by the batch.
+        Object3D anchor;
+        VisibilityCuller.Entry anchorEntry;
+        int instanceId;
+        LabelAtlas.Region label;
+        // Joins the previous wall to this one.
+        Line3D intersectLine;
+        WallNode previous;
+        long seenGeneration;
+        long movedGeneration;
+
+        WallNode(float[] key) {
+            this.key = key;
+        }
+    }
 
-    private Material wallMaterial;
-    private Material selectedWallMaterial;
+    // *** OpenGL thread only ***
+    private final Map<float[], WallNode> walls = new HashMap<>();
+    private final List<WallNode> wallOrder = new ArrayList<>();
+    private long reconcileGeneration;
+    private int nextWallId;
+    private WallNode selectedWall;
+    private final Matrix4 wallTransform = new Matrix4();
+    private final double[] wallTranslation = new double[3];
+    private final double[] wallRotation = new double[4];
+    private final Quaternion wallOrientation = new Quaternion();
+
+    private FloorGrid floorGrid;
+    private InstanceBatch wallBatch;
+    // Culls wall gizmos, the walls themselves are a single batch draw.
+    private final VisibilityCuller culler = new VisibilityCuller();
+    private int viewportHeight;
+    private LabelAtlas wallLabels;
+    // Shown once the atlas is full of labels in use.
+    private LabelAtlas.Region genericWallLabel;
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect labelRect = new Rect();
 
     private boolean modelUpdated = false;
+    private boolean floorUpdated = false;
+    private float floorHeight;
     private ArrayList<float[]> updatedList;
-    private Plane selectedPlane = null;
+    private float[] selectedKey = null;
     private Material linesMaterial;
     private Material intersectMaterial;
 
@@ -118,25 +182,21 @@ public class FloorPlanEditRenderer extends Renderer {
         light.setPosition(0, 10, 0);
         getCurrentScene().addLight(light);
 
-        Bitmap wallBitmap = buildWallBitmap("Wall");
+        // Shown once a floor is found.
+        floorGrid = new FloorGrid(GRID_STEP, GRID_MAJOR_EVERY, GRID_FADE_DISTANCE, 0x40ffffff, 0x99ffffff);
+        floorGrid.setVisible(false);
+        getCurrentScene().addChild(floorGrid);
 
-        // Set-up materials
-        wallMaterial = new Material();
-        Texture wallTexture = new Texture("wallTexture", wallBitmap);
-        try {
-            wallMaterial.addTexture(wallTexture);
-            wallMaterial.setColorInfluence(0);
-        } catch (ATexture.TextureException e) {
-            e.printStackTrace();
-        }
+        wallLabels = new LabelAtlas("wallLabels", WALL_LABEL_PAGE_SIZE, 1);
+        genericWallLabel = wallLabels.acquire("wall", WALL_LABEL_SIZE, WALL_LABEL_SIZE,
+                (canvas, width, height) -> paintWallLabel(canvas, width, height, "Wall"));
 
-        selectedWallMaterial = new Material();
-        try {
-            selectedWallMaterial.addTexture(new Texture("checkerboard", R.drawable.checkerboard));
-            selectedWallMaterial.setColorInfluence(0);
-        } catch (ATexture.TextureException e) {
-            e.printStackTrace();
-        }
+        // All walls are drawn in one call, the plane is only used for its mesh.
+        Plane wallMesh = new Plane();
+        wallBatch = new InstanceBatch(wallMesh, MAX_WALLS, wallLabels.getTexture(0));
+        wallMesh.getGeometry().destroy();
+        wallBatch.setTransparent(true);
+        getCurrentScene().addChild(wallBatch);
 
         linesMaterial = new Material();
 
@@ -144,39 +204,31 @@ public class FloorPlanEditRenderer extends Renderer {
         intersectMaterial.useVertexColors(true);
     }
 
-    @NonNull
-    private Bitmap buildWallBitmap(String text) {
-        Bitmap wallBitmap = Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888);
-//            BitmapFactory.decodeResource(getContext().getResources(),R.drawable.instructions);
-        // Init Canvas and Paint
-        Canvas textCanvas = new Canvas(wallBitmap);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        paint.setColor(Color.WHITE);
-        paint.setTextSize(36);
-
-        // Clear and draw text in canvas.
-        textCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
-
-        Rect cr = new Rect(5, 5, textCanvas.getWidth() - 5, textCanvas.getHeight() - 5);
-        float cX = cr.exactCenterX();
-        float cY = cr.exactCenterY();
-
-        textCanvas.rotate(180, cX, cY);
-        paint.setColor(Color.YELLOW);
-        paint.setAlpha(128);
-        textCanvas.drawRect(cr, paint);
-        paint.setColor(Color.RED);
-        paint.setAlpha(255);
-        textCanvas.drawCircle(cr.right, cr.top, 5, paint);
-        paint.setColor(Color.MAGENTA);
-        textCanvas.drawCircle(cX, cY, 5, paint);
-        paint.setColor(Color.BLUE);
-        textCanvas.drawCircle(cr.left, cr.bottom, 5, paint);
-
-        paint.setColor(Color.GREEN);
-        paint.setTextAlign(Paint.Align.CENTER);
-        textCanvas.drawText(text, cX, cY, paint);
-        return wallBitmap;
+    private void paintWallLabel(Canvas canvas, int width, int height, String text) {
+        // Laid out for 256x256.
+        float scale = width / 256f;
+        int inset = Math.round(5 * scale);
+        labelRect.set(inset, inset, width - inset, height - inset);
+        float cX = labelRect.exactCenterX();
+        float cY = labelRect.exactCenterY();
+        float radius = 5 * scale;
+
+        canvas.rotate(180, cX, cY);
+        labelPaint.setTextSize(36 * scale);
+        labelPaint.setColor(Color.YELLOW);
+        labelPaint.setAlpha(128);
+        canvas.drawRect(labelRect, labelPaint);
+        labelPaint.setColor(Color.RED);
+        labelPaint.setAlpha(255);
+        canvas.drawCircle(labelRect.right, labelRect.top, radius, labelPaint);
+        labelPaint.setColor(Color.MAGENTA);
+        canvas.drawCircle(cX, cY, radius, labelPaint);
+        labelPaint.setColor(Color.BLUE);
+        canvas.drawCircle(labelRect.left, labelRect.bottom, radius, labelPaint);
+
+        labelPaint.setColor(Color.GREEN);
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+        canvas.drawText(text, cX, cY, labelPaint);
     }
 
     @NonNull
@@ -191,100 +243,164 @@ public class FloorPlanEditRenderer extends Renderer {
 
     @Override
     protected void onRender(long elapsedRealTime, double deltaTime) {
+        if (frameTimings != null) {
+            frameTimings.onSceneUpdateStart();
+        }
         // Update the AR object if necessary
         // Synchronize against concurrent access with the setter below.
         synchronized (this) {
             if (modelUpdated) {
-                // Anything missing is considered dead
-                for (float[] currentPlane : new HashSet<>(planeMap.keySet())) {
-                    if (!updatedList.contains(currentPlane)) {
-                        getCurrentScene().removeChild(planeMap.get(currentPlane));
-                        planeMap.remove(currentPlane);
-                    }
-                }
+                reconcileWalls();
+                reconcileSelection();
+                wallLabels.flush();
 
-                // Anything new is an add-on.
-                for (float[] currentPlane : updatedList) {
-                    if (!planeMap.containsKey(currentPlane)) {
-                        Plane plane = new Plane();
-                        plane.setMaterial(wallMaterial);
-                        plane.setTransparent(true);
-
-                        Matrix4 objectTransform = new Matrix4(currentPlane);
-                        plane.setPosition(objectTransform.getTranslation());
-                        plane.setOrientation(new Quaternion().fromMatrix(objectTransform).conjugate());
-                        plane.setVisible(true);
-                        getCurrentScene().addChild(plane);
-
-                        planeMap.put(currentPlane, plane);
-                    } else {
-                        // Possibly Reset the previous selected state
-                        planeMap.get(currentPlane).setMaterial(wallMaterial);
-                    }
-                }
+                // TODO: Let's process a list of transforms here.
 
-                if (selectedPlane != null) selectedPlane.setMaterial(selectedWallMaterial);
+                // TODO: Add a way to orient things placed on the floor.
 
-                // Clear out old lines.
-                if (!lines.isEmpty()) {
-                    for (Object3D line : lines) {
-                        getCurrentScene().removeChild(line);
-                    }
-                }
-                lines.clear();
+                modelUpdated = false;
+            }
+            if (floorUpdated) {
+                floorGrid.setFloorHeight(floorHeight);
+                floorGrid.setVisible(true);
+                floorUpdated = false;
+            }
+        }
 
-                Plane previous = null;
+        if (frameTimings != null) {
+            frameTimings.onSceneUpdated();
+        }
 
-                for (float[] planeKey : updatedList) {
-                    Plane plane = planeMap.get(planeKey);
-                    addLine(plane, 0xffff0000, o3d -> o3d.moveRight(0.5));
-                    addLine(plane, 0xff00ff00, o3d -> o3d.moveForward(0.5));
-                    addLine(plane, 0xff0000ff, o3d -> o3d.moveUp(0.5));
+        super.onRender(elapsedRealTime, deltaTime);
+    }
 
-                    if (previous != null) {
-                        // Finds intersection of previous to new, or just gives a partial line segment.
-                        lines.add(buildPlaneIntersectLine(previous, plane));
-                    }
 
-                    previous = plane;
+    /**
+     * Patches the scene to match {@link #updatedList}. Only added, removed and moved walls touch
+     * the scene, and only intersection lines with a changed end are rebuilt.
+     */
+    private void reconcileWalls() {
+        long generation = ++reconcileGeneration;
+
+        // Adds and moves.
+        for (float[] key : updatedList) {
+            WallNode node = walls.get(key);
+            boolean added = node == null;
+            if (added) {
+                node = new WallNode(key);
+                int wallNumber = nextWallId++;
+                node.anchor = buildWallAnchor("wall-" + wallNumber);
+                node.label = acquireWallLabel(node.anchor.getName(), "Wall " + wallNumber);
+                getCurrentScene().addChild(node.anchor);
+                node.anchorEntry = culler.add(node.anchor, WALL_GIZMO_RADIUS);
+                walls.put(key, node);
+            }
+            if (added || !Arrays.equals(node.transform, key)) {
+                System.arraycopy(key, 0, node.transform, 0, 16);
+                TransformKernel.getTranslation(key, 0, wallTranslation, 0);
+                TransformKernel.getRotation(key, 0, wallRotation, 0);
+                // NOTE: Rajawali quaternions use a left-hand rotation around the axis convention.
+                wallOrientation.setAll(wallRotation[3], wallRotation[0], wallRotation[1], wallRotation[2]).conjugate();
+                node.anchor.setPosition(wallTranslation[0], wallTranslation[1], wallTranslation[2]);
+                node.anchor.setOrientation(wallOrientation);
+                wallTransform.setAll(node.anchor.getPosition(), UNIT_SCALE, node.anchor.getOrientation());
+                if (added) {
+                    node.instanceId = wallBatch.addInstance(wallTransform, Color.WHITE);
+                    LabelAtlas.Region label = node.label;
+                    wallBatch.setTextureRegion(node.instanceId, label.u0, label.v0, label.u1, label.v1);
+                } else {
+                    wallBatch.setTransform(node.instanceId, wallTransform);
                 }
-                getCurrentScene().addChildren(lines);
-
-                // TODO: Let's process a list of transforms here.
+                node.movedGeneration = generation;
+            }
+            node.seenGeneration = generation;
+        }
 
-                // TODO: Add a way to orient things placed on the floor.
+        // Anything missing is considered dead.
+        for (WallNode node : wallOrder) {
+            if (node.seenGeneration != generation) {
+                getCurrentScene().removeChild(node.anchor);
+                culler.remove(node.anchorEntry);
+                wallBatch.removeInstance(node.instanceId);
+                if (node.label != genericWallLabel) {
+                    wallLabels.release(node.label);
+                }
+                if (node.intersectLine != null) {
+                    getCurrentScene().removeChild(node.intersectLine);
+                }
+                walls.remove(node.key);
+                if (node == selectedWall) {
+                    selectedWall = null;
+                }
+            }
+        }
 
-                modelUpdated = false;
+        // Re-link neighbours, rebuilding the intersection lines whose ends moved or changed.
+        wallOrder.clear();
+        WallNode previous = null;
+        for (float[] key : updatedList) {
+            WallNode node = walls.get(key);
+            boolean stale = node.previous != previous
+                    || node.movedGeneration == generation
+                    || previous != null && previous.movedGeneration == generation;
+            if (stale) {
+                if (node.intersectLine != null) {
+                    getCurrentScene().removeChild(node.intersectLine);
+                    node.intersectLine = null;
+                }
+                if (previous != null) {
+                    // Finds intersection of previous to new, or just gives a partial line segment.
+                    node.intersectLine = buildPlaneIntersectLine(previous.anchor, node.anchor);
+                    getCurrentScene().addChild(node.intersectLine);
+                }
+                node.previous = previous;
             }
+            wallOrder.add(node);
+            previous = node;
         }
+    }
 
-        super.onRender(elapsedRealTime, deltaTime);
+    private void reconcileSelection() {
+        WallNode selected = selectedKey == null ? null : walls.get(selectedKey);
+        if (selected != selectedWall) {
+            if (selectedWall != null) {
+                wallBatch.setSelected(selectedWall.instanceId, false);
+            }
+            if (selected != null) {
+                wallBatch.setSelected(selected.instanceId, true);
+            }
+            selectedWall = selected;
+        }
     }
 
+    /**
+     * A container carrying the wall's axis gizmo as children, so they follow it when it moves.
+     */
+    private Object3D buildWallAnchor(String name) {
+        Object3D anchor = new Object3D();
+        anchor.setName(name);
+        anchor.addChild(buildAxisLine(new Vector3(0.5, 0, 0), 0xffff0000));
+        anchor.addChild(buildAxisLine(new Vector3(0, 0, 0.5), 0xff00ff00));
+        anchor.addChild(buildAxisLine(new Vector3(0, 0.5, 0), 0xff0000ff));
+        return anchor;
+    }
 
-    private interface Modifier<T> {
-        void command(T t);
+    private LabelAtlas.Region acquireWallLabel(String key, String text) {
+        LabelAtlas.Region label = wallLabels.acquire(key, WALL_LABEL_SIZE, WALL_LABEL_SIZE,
+                (canvas, width, height) -> paintWallLabel(canvas, width, height, text));
+        return label != null ? label : genericWallLabel;
     }
 
-    private void addLine(Object3D plane, Integer color, Modifier<Object3D> placeEndPoint) {
+    private Line3D buildAxisLine(Vector3 end, int color) {
         Stack<Vector3> linePoints = new Stack<>();
-        Vector3 start = new Vector3();
-        Object3D tmpEnd = new Object3D();
-
-        start.setAll(plane.getPosition());
-        tmpEnd.setPosition(start);
-        tmpEnd.setOrientation(plane.getOrientation());
-        placeEndPoint.command(tmpEnd);
-
-        linePoints.clear();
-        linePoints.add(start);
-        linePoints.add(tmpEnd.getPosition());
+        linePoints.add(new Vector3());
+        linePoints.add(end);
         Line3D line = new Line3D(linePoints, 10, color);
         line.setMaterial(linesMaterial);
-        lines.add(line);
+        return line;
     }
 
-    private Line3D buildPlaneIntersectLine(Plane leftPlane, Plane rightPlane) {
+    private Line3D buildPlaneIntersectLine(Object3D leftPlane, Object3D rightPlane) {
         Vector3 start = new Vector3();
         Vector3 hitPoint = new Vector3();
         Object3D tmp = new Object3D();
@@ -320,7 +436,7 @@ public class FloorPlanEditRenderer extends Renderer {
     }
 
     @NonNull
-    private org.rajawali3d.math.Plane convertPlane(Plane primitivePlane) {
+    private org.rajawali3d.math.Plane convertPlane(Object3D primitivePlane) {
         // TODO: There has to be a cleaner / more efficient way. Optimize.
         Object3D tmp = new Object3D();
         Vector3 a = new Vector3(), b = new Vector3(), c = new Vector3();
@@ -349,14 +465,64 @@ public class FloorPlanEditRenderer extends Renderer {
     public synchronized void updateWallPlanes(List<float[]> planeFitTransform) {
         updatedList = new ArrayList<>(planeFitTransform);
         modelUpdated = true;
+        requestRender();
+    }
+
+    /**
+     * Aligns the floor grid to a plane fit facing up, plane fits' normal is their z axis. Other
+     * plane fits, walls and tables, are ignored.
+     */
+    public synchronized void updateFloorPlane(float[] planeFitTransform) {
+        if (planeFitTransform[Matrix4.M12] >= FLOOR_NORMAL_MIN_UP) {
+            floorHeight = planeFitTransform[Matrix4.M13];
+            floorUpdated = true;
+            requestRender();
+        }
     }
 
     // TODO: This synchronized setup sucks a bit, fix it one day.
     public synchronized void updateSelectedTransform(float[] selectedFitTransform) {
-        if (planeMap.containsKey(selectedFitTransform)) {
-            selectedPlane = planeMap.get(selectedFitTransform);
+        if (updatedList != null && updatedList.contains(selectedFitTransform)) {
+            selectedKey = selectedFitTransform;
             // NOTE: Should not run into contention, since the render block is synchronized.
             modelUpdated = true;
+            requestRender();
+        }
+    }
+
+    private void requestRender() {
+        RenderScheduler scheduler = renderScheduler;
+        if (scheduler != null) {
+            scheduler.requestRender();
+        }
+    }
+
+    /**
+     * Model and selection updates request a frame from {@code renderScheduler}.
+     */
+    public void setRenderScheduler(RenderScheduler renderScheduler) {
+        this.renderScheduler = renderScheduler;
+    }
+
+    /**
+     * Stops Rajawali's fixed rate frame timer, leaving frames to explicit render requests.
+     */
+    public void setRenderOnDemand(boolean renderOnDemand) {
+        this.renderOnDemand = renderOnDemand;
+        if (renderOnDemand) {
+            stopRendering();
+        } else {
+            startRendering();
+        }
+    }
+
+    /**
+     * Rajawali restarts its frame timer on resume and surface changes, keep it off on demand.
+     */
+    @Override
+    public void startRendering() {
+        if (!renderOnDemand) {
+            super.startRendering();
         }
     }
 
@@ -368,13 +534,32 @@ public class FloorPlanEditRenderer extends Renderer {
      * NOTE: This must be called from the OpenGL render thread - it is not thread safe.
      */
     public void updateRenderCameraPose(TangoPoseData cameraPose) {
-        float[] translation = cameraPose.getTranslationAsFloats();
-        float[] rotation = cameraPose.getRotationAsFloats();
+        updateRenderCameraPose(cameraPose.translation, cameraPose.rotation);
+    }
 
+    /**
+     * Same as {@link #updateRenderCameraPose(TangoPoseData)}, taking the translation and the
+     * [x, y, z, w] rotation directly so the per-frame update doesn't allocate.
+     * <p/>
+     * NOTE: This must be called from the OpenGL render thread - it is not thread safe.
+     */
+    public void updateRenderCameraPose(double[] translation, double[] rotation) {
         getCurrentCamera().setPosition(translation[0], translation[1], translation[2]);
-        Quaternion quaternion = new Quaternion(rotation[3], rotation[0], rotation[1], rotation[2]);
-//        getCurrentCamera().setRotation(quaternion.conjugate());
-        getCurrentCamera().setRotation(quaternion.conjugate());
+        cameraOrientation.setAll(rotation[3], rotation[0], rotation[1], rotation[2]);
+        getCurrentCamera().setRotation(cameraOrientation.conjugate());
+    }
+
+    /**
+     * Re-centers the floor grid and culls the scene against the camera as it is for this frame.
+     * Call it once the frame's camera pose and projection are set, e.g. at the end of an
+     * {@code onPreFrame} callback, scene objects are drawn right after. Culling earlier, in
+     * {@link #onRender}, would use the previous frame's camera and let objects pop in on pans.
+     * <p/>
+     * NOTE: This must be called from the OpenGL render thread - it is not thread safe.
+     */
+    public void onCameraUpdated() {
+        floorGrid.setCenter(getCurrentCamera().getX(), getCurrentCamera().getZ());
+        culler.update(getCurrentCamera(), viewportHeight);
     }
 
     /**
@@ -394,12 +579,28 @@ public class FloorPlanEditRenderer extends Renderer {
     public void onRenderSurfaceSizeChanged(GL10 gl, int width, int height) {
         super.onRenderSurfaceSizeChanged(gl, width, height);
         sceneCameraConfigured = false;
+        viewportHeight = height;
     }
 
     public boolean isSceneCameraConfigured() {
         return sceneCameraConfigured;
     }
 
+    /**
+     * Visible and culled counts of the last render pass, which can be read from any thread.
+     * Everything else on the culler must be called from the OpenGL render thread.
+     */
+    public VisibilityCuller getVisibilityCuller() {
+        return culler;
+    }
+
+    /**
+     * Starts feeding scene update timings into {@code frameTimings}.
+     */
+    public void setFrameTimings(FrameTimings frameTimings) {
+        this.frameTimings = frameTimings;
+    }
+
     /**
      * Sets the projection matrix for the scene camera to match the parameters of the color camera,
      * provided by the {@code TangoCameraIntrinsics}.
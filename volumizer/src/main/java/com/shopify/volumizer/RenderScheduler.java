@@ -0,0 +1,80 @@
+package com.shopify.volumizer;
+
+import org.rajawali3d.view.ISurface;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders a surface on demand instead of at a fixed rate: only when a color camera frame arrived
+ * or the scene changed. Anyone changing what's on screen calls {@link #requestRender()}.
+ * <p>
+ * Requests made while a frame is already pending collapse into that frame. Skipped frames are
+ * counted against the renderer's nominal frame rate, i.e. what continuous rendering would've
+ * drawn.
+ */
+public class RenderScheduler {
+
+    private final ISurface surface;
+    private final double nominalFrameRate;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    // Written by the GL thread, read by the main thread.
+    private volatile long renderedFrames;
+    private volatile long startNanos;
+
+    public RenderScheduler(ISurface surface, double nominalFrameRate) {
+        this.surface = surface;
+        this.nominalFrameRate = nominalFrameRate;
+    }
+
+    /**
+     * Switches the surface to render when dirty, and resets the counters.
+     * <p>
+     * NOTE: Also stop the renderer's own frame timer, see
+     * {@link FloorPlanEditRenderer#setRenderOnDemand(boolean)}.
+     */
+    public void start() {
+        surface.setRenderMode(ISurface.RENDERMODE_WHEN_DIRTY);
+        requestCount.set(0);
+        renderedFrames = 0;
+        startNanos = System.nanoTime();
+        // First frame, to get the camera texture connected.
+        requestRender();
+    }
+
+    /**
+     * Any thread, schedules a frame.
+     */
+    public void requestRender() {
+        requestCount.incrementAndGet();
+        surface.requestRenderUpdate();
+    }
+
+    /**
+     * GL thread, at the end of each render pass.
+     */
+    public void onFrameRendered() {
+        renderedFrames++;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    /**
+     * @return frames continuous rendering would have drawn since {@link #start()}, but weren't.
+     */
+    public long getSkippedFrames() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long nominalFrames = (long) (elapsedNanos * nominalFrameRate / TimeUnit.SECONDS.toNanos(1));
+        return Math.max(0, nominalFrames - renderedFrames);
+    }
+}
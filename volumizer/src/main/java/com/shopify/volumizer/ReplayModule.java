@@ -0,0 +1,22 @@
+package com.shopify.volumizer;
+
+import com.shopify.volumizer.manager.ReplayTangoManager;
+import com.shopify.volumizer.manager.TangoManager;
+
+import java.io.File;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import toothpick.config.Module;
+
+/**
+ * Overrides {@link TestModule}'s live {@link TangoManager} with a replay of a recorded session,
+ * installed in an activity scope so the rest of the app is unaffected.
+ */
+public class ReplayModule extends Module {
+
+    public ReplayModule(File sessionFile) {
+        // Real time, the ready handler on the main thread like the live manager's.
+        bind(TangoManager.class).toInstance(
+                new ReplayTangoManager(sessionFile, 1, AndroidSchedulers.mainThread()));
+    }
+}
@@ -31,6 +31,9 @@ public class StartActivity extends Activity {
     // The unique key string for storing user's input.
     public static final String USE_AREA_LEARNING = "com.shopify.posgo.usearealearning";
     public static final String LOAD_ADF = "com.shopify.posgo.loadadf";
+    public static final String RECORD_SESSION = "com.shopify.posgo.recordsession";
+    public static final String REPLAY_SESSION = "com.shopify.posgo.replaysession";
+    public static final String FUSE_CLOUDS = "com.shopify.posgo.fuseclouds";
 
     // Permission request action.
     public static final int REQUEST_CODE_TANGO_PERMISSION = 0;
@@ -43,6 +46,12 @@ public class StartActivity extends Activity {
     ToggleButton learningModeToggleButton;
     @BindView(R.id.loadAdfToggleButton)
     ToggleButton loadAdfToggleButton;
+    @BindView(R.id.recordSessionToggleButton)
+    ToggleButton recordSessionToggleButton;
+    @BindView(R.id.replaySessionToggleButton)
+    ToggleButton replaySessionToggleButton;
+    @BindView(R.id.fuseCloudsToggleButton)
+    ToggleButton fuseCloudsToggleButton;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -71,6 +80,9 @@ public class StartActivity extends Activity {
         Intent startAdIntent = new Intent(this, VolumizerActivity.class);
         startAdIntent.putExtra(USE_AREA_LEARNING, learningModeToggleButton.isChecked());
         startAdIntent.putExtra(LOAD_ADF, loadAdfToggleButton.isChecked());
+        startAdIntent.putExtra(RECORD_SESSION, recordSessionToggleButton.isChecked());
+        startAdIntent.putExtra(REPLAY_SESSION, replaySessionToggleButton.isChecked());
+        startAdIntent.putExtra(FUSE_CLOUDS, fuseCloudsToggleButton.isChecked());
         startActivity(startAdIntent);
     }
 
@@ -1,7 +1,11 @@
 package com.shopify.volumizer;
 
-import com.projecttango.tangosupport.TangoPointCloudManager;
+import com.shopify.volumizer.manager.PlaneFitService;
+import com.shopify.volumizer.manager.PointCloudFusionService;
+import com.shopify.volumizer.manager.PointCloudHistory;
 import com.shopify.volumizer.manager.TangoManager;
+import com.shopify.volumizer.manager.TransformCache;
+import com.shopify.volumizer.mesh.MeshLoader;
 
 import toothpick.config.Module;
 
@@ -12,7 +16,11 @@ import toothpick.config.Module;
 public class TestModule extends Module {
 
     public TestModule() {
-        bind(TangoPointCloudManager.class).toInstance(new TangoPointCloudManager());
+        bind(PointCloudHistory.class).to(PointCloudHistory.class);
         bind(TangoManager.class).to(TangoManager.class);
+        bind(TransformCache.class).to(TransformCache.class);
+        bind(PlaneFitService.class).to(PlaneFitService.class);
+        bind(PointCloudFusionService.class).to(PointCloudFusionService.class);
+        bind(MeshLoader.class).to(MeshLoader.class);
     }
 }
@@ -1,7 +1,6 @@
 package com.shopify.volumizer;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
@@ -18,19 +17,25 @@ import android.widget.Toast;
 
 import com.google.atap.tangoservice.Tango;
 import com.google.atap.tangoservice.TangoCameraIntrinsics;
-import com.google.atap.tangoservice.TangoException;
-import com.google.atap.tangoservice.TangoPointCloudData;
 import com.google.atap.tangoservice.TangoPoseData;
-import com.projecttango.tangosupport.TangoPointCloudManager;
-import com.projecttango.tangosupport.TangoSupport;
+import com.kanawish.raja.raja.PoseMath;
+import com.kanawish.raja.raja.TransformKernel;
+import com.shopify.volumizer.manager.CameraCalibration;
+import com.shopify.volumizer.manager.PlaneFitService;
+import com.shopify.volumizer.manager.PointCloudFusionService;
+import com.shopify.volumizer.manager.PointCloudHistory;
+import com.shopify.volumizer.manager.SessionRecorder;
 import com.shopify.volumizer.manager.TangoManager;
-import com.shopify.volumizer.utils.TangoMath;
+import com.shopify.volumizer.manager.TransformCache;
+import com.shopify.volumizer.telemetry.FrameTimings;
+import com.shopify.volumizer.telemetry.PoseTelemetry;
+import com.shopify.volumizer.telemetry.TelemetryFormatter;
 
-import org.rajawali3d.math.Matrix4;
-import org.rajawali3d.math.vector.Vector3;
 import org.rajawali3d.scene.ASceneFrameCallback;
 import org.rajawali3d.view.SurfaceView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -43,21 +48,21 @@ import javax.inject.Inject;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
+import butterknife.OnLongClick;
+import io.reactivex.Flowable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.subjects.PublishSubject;
 import timber.log.Timber;
 import toothpick.Scope;
 import toothpick.Toothpick;
 
-import static com.projecttango.tangosupport.TangoSupport.IntersectionPointPlaneModelPair;
 import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_OPENGL;
-import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_TANGO;
-import static com.projecttango.tangosupport.TangoSupport.TangoMatrixTransformData;
-import static com.projecttango.tangosupport.TangoSupport.getPoseAtTime;
 
 public class VolumizerActivity extends AppCompatActivity implements View.OnTouchListener {
 
+    // Refresh period of the on-screen pose telemetry.
+    private static final long TELEMETRY_REFRESH_MS = 100;
+
     /**
      * Think of these as states in the UI state machine.
      * <p>
@@ -123,12 +128,16 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
     // *** GL View Components ***
     private SurfaceView surfaceView;
     private FloorPlanEditRenderer renderer;
+    private RenderScheduler renderScheduler;
 
     // ** View States **
     private FloorplanMode currentFloorplanMode = FloorplanMode.VIEW;
 
     // *** 'Model' State Stores and Emitters ***
-    private PublishSubject<String> log = PublishSubject.create();
+    private final PoseTelemetry.Sample poseSample = new PoseTelemetry.Sample();
+    private final TelemetryFormatter telemetryFormatter = new TelemetryFormatter(512);
+    private long previousPoseCount;
+    private long previousSampleNanos;
     private CompositeDisposable disposables;
     private List<float[]> wallPlanes = new ArrayList<>();
     private Map<float[], MockProduct> productMap = new HashMap<>();
@@ -136,22 +145,45 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
 
     //    private boolean isAreaLearningMode;
     private boolean isLoadAdfMode;
+    private boolean isRecordSessionMode;
+    private boolean isFuseCloudsMode;
+    private SessionRecorder sessionRecorder;
 
     // *** Tango Service State ***
     @Inject TangoManager tangoManager ;
-    @Inject TangoPointCloudManager tangoPointCloudManager;
+    @Inject PointCloudHistory pointCloudHistory;
+    @Inject PlaneFitService planeFitService;
+    @Inject PointCloudFusionService pointCloudFusionService;
+    @Inject TransformCache transformCache;
 
     private double cameraPoseTimestamp = 0;
 
+    // Device to OpenGL camera transform, set on connect so camera poses can be derived from device poses.
+    private final double[] deviceTCameraTranslation = new double[3];
+    private final double[] deviceTCameraRotation = {0, 0, 0, 1};
+
     // *** GL Rendering Related ***
     // NOTE: Naming indicates which thread is in charge of updating this variable
     private AtomicBoolean isFrameAvailableTangoThread = new AtomicBoolean(false);
-    private double rgbTimestampGlThread;
+    // Check if the frame available is for the camera we want, and mark it available for rendering in the OpenGL thread.
+    private final TangoManager.OnFrameAvailableListener colorFrameListener = cameraId -> {
+        if (cameraId == TangoCameraIntrinsics.TANGO_CAMERA_COLOR) {
+            isFrameAvailableTangoThread.set(true);
+            renderScheduler.requestRender();
+        }
+    };
+    // Written by the GL thread, read by the main thread when queueing plane fits.
+    private volatile double rgbTimestampGlThread;
+    private final double[] cameraTranslationGlThread = new double[3];
+    private final double[] cameraRotationGlThread = new double[4];
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Scope scope = Toothpick.openScopes(getApplication(), this);
+        if (getIntent().getBooleanExtra(StartActivity.REPLAY_SESSION, false)) {
+            installReplay(scope);
+        }
         Toothpick.inject(this, scope);
 
         setContentView(R.layout.activity_main);
@@ -162,6 +194,10 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
         surfaceView.setOnTouchListener(this);
         renderer = new FloorPlanEditRenderer(this);
         surfaceView.setSurfaceRenderer(renderer);
+        // The view only changes with camera frames and model updates, no need to draw in between.
+        renderScheduler = new RenderScheduler(surfaceView, renderer.getFrameRate());
+        renderer.setRenderScheduler(renderScheduler);
+        renderer.setRenderOnDemand(true);
 
         parentLayout.addView(surfaceView);
 
@@ -171,6 +207,38 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
         Intent intent = getIntent();
 //        isAreaLearningMode = intent.getBooleanExtra(StartActivity.USE_AREA_LEARNING, false);
         isLoadAdfMode = intent.getBooleanExtra(StartActivity.LOAD_ADF, false);
+        isRecordSessionMode = intent.getBooleanExtra(StartActivity.RECORD_SESSION, false);
+        isFuseCloudsMode = intent.getBooleanExtra(StartActivity.FUSE_CLOUDS, false);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Toothpick.closeScope(this);
+    }
+
+    /**
+     * Swaps the live Tango service for a replay of the latest recorded session, if there's one.
+     */
+    private void installReplay(Scope scope) {
+        File latestSession = null;
+        File[] files = getExternalFilesDir(null).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith("session-") && file.getName().endsWith(".tses")
+                        && (latestSession == null || file.lastModified() > latestSession.lastModified())) {
+                    latestSession = file;
+                }
+            }
+        }
+
+        if (latestSession == null) {
+            Timber.w("No recorded session to replay, using the Tango service.");
+            Toast.makeText(this, R.string.no_session_to_replay, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Timber.i("Replaying %s", latestSession);
+        scope.installModules(new ReplayModule(latestSession));
     }
 
     @Override
@@ -179,40 +247,38 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
 
         disposables = new CompositeDisposable();
 
-        log.throttleFirst(100, TimeUnit.MILLISECONDS)
-                .observeOn(AndroidSchedulers.mainThread())
+        disposables.add(Flowable.interval(TELEMETRY_REFRESH_MS, TimeUnit.MILLISECONDS, AndroidSchedulers.mainThread())
                 .subscribe(
-                        log -> logTextView.setText(log),
-                        throwable -> Timber.e(throwable, "log error"),
-                        () -> Timber.i("log onComplete() called."),
-                        disposables::add
-                );
+                        tick -> updateTelemetryOverlay(),
+                        throwable -> Timber.e(throwable, "telemetry overlay error")));
 
         tangoManager.startTango(this::onTangoConnected);
     }
 
+    /**
+     * @param tango the connected service, null when replaying a recorded session.
+     */
     @MainThread
     private void onTangoConnected(Tango tango) {
-        // Poses are logged
-        tangoManager.getPoseObservable()
-                .doOnSubscribe(disposables::add)
-                .map(TangoManager::buildPoseLogMessage)
-                .subscribe(log::onNext);
-
-        tangoManager.getFrameObservable()
-                .doOnSubscribe(disposables::add)
-                // Check if the frame available is for the camera we want and update its frame on the view.
-                .filter(cameraId -> cameraId == TangoCameraIntrinsics.TANGO_CAMERA_COLOR)
-                // Mark a camera frame is available for rendering in the OpenGL thread
-                .subscribe(cameraId -> isFrameAvailableTangoThread.set(true));
-
-        // Save the cloud and point data for later use.
-        tangoManager.getPointCloudData()
-                .doOnSubscribe(disposables::add)
-                .subscribe(tangoPointCloudManager::updatePointCloud);
+        tangoManager.addOnFrameAvailableListener(colorFrameListener);
+        transformCache.start(tangoManager);
+
+        // Save the recent clouds for later use.
+        pointCloudHistory.start(tangoManager);
+        // And fuse them into a multi-frame map, when asked to.
+        if (isFuseCloudsMode) {
+            pointCloudFusionService.start(tangoManager);
+        }
+
+        if (isRecordSessionMode) {
+            startSessionRecording();
+        }
+
+        CameraCalibration calibration = tangoManager.getCameraCalibration();
+        setupCameraExtrinsics(calibration);
 
         // Renderer needs tango before starting up.
-        connectRenderer(tango);
+        connectRenderer(tango, calibration.colorIntrinsics);
     }
 
     @Override
@@ -220,19 +286,89 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
         super.onPause();
 
         disposables.dispose();
+        tangoManager.removeOnFrameAvailableListener(colorFrameListener);
+        pointCloudHistory.stop();
+        transformCache.stop();
+        pointCloudFusionService.stop();
+        if (sessionRecorder != null) {
+            sessionRecorder.stop();
+            sessionRecorder = null;
+        }
         renderer.getCurrentScene().clearFrameCallbacks();
         tangoManager.stopTango();
     }
 
 
     /**
-     * Connects the view and renderer to the color camera and callbacks.
+     * Records the Tango streams to app storage, for replay with {@code ReplayTangoManager}.
      */
-    private void connectRenderer(Tango tango) {
+    private void startSessionRecording() {
+        File sessionFile = new File(getExternalFilesDir(null), "session-" + System.currentTimeMillis() + ".tses");
+        try {
+            sessionRecorder = new SessionRecorder(sessionFile);
+            sessionRecorder.start(tangoManager);
+        } catch (IOException e) {
+            Timber.e(e, "Couldn't start recording to %s", sessionFile);
+        }
+    }
+
+    /**
+     * Derives the device to OpenGL camera transform from the IMU extrinsics, which are fixed for
+     * the lifetime of the connection, live or recorded.
+     */
+    private void setupCameraExtrinsics(CameraCalibration calibration) {
+        TangoPoseData imuTDevicePose = calibration.imuTDevice;
+        TangoPoseData imuTColorCameraPose = calibration.imuTColorCamera;
+
+        double[] deviceTImuTranslation = new double[3];
+        double[] deviceTImuRotation = new double[4];
+        PoseMath.invert(imuTDevicePose.translation, imuTDevicePose.rotation,
+                deviceTImuTranslation, deviceTImuRotation);
+        PoseMath.compose(deviceTImuTranslation, deviceTImuRotation,
+                imuTColorCameraPose.translation, imuTColorCameraPose.rotation,
+                deviceTCameraTranslation, deviceTCameraRotation);
+        // Color camera to OpenGL camera is a pure rotation, fold it in now.
+        PoseMath.multiplyQuaternion(deviceTCameraRotation, 0,
+                PoseMath.COLOR_CAMERA_R_OPENGL_CAMERA, 0, deviceTCameraRotation, 0);
+    }
+
+    /**
+     * Resolves the OpenGL camera pose at the given time from the recorded device poses,
+     * without a JNI round-trip or any allocation. Timestamps past the latest device pose, frames
+     * that beat their pose through the pipeline, are extrapolated from the pose stream's motion.
+     *
+     * @return false if the pose history doesn't cover the timestamp, i.e. it's too old.
+     */
+    private boolean lookupCameraPoseGlThread(double timestamp) {
+        if (!tangoManager.getPoseHistory().getPoseAtTime(
+                timestamp, cameraTranslationGlThread, cameraRotationGlThread)
+                && !tangoManager.getPosePredictor().predict(
+                timestamp, cameraTranslationGlThread, cameraRotationGlThread)) {
+            return false;
+        }
+
+        // openGlWorld_T_openGlCamera = openGlWorld_T_startService * startService_T_device * device_T_openGlCamera
+        PoseMath.compose(cameraTranslationGlThread, cameraRotationGlThread,
+                deviceTCameraTranslation, deviceTCameraRotation,
+                cameraTranslationGlThread, cameraRotationGlThread);
+        PoseMath.rotateVector(PoseMath.OPENGL_R_TANGO_WORLD, 0,
+                cameraTranslationGlThread, 0, cameraTranslationGlThread, 0);
+        PoseMath.multiplyQuaternion(PoseMath.OPENGL_R_TANGO_WORLD, 0,
+                cameraRotationGlThread, 0, cameraRotationGlThread, 0);
+        return true;
+    }
+
+    /**
+     * Connects the view and renderer to the color camera and callbacks. Without {@code tango},
+     * when replaying, there's no camera image, the scene is drawn over the recorded poses only.
+     */
+    private void connectRenderer(Tango tango, TangoCameraIntrinsics cameraIntrinsics) {
         // Register a Rajawali Scene Frame Callback to update the scene camera pose whenever a new RGB frame is rendered.
         // (@see https://github.com/Rajawali/Rajawali/wiki/Scene-Frame-Callbacks)
-        TangoCameraIntrinsics cameraIntrinsics = tango.getCameraIntrinsics(TangoCameraIntrinsics.TANGO_CAMERA_COLOR);
         int[] connectedTextureIdGlThread = {0}; // No texture yet.
+        FrameTimings frameTimings = tangoManager.getFrameTimings();
+        renderer.setFrameTimings(frameTimings);
+        renderScheduler.start();
         renderer.getCurrentScene().registerFrameCallback(new ASceneFrameCallback() {
 
             @Override
@@ -241,45 +377,62 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
                 // onRender callbacks had a chance to run and before scene objects are rendered
                 // into the scene.
 
-                // TODO: Check, but very likely Tango thread.
-                synchronized (VolumizerActivity.this) {
-
-                    // Set-up scene camera projection to match RGB camera intrinsics
-                    if (!renderer.isSceneCameraConfigured()) {
-                        renderer.setProjectionMatrix(cameraIntrinsics);
-                    }
+                // Set-up scene camera projection to match RGB camera intrinsics
+                if (!renderer.isSceneCameraConfigured()) {
+                    renderer.setProjectionMatrix(cameraIntrinsics);
+                }
 
-                    // Connect the camera texture to the OpenGL Texture if necessary
-                    // NOTE: When the OpenGL context is recycled, Rajawali may re-generate the texture with a different ID.
-                    if (connectedTextureIdGlThread[0] != renderer.getTextureId()) {
-                        tango.connectTextureId(TangoCameraIntrinsics.TANGO_CAMERA_COLOR, renderer.getTextureId());
-                        connectedTextureIdGlThread[0] = renderer.getTextureId();
-                        Timber.d("connected to texture id: %d", renderer.getTextureId());
-                    }
+                // Connect the camera texture to the OpenGL Texture if necessary
+                // NOTE: When the OpenGL context is recycled, Rajawali may re-generate the texture with a different ID.
+                if (tango != null && connectedTextureIdGlThread[0] != renderer.getTextureId()) {
+                    tango.connectTextureId(TangoCameraIntrinsics.TANGO_CAMERA_COLOR, renderer.getTextureId());
+                    connectedTextureIdGlThread[0] = renderer.getTextureId();
+                    Timber.d("connected to texture id: %d", renderer.getTextureId());
+                }
 
-                    // If there is a new RGB camera frame available, update the texture with it
-                    if (isFrameAvailableTangoThread.compareAndSet(true, false)) {
+                // If there is a new RGB camera frame available, update the texture with it
+                if (isFrameAvailableTangoThread.compareAndSet(true, false)) {
+                    if (tango != null) {
+                        frameTimings.onTextureUpdateStart();
                         rgbTimestampGlThread =
                                 tango.updateTexture(TangoCameraIntrinsics.TANGO_CAMERA_COLOR);
+                        frameTimings.onTextureUpdated();
+                    } else {
+                        // Recorded frames carry no timestamp, follow the replayed poses.
+                        rgbTimestampGlThread = tangoManager.getPoseHistory().getLatestTimestamp();
                     }
+                }
 
-                    if (rgbTimestampGlThread > cameraPoseTimestamp) {
-                        // Calculate the camera color pose at the camera frame update time in
-                        // OpenGL engine.
-                        TangoPoseData lastFramePose = getPoseAtTime(
-                                rgbTimestampGlThread,
-                                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
-                                TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
-                                TANGO_SUPPORT_ENGINE_OPENGL, 0);
-                        if (lastFramePose.statusCode == TangoPoseData.POSE_VALID) {
-                            // Update the camera pose from the renderer
-                            renderer.updateRenderCameraPose(lastFramePose);
-                            cameraPoseTimestamp = lastFramePose.timestamp;
-                        } else {
-                            Timber.w("Can't get device pose at time: %.3f", rgbTimestampGlThread);
-                        }
+                if (rgbTimestampGlThread > cameraPoseTimestamp
+                        && lookupCameraPoseGlThread(rgbTimestampGlThread)) {
+                    // Common case, the pose history brackets the frame timestamp or is just
+                    // behind it. The camera image is from that timestamp, so that's the pose the
+                    // scene has to be drawn from to stay locked to it, not the display time's.
+                    renderer.updateRenderCameraPose(cameraTranslationGlThread, cameraRotationGlThread);
+                    cameraPoseTimestamp = rgbTimestampGlThread;
+                    frameTimings.onCameraPoseUpdated(
+                            tangoManager.getPoseHistory().getLatestTimestamp(), cameraPoseTimestamp);
+                } else if (tango != null && rgbTimestampGlThread > cameraPoseTimestamp) {
+                    // Calculate the camera color pose at the camera frame update time in
+                    // OpenGL engine.
+                    TangoPoseData lastFramePose = transformCache.getPoseAtTime(
+                            rgbTimestampGlThread,
+                            TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                            TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
+                            TANGO_SUPPORT_ENGINE_OPENGL, 0);
+                    if (lastFramePose.statusCode == TangoPoseData.POSE_VALID) {
+                        // Update the camera pose from the renderer
+                        renderer.updateRenderCameraPose(lastFramePose);
+                        cameraPoseTimestamp = lastFramePose.timestamp;
+                        frameTimings.onCameraPoseUpdated(
+                                tangoManager.getPoseHistory().getLatestTimestamp(), cameraPoseTimestamp);
+                    } else {
+                        Timber.w("Can't get device pose at time: %.3f", rgbTimestampGlThread);
                     }
                 }
+
+                // The camera is final for this frame, cull against it before anything is drawn.
+                renderer.onCameraUpdated();
             }
 
             @Override
@@ -289,13 +442,19 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
 
             @Override
             public void onPostFrame(long sceneTime, double deltaTime) {
-
+                frameTimings.onFrameRendered();
+                renderScheduler.onFrameRendered();
             }
 
             @Override
             public boolean callPreFrame() {
                 return true;
             }
+
+            @Override
+            public boolean callPostFrame() {
+                return true;
+            }
         });
     }
 
@@ -318,12 +477,11 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
 
     private void handleViewModeTouch(View view, MotionEvent motionEvent) {
         findPlane(view, motionEvent, planeFitTransform -> {
+            renderer.updateFloorPlane(planeFitTransform);
             // TODO: We need to change this to a ray collision hit detection.
             // TODO: Add code to detect proximity of touch vs existing ones.
-            Matrix4 objectTransform = new Matrix4(planeFitTransform);
-            Vector3 planeLocation = objectTransform.getTranslation();
             for (float[] currentPlane : wallPlanes) {
-                if (planeLocation.distanceTo(new Matrix4(currentPlane).getTranslation()) < .5) {
+                if (TransformKernel.translationDistance(planeFitTransform, 0, currentPlane, 0) < .5) {
                     renderer.updateSelectedTransform(currentPlane);
                     selectedPlane = currentPlane;
                     changeMode(FloorplanMode.SELECTED);
@@ -336,6 +494,8 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
 
     private void handleAddModeTouch(View view, MotionEvent motionEvent) {
         findPlane(view, motionEvent, planeFitTransform -> {
+            // Fits facing up also place the floor grid.
+            renderer.updateFloorPlane(planeFitTransform);
             wallPlanes.add(planeFitTransform);
             renderer.updateWallPlanes(wallPlanes);
         });
@@ -343,92 +503,97 @@ public class VolumizerActivity extends AppCompatActivity implements View.OnTouch
 
     private void findPlane(View view, MotionEvent motionEvent, PlaneTranformProcessor planeTranformProcessor) {
         if (motionEvent.getAction() == MotionEvent.ACTION_UP) {
+            if (!tangoManager.hasTangoService()) {
+                // Plane fits go through TangoSupport, which a replay doesn't have.
+                Toast.makeText(getApplicationContext(), R.string.replay_no_plane_fit, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
             // Calculate click location in u,v (0;1) coordinates.
             float u = motionEvent.getX() / view.getWidth();
             float v = motionEvent.getY() / view.getHeight();
 
-            try {
-                // Fit a plane on the clicked point.
-                float[] planeFitTransform;
-
-                // mainThread
-                synchronized (this) {
-                    planeFitTransform = doFitPlane(u, v, rgbTimestampGlThread);
+            // Fit a plane on the clicked point, off the main thread. Results landing after
+            // onPause are dropped along with the other subscriptions.
+            disposables.add(planeFitService.requestFit(u, v, rgbTimestampGlThread, new PlaneFitService.Callback() {
+                @Override
+                public void onPlaneFit(float[] planeFitTransform) {
+                    planeTranformProcessor.processPlaneFitTransform(planeFitTransform);
                 }
 
-                if (planeFitTransform != null) {
-                    planeTranformProcessor.processPlaneFitTransform(planeFitTransform);
+                @Override
+                public void onPlaneFitError(RuntimeException e) {
+                    if (e instanceof SecurityException) {
+                        Toast.makeText(getApplicationContext(), R.string.failed_permissions, Toast.LENGTH_SHORT).show();
+                        Timber.e(e, getString(R.string.failed_permissions));
+                    } else {
+                        Toast.makeText(getApplicationContext(), R.string.failed_measurement, Toast.LENGTH_SHORT).show();
+                        Timber.e(e, getString(R.string.failed_measurement));
+                    }
                 }
-            } catch (TangoException t) {
-                Toast.makeText(getApplicationContext(), R.string.failed_measurement, Toast.LENGTH_SHORT).show();
-                Timber.e(getString(R.string.failed_measurement));
-            } catch (SecurityException t) {
-                Toast.makeText(getApplicationContext(), R.string.failed_permissions, Toast.LENGTH_SHORT).show();
-                Timber.e(t, getString(R.string.failed_permissions));
-            }
+            }));
         }
     }
 
     /**
-     * Use the TangoSupport library with point cloud data to calculate the plane
-     * of the world feature pointed at the location the camera is looking.
-     * It returns the transform of the fitted plane in a double array.
+     * Show the latest pose sample and pose rate in the log overlay, without allocating.
      */
-    private float[] doFitPlane(float u, float v, double rgbTimestamp) {
-        TangoPointCloudData pointCloud = tangoPointCloudManager.getLatestPointCloud();
-
-        if (pointCloud == null) {
-            return null;
+    @MainThread
+    private void updateTelemetryOverlay() {
+        if (!tangoManager.getPoseTelemetry().readSample(poseSample)) {
+            return;
         }
 
-        // We need to calculate the transform between the color camera at the
-        // time the user clicked, and the depth camera at the time the depth
-        // cloud was acquired.
-        TangoPoseData colorTdepthPose =
-                TangoSupport.calculateRelativePose(
-                        rgbTimestamp, TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
-                        pointCloud.timestamp, TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH);
-
-        // Perform plane fitting with the latest available point cloud data.
-        IntersectionPointPlaneModelPair intersectionPointPlaneModelPair =
-                TangoSupport.fitPlaneModelNearPoint(pointCloud, colorTdepthPose, u, v);
-
-        // Get the transform from depth camera to OpenGL world at
-        // the timestamp of the cloud.
-        TangoMatrixTransformData transform =
-                TangoSupport.getMatrixTransformAtTime(
-                        pointCloud.timestamp,
-                        TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
-                        TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
-                        TANGO_SUPPORT_ENGINE_OPENGL,
-                        TANGO_SUPPORT_ENGINE_TANGO);
-
-        if (transform.statusCode == TangoPoseData.POSE_VALID) {
-            float[] openGlTPlane = TangoMath.calculatePlaneTransform(
-                    intersectionPointPlaneModelPair.intersectionPoint,
-                    intersectionPointPlaneModelPair.planeModel, transform.matrix);
-
-            return openGlTPlane;
-        } else {
-            Timber.w("Can't get depth camera transform at time %.3f", pointCloud.timestamp);
-            return null;
+        double elapsedSeconds = (poseSample.sampleNanos - previousSampleNanos) / 1e9;
+        double poseRate = previousSampleNanos == 0 || poseSample.poseCount < previousPoseCount
+                ? 0 : (poseSample.poseCount - previousPoseCount) / elapsedSeconds;
+        previousPoseCount = poseSample.poseCount;
+        previousSampleNanos = poseSample.sampleNanos;
+
+        double[] t = poseSample.translation;
+        double[] r = poseSample.rotation;
+        telemetryFormatter.reset()
+                .append('[').appendSigned(t[0], 3).append(',').appendSigned(t[1], 3).append(',').appendSigned(t[2], 3)
+                .append("]\n(")
+                .appendSigned(r[0], 3).append(',').appendSigned(r[1], 3).append(',')
+                .appendSigned(r[2], 3).append(',').appendSigned(r[3], 3)
+                .append(")\n").append(poseRate, 1).append(" poses/s")
+                .append("\ntransform cache hits ").append(transformCache.getHitRate() * 100, 0).append('%')
+                .append("\ncamera poses predicted ").append(tangoManager.getPosePredictor().getPredictionCount())
+                .append("\nframes rendered ").append(renderScheduler.getRenderedFrames())
+                .append(", skipped ").append(renderScheduler.getSkippedFrames())
+                .append("\nobjects visible ").append(renderer.getVisibilityCuller().getVisibleCount())
+                .append(", culled ").append(renderer.getVisibilityCuller().getCulledCount())
+                .append("\nplane fit queued ").append(planeFitService.getLastQueueLatency(TimeUnit.MICROSECONDS) / 1000.0, 1)
+                .append("ms, fit ").append(planeFitService.getLastFitLatency(TimeUnit.MICROSECONDS) / 1000.0, 1)
+                .append("ms (").append(planeFitService.getFitCount())
+                .append(" fits, ").append(planeFitService.getCoalescedCount()).append(" coalesced)");
+        if (isFuseCloudsMode) {
+            telemetryFormatter.append("\nfused voxels ").append(pointCloudFusionService.getVoxelCount())
+                    .append(" from ").append(pointCloudFusionService.getIntegratedFrames())
+                    .append(" frames, dropped ").append(pointCloudFusionService.getDroppedFrames());
         }
+        tangoManager.getFrameTimings().appendSummary(telemetryFormatter);
+        logTextView.setText(telemetryFormatter.getChars(), 0, telemetryFormatter.length());
     }
 
+
+
     /**
-     * Log the Position and Orientation of the given pose in the Logcat as information.
-     *
-     * @param pose the pose to log.
+     * Dumps the frame pipeline histograms next to recorded sessions.
      */
-    @SuppressLint("DefaultLocale")
-    private void logPose(TangoPoseData pose) {
-        String poseLogMsg = TangoManager.buildPoseLogMessage(pose);
-
-        log.onNext(poseLogMsg);
+    @OnLongClick(R.id.log_text)
+    boolean onLogLongClick() {
+        File timingsFile = new File(getExternalFilesDir(null), "timings-" + System.currentTimeMillis() + ".txt");
+        try {
+            tangoManager.getFrameTimings().dump(timingsFile);
+            Toast.makeText(getApplicationContext(), getString(R.string.timings_dumped, timingsFile.getName()), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Timber.e(e, "Couldn't dump timings to %s", timingsFile);
+        }
+        return true;
     }
 
-
-
     @OnClick(R.id.addButton)
     void onAddClick() {
         changeMode(FloorplanMode.ADD);
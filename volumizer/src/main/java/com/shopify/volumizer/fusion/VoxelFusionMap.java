@@ -0,0 +1,295 @@
+package com.shopify.volumizer.fusion;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Sparse voxel grid accumulating depth frames into a denoised, start of service frame map.
+ * <p>
+ * Each occupied voxel holds the running centroid and hit count of the points that fell in it.
+ * Voxels live in an open-addressing hash table keyed by their packed integer coordinates, with
+ * linear probing over parallel primitive arrays, so inserting a point is O(1) and allocation
+ * free. The table never holds more than {@code maxVoxels}; once full, a quarter of it is
+ * evicted in one go, least recently seen voxels and those in blocks far from the camera first.
+ * <p>
+ * Not thread safe, callers synchronize on the map.
+ */
+public class VoxelFusionMap {
+
+    private static final int FLOATS_PER_POINT = 4;
+
+    // 21 bits per axis, +/- 2^20 voxels around the origin.
+    private static final int AXIS_BITS = 21;
+    private static final int AXIS_OFFSET = 1 << (AXIS_BITS - 1);
+    private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+    private static final long EMPTY = -1L;
+
+    // Voxels are grouped in blocks of 8^3 for eviction distances.
+    private static final int BLOCK_SHIFT = 3;
+    // Eviction score is age in frames plus distance in blocks, capped to the histogram size.
+    private static final int MAX_EVICTION_SCORE = 1023;
+
+    private final float voxelSize;
+    private final float inverseVoxelSize;
+    private final int maxVoxels;
+    private final int maxWeight;
+    private final int mask;
+
+    // *** Table, one slot per index ***
+    private final long[] keys;
+    private final float[] centroids;
+    private final int[] counts;
+    private final int[] lastSeen;
+    private int size;
+
+    private int frame;
+    private int camBlockX;
+    private int camBlockY;
+    private int camBlockZ;
+    private final int[] scoreHistogram = new int[MAX_EVICTION_SCORE + 1];
+
+    /**
+     * @param voxelSize edge length of a voxel, in meters.
+     * @param maxVoxels upper bound on occupied voxels, the table is sized for a load under 0.5.
+     * @param maxWeight hit count at which a centroid stops converging and starts tracking,
+     *                  so stale geometry is eventually overwritten.
+     */
+    public VoxelFusionMap(float voxelSize, int maxVoxels, int maxWeight) {
+        this.voxelSize = voxelSize;
+        this.inverseVoxelSize = 1 / voxelSize;
+        this.maxVoxels = maxVoxels;
+        this.maxWeight = maxWeight;
+
+        int capacity = Integer.highestOneBit(maxVoxels * 2 - 1) << 1;
+        mask = capacity - 1;
+        keys = new long[capacity];
+        centroids = new float[capacity * 3];
+        counts = new int[capacity];
+        lastSeen = new int[capacity];
+        clear();
+    }
+
+    /**
+     * Transforms a depth frame with {@code worldTdepth}, a 4x4 column-major matrix like
+     * {@code TangoSupport.TangoMatrixTransformData.matrix}, and accumulates it.
+     *
+     * @param points Tango packed (x, y, z, confidence) points, in the depth camera frame.
+     */
+    public void integrate(FloatBuffer points, int numPoints, float[] worldTdepth, float minConfidence) {
+        frame++;
+        float camX = worldTdepth[12];
+        float camY = worldTdepth[13];
+        float camZ = worldTdepth[14];
+        setCameraPosition(camX, camY, camZ);
+
+        float m0 = worldTdepth[0], m1 = worldTdepth[1], m2 = worldTdepth[2];
+        float m4 = worldTdepth[4], m5 = worldTdepth[5], m6 = worldTdepth[6];
+        float m8 = worldTdepth[8], m9 = worldTdepth[9], m10 = worldTdepth[10];
+
+        int limit = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < limit; i += FLOATS_PER_POINT) {
+            if (points.get(i + 3) < minConfidence) {
+                continue;
+            }
+            float x = points.get(i);
+            float y = points.get(i + 1);
+            float z = points.get(i + 2);
+            insert(m0 * x + m4 * y + m8 * z + camX,
+                    m1 * x + m5 * y + m9 * z + camY,
+                    m2 * x + m6 * y + m10 * z + camZ);
+        }
+    }
+
+    /**
+     * Camera position used to rank voxels for eviction, set by {@link #integrate}.
+     */
+    public void setCameraPosition(float x, float y, float z) {
+        camBlockX = (int) Math.floor(x * inverseVoxelSize) >> BLOCK_SHIFT;
+        camBlockY = (int) Math.floor(y * inverseVoxelSize) >> BLOCK_SHIFT;
+        camBlockZ = (int) Math.floor(z * inverseVoxelSize) >> BLOCK_SHIFT;
+    }
+
+    /**
+     * Adds a single start of service frame point.
+     */
+    public void insert(float x, float y, float z) {
+        long key = pack(
+                (int) Math.floor(x * inverseVoxelSize),
+                (int) Math.floor(y * inverseVoxelSize),
+                (int) Math.floor(z * inverseVoxelSize));
+
+        int slot = mix(key) & mask;
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                int count = counts[slot];
+                if (count < maxWeight) {
+                    count++;
+                    counts[slot] = count;
+                }
+                float weight = 1f / count;
+                int c = slot * 3;
+                centroids[c] += (x - centroids[c]) * weight;
+                centroids[c + 1] += (y - centroids[c + 1]) * weight;
+                centroids[c + 2] += (z - centroids[c + 2]) * weight;
+                lastSeen[slot] = frame;
+                return;
+            }
+            if (slotKey == EMPTY) {
+                if (size >= maxVoxels) {
+                    evict();
+                    // Slots moved around, probe again.
+                    insert(x, y, z);
+                    return;
+                }
+                keys[slot] = key;
+                int c = slot * 3;
+                centroids[c] = x;
+                centroids[c + 1] = y;
+                centroids[c + 2] = z;
+                counts[slot] = 1;
+                lastSeen[slot] = frame;
+                size++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Writes the centroids of voxels hit at least {@code minCount} times into {@code out}, in the
+     * same packed layout as Tango point clouds, confidence being the normalized hit count.
+     *
+     * @return the number of points written, bounded by the space left in {@code out}.
+     */
+    public int copyCentroids(FloatBuffer out, int minCount) {
+        int written = 0;
+        int capacity = keys.length;
+        for (int slot = 0; slot < capacity && out.remaining() >= FLOATS_PER_POINT; slot++) {
+            if (keys[slot] == EMPTY || counts[slot] < minCount) {
+                continue;
+            }
+            int c = slot * 3;
+            out.put(centroids[c]).put(centroids[c + 1]).put(centroids[c + 2])
+                    .put((float) counts[slot] / maxWeight);
+            written++;
+        }
+        return written;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getVoxelSize() {
+        return voxelSize;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        frame = 0;
+    }
+
+    // *** Eviction ***
+
+    /**
+     * Evicts a quarter of the budget at once, so the cost amortizes to O(1) per insert. Voxels
+     * are ranked by a score histogram, which keeps this at two linear passes over the table.
+     */
+    private void evict() {
+        int target = Math.max(1, maxVoxels / 4);
+
+        int[] histogram = scoreHistogram;
+        Arrays.fill(histogram, 0);
+        int capacity = keys.length;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (keys[slot] != EMPTY) {
+                histogram[score(slot)]++;
+            }
+        }
+
+        // Lowest score that, with everything above it, covers the target.
+        int threshold = MAX_EVICTION_SCORE;
+        int covered = histogram[threshold];
+        while (covered < target && threshold > 0) {
+            covered += histogram[--threshold];
+        }
+
+        int slot = 0;
+        while (slot < capacity) {
+            if (keys[slot] != EMPTY && score(slot) >= threshold) {
+                // Don't advance, backward shifting may have moved another voxel into this slot.
+                remove(slot);
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    private int score(int slot) {
+        long key = keys[slot];
+        int dx = Math.abs(unpackX(key) - camBlockX);
+        int dy = Math.abs(unpackY(key) - camBlockY);
+        int dz = Math.abs(unpackZ(key) - camBlockZ);
+        int score = (frame - lastSeen[slot]) + Math.max(dx, Math.max(dy, dz));
+        return score > MAX_EVICTION_SCORE ? MAX_EVICTION_SCORE : score;
+    }
+
+    /**
+     * Backward shift deletion, keeps probe chains intact without tombstones.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = mix(keys[next]) & mask;
+            // Move next into the hole unless its home lies cyclically in (hole, next].
+            boolean movable = hole <= next
+                    ? (home <= hole || home > next)
+                    : (home <= hole && home > next);
+            if (movable) {
+                keys[hole] = keys[next];
+                int h = hole * 3;
+                int n = next * 3;
+                centroids[h] = centroids[n];
+                centroids[h + 1] = centroids[n + 1];
+                centroids[h + 2] = centroids[n + 2];
+                counts[hole] = counts[next];
+                lastSeen[hole] = lastSeen[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        size--;
+    }
+
+    // *** Keys ***
+
+    private static long pack(int x, int y, int z) {
+        return ((long) (x + AXIS_OFFSET) & AXIS_MASK) << (2 * AXIS_BITS)
+                | ((long) (y + AXIS_OFFSET) & AXIS_MASK) << AXIS_BITS
+                | ((long) (z + AXIS_OFFSET) & AXIS_MASK);
+    }
+
+    // Unpacked straight to block coordinates.
+    private static int unpackX(long key) {
+        return ((int) ((key >>> (2 * AXIS_BITS)) & AXIS_MASK) - AXIS_OFFSET) >> BLOCK_SHIFT;
+    }
+
+    private static int unpackY(long key) {
+        return ((int) ((key >>> AXIS_BITS) & AXIS_MASK) - AXIS_OFFSET) >> BLOCK_SHIFT;
+    }
+
+    private static int unpackZ(long key) {
+        return ((int) (key & AXIS_MASK) - AXIS_OFFSET) >> BLOCK_SHIFT;
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
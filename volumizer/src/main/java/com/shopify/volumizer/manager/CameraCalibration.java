@@ -0,0 +1,43 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoPoseData;
+
+/**
+ * Camera extrinsics and color camera intrinsics, fixed for the lifetime of a Tango connection.
+ * Queried once on connect, recorded at the start of sessions, and read back during replay where
+ * there's no service to ask.
+ */
+public class CameraCalibration {
+
+    public final TangoPoseData imuTDevice;
+    public final TangoPoseData imuTColorCamera;
+    public final TangoPoseData imuTDepthCamera;
+    public final TangoCameraIntrinsics colorIntrinsics;
+
+    public CameraCalibration(TangoPoseData imuTDevice, TangoPoseData imuTColorCamera,
+                             TangoPoseData imuTDepthCamera, TangoCameraIntrinsics colorIntrinsics) {
+        this.imuTDevice = imuTDevice;
+        this.imuTColorCamera = imuTColorCamera;
+        this.imuTDepthCamera = imuTDepthCamera;
+        this.colorIntrinsics = colorIntrinsics;
+    }
+
+    /**
+     * Queries a connected service.
+     */
+    public static CameraCalibration query(Tango tango) {
+        return new CameraCalibration(
+                imuTFrame(tango, TangoPoseData.COORDINATE_FRAME_DEVICE),
+                imuTFrame(tango, TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR),
+                imuTFrame(tango, TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH),
+                tango.getCameraIntrinsics(TangoCameraIntrinsics.TANGO_CAMERA_COLOR));
+    }
+
+    private static TangoPoseData imuTFrame(Tango tango, int targetFrame) {
+        return tango.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_IMU, targetFrame));
+    }
+}
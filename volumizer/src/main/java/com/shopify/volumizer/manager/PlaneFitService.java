@@ -0,0 +1,224 @@
+package com.shopify.volumizer.manager;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.WorkerThread;
+
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.projecttango.tangosupport.TangoSupport;
+import com.shopify.volumizer.utils.TangoMath;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import timber.log.Timber;
+
+import static com.projecttango.tangosupport.TangoSupport.IntersectionPointPlaneModelPair;
+
+/**
+ * Runs plane fits for screen taps on a dedicated worker thread, so a slow fit never blocks
+ * touch handling or the render thread.
+ * <p>
+ * Each request is fit against the recorded depth frame closest in time to the RGB frame the user
+ * tapped on, picked when it's queued. If that frame is evicted before the fit runs, the request
+ * fails rather than silently fitting another one. A request that arrives while the previous one is still queued against the same
+ * depth frame replaces it, since it would only be fit against the same data again. Results are
+ * delivered on the main thread, unless the request was disposed first, e.g. when the requesting
+ * activity paused.
+ */
+@Singleton
+public class PlaneFitService {
+
+    /**
+     * Receives plane fit outcomes, always on the main thread.
+     */
+    public interface Callback {
+        void onPlaneFit(float[] planeFitTransform);
+
+        void onPlaneFitError(RuntimeException e);
+    }
+
+    private static class FitRequest implements Disposable {
+        final float u;
+        final float v;
+        final double rgbTimestamp;
+        final double cloudTimestamp;
+        final Callback callback;
+        final long enqueuedNanos;
+        volatile boolean disposed;
+
+        FitRequest(float u, float v, double rgbTimestamp, double cloudTimestamp, Callback callback) {
+            this.u = u;
+            this.v = v;
+            this.rgbTimestamp = rgbTimestamp;
+            this.cloudTimestamp = cloudTimestamp;
+            this.callback = callback;
+            this.enqueuedNanos = System.nanoTime();
+        }
+
+        @Override
+        public void dispose() {
+            disposed = true;
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return disposed;
+        }
+    }
+
+    @Inject PointCloudHistory pointCloudHistory;
+    @Inject TransformCache transformCache;
+
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "PlaneFit"));
+
+    // Guarded by itself. Each queued request has exactly one matching worker task.
+    private final ArrayDeque<FitRequest> queue = new ArrayDeque<>();
+
+    // *** Latency stats, written by the worker ***
+    private volatile long lastQueueLatencyNanos;
+    private volatile long lastFitLatencyNanos;
+    private volatile int fitCount;
+    private volatile int coalescedCount;
+
+    public PlaneFitService() {
+    }
+
+    /**
+     * Queues a plane fit at the given u,v (0;1) screen location, for the RGB frame shown at
+     * {@code rgbTimestamp}.
+     *
+     * @return disposing it skips the fit if it's still queued, and drops its result otherwise.
+     */
+    @MainThread
+    public Disposable requestFit(float u, float v, double rgbTimestamp, Callback callback) {
+        double cloudTimestamp = pointCloudHistory.getNearestTimestamp(rgbTimestamp);
+        if (Double.isNaN(cloudTimestamp)) {
+            return Disposables.disposed();
+        }
+
+        FitRequest request = new FitRequest(u, v, rgbTimestamp, cloudTimestamp, callback);
+        synchronized (queue) {
+            FitRequest tail = queue.peekLast();
+            if (tail != null && tail.cloudTimestamp == cloudTimestamp) {
+                // Tail's worker task is still pending, it will pick this request up instead.
+                queue.pollLast().dispose();
+                queue.addLast(request);
+                coalescedCount++;
+                return request;
+            }
+            queue.addLast(request);
+        }
+        worker.execute(this::fitNext);
+        return request;
+    }
+
+    @WorkerThread
+    private void fitNext() {
+        FitRequest request;
+        synchronized (queue) {
+            request = queue.pollFirst();
+        }
+        if (request == null || request.isDisposed()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        float[] planeFitTransform = null;
+        RuntimeException error = null;
+        // The frame the request was queued and coalesced against, not whichever is nearest now.
+        PointCloudHistory.Entry entry = pointCloudHistory.acquire(request.cloudTimestamp);
+        if (entry == null) {
+            error = new IllegalStateException(String.format(Locale.US,
+                    "Depth frame %.3f evicted before its plane fit ran", request.cloudTimestamp));
+        } else {
+            try {
+                planeFitTransform = doFitPlane(request, entry);
+            } catch (RuntimeException e) {
+                // TangoException and SecurityException are the expected ones.
+                error = e;
+            } finally {
+                pointCloudHistory.release(entry);
+            }
+        }
+        long endNanos = System.nanoTime();
+
+        lastQueueLatencyNanos = startNanos - request.enqueuedNanos;
+        lastFitLatencyNanos = endNanos - startNanos;
+        fitCount++;
+        Timber.d("Plane fit: queued %.1fms, fit %.1fms (%d fits, %d coalesced)",
+                lastQueueLatencyNanos / 1e6, lastFitLatencyNanos / 1e6, fitCount, coalescedCount);
+
+        float[] result = planeFitTransform;
+        RuntimeException failure = error;
+        AndroidSchedulers.mainThread().scheduleDirect(() -> {
+            if (request.isDisposed()) {
+                return;
+            }
+            if (failure != null) {
+                request.callback.onPlaneFitError(failure);
+            } else if (result != null) {
+                request.callback.onPlaneFit(result);
+            }
+        });
+    }
+
+    /**
+     * Use the TangoSupport library with point cloud data to calculate the plane
+     * of the world feature pointed at the location the camera is looking.
+     * It returns the transform of the fitted plane in a double array.
+     */
+    @WorkerThread
+    private float[] doFitPlane(FitRequest request, PointCloudHistory.Entry entry) {
+        TangoPointCloudData pointCloud = entry.pointCloud;
+
+        // We need to calculate the transform between the color camera at the
+        // time the user clicked, and the depth camera at the time the depth
+        // cloud was acquired.
+        TangoPoseData colorTdepthPose =
+                transformCache.calculateRelativePose(
+                        request.rgbTimestamp, TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
+                        pointCloud.timestamp, TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH);
+
+        // Perform plane fitting with the depth frame closest to the tapped RGB frame.
+        IntersectionPointPlaneModelPair intersectionPointPlaneModelPair =
+                TangoSupport.fitPlaneModelNearPoint(pointCloud, colorTdepthPose, request.u, request.v);
+
+        // The transform from depth camera to OpenGL world at the timestamp of the cloud was
+        // recorded along with it.
+        if (entry.transformValid) {
+            return TangoMath.calculatePlaneTransform(
+                    intersectionPointPlaneModelPair.intersectionPoint,
+                    intersectionPointPlaneModelPair.planeModel, entry.openGlTdepth);
+        } else {
+            Timber.w("Can't get depth camera transform at time %.3f", pointCloud.timestamp);
+            return null;
+        }
+    }
+
+    public long getLastQueueLatency(TimeUnit unit) {
+        return unit.convert(lastQueueLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getLastFitLatency(TimeUnit unit) {
+        return unit.convert(lastFitLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int getFitCount() {
+        return fitCount;
+    }
+
+    public int getCoalescedCount() {
+        return coalescedCount;
+    }
+}
@@ -0,0 +1,176 @@
+package com.shopify.volumizer.manager;
+
+import android.support.annotation.WorkerThread;
+
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.shopify.volumizer.fusion.VoxelFusionMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.disposables.Disposable;
+import timber.log.Timber;
+
+import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_TANGO;
+
+/**
+ * Fuses every incoming depth frame into a {@link VoxelFusionMap}, in the start of service frame,
+ * so plane fitting and wall extraction can work on a stable map instead of the latest frame.
+ * <p>
+ * The Tango callback thread only resolves the frame's transform and copies the cloud, while its
+ * buffer is still valid, integration runs on a dedicated worker thread. Frames arriving while the
+ * worker is still busy with the previous ones are dropped, the map converges all the same.
+ * <p>
+ * Fusion costs a worker thread and a few MB, the activity only starts it when asked to.
+ */
+@Singleton
+public class PointCloudFusionService {
+
+    // 4cm voxels, a 128k voxel budget is about 7MB of table.
+    private static final float VOXEL_SIZE = 0.04f;
+    private static final int MAX_VOXELS = 1 << 17;
+    private static final int MAX_WEIGHT = 32;
+    private static final float MIN_CONFIDENCE = 0.5f;
+    private static final int FLOATS_PER_POINT = 4;
+    // One frame being integrated, one waiting.
+    private static final int FRAME_POOL_SIZE = 2;
+
+    /**
+     * A cloud copied off the callback thread, with its start of service from depth transform.
+     */
+    private static class Frame {
+        final float[] worldTdepth = new float[16];
+        FloatBuffer points;
+        int numPoints;
+    }
+
+    @Inject TransformCache transformCache;
+
+    private final VoxelFusionMap map = new VoxelFusionMap(VOXEL_SIZE, MAX_VOXELS, MAX_WEIGHT);
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "PointCloudFusion"));
+    private final BlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<>(FRAME_POOL_SIZE);
+
+    private Disposable disposable;
+    // *** Stats, volatile so the UI never waits on an integration ***
+    private volatile int voxelCount;
+    private volatile int integratedFrames;
+    // Counted on the Tango callback thread, reset on the caller's by start().
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+
+    public PointCloudFusionService() {
+        for (int i = 0; i < FRAME_POOL_SIZE; i++) {
+            freeFrames.add(new Frame());
+        }
+    }
+
+    /**
+     * Starts fusing the manager's point clouds into a cleared map, until {@link #stop()}.
+     */
+    public void start(TangoManager tangoManager) {
+        stop();
+        // Behind whatever the previous session still had queued.
+        worker.execute(() -> {
+            synchronized (map) {
+                map.clear();
+            }
+            voxelCount = 0;
+            integratedFrames = 0;
+        });
+        // Here rather than on the worker, so drops of the new subscription are never reset.
+        droppedFrames.set(0);
+        disposable = tangoManager.getPointCloudFlowable()
+                .subscribe(this::enqueue, throwable -> Timber.e(throwable, "Point cloud fusion failed"));
+    }
+
+    public void stop() {
+        if (disposable != null) {
+            disposable.dispose();
+            disposable = null;
+        }
+    }
+
+    private void enqueue(TangoPointCloudData pointCloud) {
+        Frame frame = freeFrames.poll();
+        if (frame == null) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+
+        boolean valid = transformCache.getMatrixTransformAtTime(
+                pointCloud.timestamp,
+                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
+                TANGO_SUPPORT_ENGINE_TANGO,
+                TANGO_SUPPORT_ENGINE_TANGO,
+                frame.worldTdepth);
+        if (!valid) {
+            Timber.w("Can't get depth camera transform at time %.3f", pointCloud.timestamp);
+            freeFrames.add(frame);
+            return;
+        }
+
+        int floatCount = pointCloud.numPoints * FLOATS_PER_POINT;
+        if (frame.points == null || frame.points.capacity() < floatCount) {
+            frame.points = ByteBuffer.allocateDirect(floatCount * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        frame.points.clear();
+        frame.points.put((FloatBuffer) pointCloud.points.duplicate().rewind().limit(floatCount));
+        frame.points.flip();
+        frame.numPoints = pointCloud.numPoints;
+
+        worker.execute(() -> integrate(frame));
+    }
+
+    @WorkerThread
+    private void integrate(Frame frame) {
+        try {
+            synchronized (map) {
+                map.integrate(frame.points, frame.numPoints, frame.worldTdepth, MIN_CONFIDENCE);
+                voxelCount = map.size();
+            }
+            integratedFrames++;
+        } finally {
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Copies the fused map into {@code out}, as start of service frame points packed like
+     * {@link TangoPointCloudData#points}. Voxels seen less than {@code minCount} times are
+     * treated as noise and skipped.
+     *
+     * @return the number of points written.
+     */
+    public int copyFusedCloud(FloatBuffer out, int minCount) {
+        synchronized (map) {
+            return map.copyCentroids(out, minCount);
+        }
+    }
+
+    public int getVoxelCount() {
+        return voxelCount;
+    }
+
+    public int getIntegratedFrames() {
+        return integratedFrames;
+    }
+
+    /**
+     * @return frames skipped since {@link #start} because the worker was still busy.
+     */
+    public int getDroppedFrames() {
+        return droppedFrames.get();
+    }
+}
@@ -0,0 +1,220 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.disposables.Disposable;
+import timber.log.Timber;
+
+import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_OPENGL;
+import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_TANGO;
+
+/**
+ * Keeps the last few depth frames, each with its timestamp and depth camera transform, so
+ * consumers can work against the frame closest to a given time instead of only the latest one.
+ * <p>
+ * Frames are copied into a fixed pool of entries whose direct buffers are re-used, so once every
+ * entry has seen a full size cloud, recording allocates nothing. Readers {@link #acquireNearest}
+ * an entry and must {@link #release} it; acquired entries are never overwritten, a new frame
+ * goes into the oldest free entry instead, or is dropped if there are none.
+ */
+@Singleton
+public class PointCloudHistory {
+
+    private static final int FLOATS_PER_POINT = 4;
+    // ~2s of depth frames at 5Hz.
+    private static final int HISTORY_SIZE = 10;
+
+    public static class Entry {
+        /**
+         * Wraps the entry's own buffer, so it can be handed straight to TangoSupport.
+         */
+        public final TangoPointCloudData pointCloud = new TangoPointCloudData();
+
+        /**
+         * OpenGL world from depth camera transform at the cloud's timestamp, column-major.
+         */
+        public final float[] openGlTdepth = new float[16];
+        public boolean transformValid;
+
+        private int references;
+        private boolean readable;
+        private long sequence;
+    }
+
+    @Inject TransformCache transformCache;
+
+    private final Entry[] entries = new Entry[HISTORY_SIZE];
+    // Tango callback thread scratch.
+    private final float[] openGlTdepth = new float[16];
+    private long sequence;
+
+    private Disposable disposable;
+
+    public PointCloudHistory() {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            entries[i] = new Entry();
+        }
+    }
+
+    /**
+     * Records the manager's point clouds into a cleared history, until {@link #stop()}.
+     */
+    public void start(TangoManager tangoManager) {
+        stop();
+        synchronized (this) {
+            for (Entry entry : entries) {
+                entry.readable = false;
+            }
+        }
+        disposable = tangoManager.getPointCloudFlowable()
+                .subscribe(this::record, throwable -> Timber.e(throwable, "Point cloud history failed"));
+    }
+
+    public void stop() {
+        if (disposable != null) {
+            disposable.dispose();
+            disposable = null;
+        }
+    }
+
+    private void record(TangoPointCloudData pointCloud) {
+        boolean valid = transformCache.getMatrixTransformAtTime(
+                pointCloud.timestamp,
+                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
+                TANGO_SUPPORT_ENGINE_OPENGL,
+                TANGO_SUPPORT_ENGINE_TANGO,
+                openGlTdepth);
+        add(pointCloud, valid ? openGlTdepth : null);
+    }
+
+    /**
+     * Copies a cloud into the history.
+     *
+     * @param openGlTdepth the depth camera transform at the cloud's timestamp, or null if unknown.
+     */
+    public void add(TangoPointCloudData source, float[] openGlTdepth) {
+        Entry entry;
+        synchronized (this) {
+            entry = oldestFreeEntry();
+            if (entry == null) {
+                Timber.w("Point cloud history full of acquired entries, dropping %.3f", source.timestamp);
+                return;
+            }
+            // Held as a reference while writing, so no other writer picks it.
+            entry.readable = false;
+            entry.references++;
+        }
+
+        // Copied outside the lock, readers can't acquire the entry meanwhile.
+        TangoPointCloudData target = entry.pointCloud;
+        int floatCount = source.numPoints * FLOATS_PER_POINT;
+        if (target.points == null || target.points.capacity() < floatCount) {
+            target.points = ByteBuffer.allocateDirect(floatCount * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        // Duplicate, the source's position and limit belong to the other subscribers.
+        FloatBuffer view = source.points.duplicate();
+        view.position(0).limit(floatCount);
+        target.points.clear();
+        target.points.put(view);
+        target.points.flip();
+        target.numPoints = source.numPoints;
+        target.timestamp = source.timestamp;
+
+        entry.transformValid = openGlTdepth != null;
+        if (openGlTdepth != null) {
+            System.arraycopy(openGlTdepth, 0, entry.openGlTdepth, 0, 16);
+        }
+
+        synchronized (this) {
+            entry.sequence = ++sequence;
+            entry.readable = true;
+            entry.references--;
+        }
+    }
+
+    /**
+     * Acquires the recorded frame closest in time to {@code timestamp}, which stays untouched
+     * until released.
+     *
+     * @return null if the history is empty.
+     */
+    public synchronized Entry acquireNearest(double timestamp) {
+        Entry nearest = findNearest(timestamp);
+        if (nearest != null) {
+            nearest.references++;
+        }
+        return nearest;
+    }
+
+    /**
+     * Acquires the recorded frame with exactly this timestamp, e.g. one picked earlier with
+     * {@link #getNearestTimestamp}, which stays untouched until released.
+     *
+     * @return null if that frame was evicted meanwhile.
+     */
+    public synchronized Entry acquire(double timestamp) {
+        for (Entry entry : entries) {
+            if (entry.readable && entry.pointCloud.timestamp == timestamp) {
+                entry.references++;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void release(Entry entry) {
+        entry.references--;
+    }
+
+    /**
+     * Timestamp of the frame {@link #acquireNearest} would currently return, or NaN if empty.
+     */
+    public synchronized double getNearestTimestamp(double timestamp) {
+        Entry nearest = findNearest(timestamp);
+        return nearest == null ? Double.NaN : nearest.pointCloud.timestamp;
+    }
+
+    private Entry findNearest(double timestamp) {
+        Entry nearest = null;
+        double nearestDelta = Double.MAX_VALUE;
+        for (Entry entry : entries) {
+            if (!entry.readable) {
+                continue;
+            }
+            double delta = Math.abs(entry.pointCloud.timestamp - timestamp);
+            if (delta < nearestDelta) {
+                nearest = entry;
+                nearestDelta = delta;
+            }
+        }
+        return nearest;
+    }
+
+    private Entry oldestFreeEntry() {
+        Entry oldest = null;
+        for (Entry entry : entries) {
+            if (entry.references > 0) {
+                continue;
+            }
+            if (!entry.readable) {
+                // Never filled, or cleared.
+                return entry;
+            }
+            if (oldest == null || entry.sequence < oldest.sequence) {
+                oldest = entry;
+            }
+        }
+        return oldest;
+    }
+}
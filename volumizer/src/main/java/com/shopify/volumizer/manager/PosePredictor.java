@@ -0,0 +1,150 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.PoseMath;
+
+/**
+ * Extrapolates device poses past the latest one Tango delivered, from linear and angular
+ * velocities estimated on the pose stream.
+ * <p>
+ * Velocities are finite differences of consecutive poses, low-pass filtered with a time constant
+ * so sensor jitter doesn't turn into jumps, and treated as zero below a dead band so a device
+ * held still stays still. Extrapolation is capped, past the cap the pose just holds.
+ * <p>
+ * Fed from the Tango callback thread, queried from the OpenGL thread, never allocates.
+ */
+public class PosePredictor {
+
+    // Velocity low-pass time constant, a few pose periods at 100Hz.
+    private static final double SMOOTHING_SECONDS = 0.03;
+    // Gaps longer than this (tracking lost, paused replay) restart the velocity estimate.
+    private static final double MAX_SAMPLE_GAP_SECONDS = 0.25;
+    // Slower than this is hand tremor or noise, in m/s and rad/s.
+    private static final double LINEAR_DEAD_BAND = 0.01;
+    private static final double ANGULAR_DEAD_BAND = 0.02;
+
+    private final double maxPredictionSeconds;
+
+    private final double[] translation = new double[3];
+    private final double[] rotation = new double[4];
+    private final double[] linearVelocity = new double[3];
+    private final double[] angularVelocity = new double[3];
+    private final double[] delta = new double[3];
+    private final double[] step = new double[3];
+    private double timestamp;
+    private boolean hasPose;
+    private boolean hasVelocity;
+    private long predictionCount;
+
+    /**
+     * @param maxPredictionSeconds furthest extrapolation past the latest pose.
+     */
+    public PosePredictor(double maxPredictionSeconds) {
+        this.maxPredictionSeconds = maxPredictionSeconds;
+    }
+
+    /**
+     * Updates the velocity estimates, ignoring invalid poses and samples that are not newer than
+     * the latest one.
+     */
+    public void add(TangoPoseData pose) {
+        if (pose.statusCode != TangoPoseData.POSE_VALID) {
+            return;
+        }
+        add(pose.timestamp, pose.translation, pose.rotation);
+    }
+
+    public synchronized void add(double poseTimestamp, double[] poseTranslation, double[] poseRotation) {
+        double dt = poseTimestamp - timestamp;
+        if (hasPose && dt <= 0) {
+            return;
+        }
+
+        if (hasPose && dt <= MAX_SAMPLE_GAP_SECONDS) {
+            double alpha = 1 - Math.exp(-dt / SMOOTHING_SECONDS);
+            for (int i = 0; i < 3; i++) {
+                delta[i] = (poseTranslation[i] - translation[i]) / dt;
+            }
+            filter(linearVelocity, delta, hasVelocity ? alpha : 1);
+
+            PoseMath.rotationVectorBetween(rotation, 0, poseRotation, 0, delta, 0);
+            for (int i = 0; i < 3; i++) {
+                delta[i] /= dt;
+            }
+            filter(angularVelocity, delta, hasVelocity ? alpha : 1);
+            hasVelocity = true;
+        } else {
+            hasVelocity = false;
+        }
+
+        timestamp = poseTimestamp;
+        System.arraycopy(poseTranslation, 0, translation, 0, 3);
+        System.arraycopy(poseRotation, 0, rotation, 0, 4);
+        hasPose = true;
+    }
+
+    private static void filter(double[] estimate, double[] sample, double alpha) {
+        for (int i = 0; i < 3; i++) {
+            estimate[i] += (sample[i] - estimate[i]) * alpha;
+        }
+    }
+
+    /**
+     * Extrapolates the pose at {@code predictionTimestamp} into the provided output arrays.
+     *
+     * @return false if there's no pose yet, or the timestamp isn't past the latest pose, in which
+     * case the output arrays are left untouched. Use {@link PoseRingBuffer} for those.
+     */
+    public synchronized boolean predict(double predictionTimestamp,
+                                        double[] outTranslation, double[] outRotation) {
+        if (!hasPose || predictionTimestamp <= timestamp) {
+            return false;
+        }
+
+        predictionCount++;
+        double dt = Math.min(predictionTimestamp - timestamp, maxPredictionSeconds);
+        System.arraycopy(translation, 0, outTranslation, 0, 3);
+        System.arraycopy(rotation, 0, outRotation, 0, 4);
+        if (!hasVelocity) {
+            return true;
+        }
+
+        if (norm(linearVelocity) > LINEAR_DEAD_BAND) {
+            for (int i = 0; i < 3; i++) {
+                outTranslation[i] += linearVelocity[i] * dt;
+            }
+        }
+        if (norm(angularVelocity) > ANGULAR_DEAD_BAND) {
+            for (int i = 0; i < 3; i++) {
+                step[i] = angularVelocity[i] * dt;
+            }
+            PoseMath.rotateByVector(step, 0, outRotation, 0, outRotation, 0);
+        }
+        return true;
+    }
+
+    private static double norm(double[] v) {
+        return Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    /**
+     * @return the timestamp of the most recent pose, or 0 if there's none.
+     */
+    public synchronized double getLatestTimestamp() {
+        return hasPose ? timestamp : 0;
+    }
+
+    /**
+     * @return successful {@link #predict} calls since the last {@link #clear()}.
+     */
+    public synchronized long getPredictionCount() {
+        return predictionCount;
+    }
+
+    public synchronized void clear() {
+        hasPose = false;
+        hasVelocity = false;
+        timestamp = 0;
+        predictionCount = 0;
+    }
+}
@@ -0,0 +1,114 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.PoseMath;
+
+/**
+ * Fixed-capacity history of poses for a single coordinate frame pair, backed by parallel
+ * primitive arrays so that recording and querying never allocate.
+ * <p>
+ * Written from the Tango callback thread, read from the OpenGL thread. Pose-at-time queries
+ * binary search the history and interpolate between the two bracketing samples (lerp for
+ * translation, slerp for rotation), which replaces a {@code TangoSupport.getPoseAtTime} JNI
+ * round-trip for timestamps the history already covers.
+ */
+public class PoseRingBuffer {
+
+    private final int capacity;
+    private final double[] timestamps;
+    private final double[] translations;
+    private final double[] rotations;
+
+    // Physical index of the next write, and count of valid entries.
+    private int head;
+    private int size;
+
+    public PoseRingBuffer(int capacity) {
+        this.capacity = capacity;
+        timestamps = new double[capacity];
+        translations = new double[capacity * 3];
+        rotations = new double[capacity * 4];
+    }
+
+    /**
+     * Records a pose, ignoring invalid poses and samples that are not newer than the latest one.
+     */
+    public void add(TangoPoseData pose) {
+        if (pose.statusCode != TangoPoseData.POSE_VALID) {
+            return;
+        }
+        add(pose.timestamp, pose.translation, pose.rotation);
+    }
+
+    public synchronized void add(double timestamp, double[] translation, double[] rotation) {
+        if (size > 0 && timestamp <= timestamps[physicalIndex(size - 1)]) {
+            return;
+        }
+
+        timestamps[head] = timestamp;
+        System.arraycopy(translation, 0, translations, head * 3, 3);
+        System.arraycopy(rotation, 0, rotations, head * 4, 4);
+
+        head = (head + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    /**
+     * Interpolates the pose at {@code timestamp} into the provided output arrays.
+     *
+     * @return false if the timestamp falls outside of the recorded history, in which case the
+     * output arrays are left untouched.
+     */
+    public synchronized boolean getPoseAtTime(double timestamp,
+                                              double[] outTranslation, double[] outRotation) {
+        if (size == 0
+                || timestamp < timestamps[physicalIndex(0)]
+                || timestamp > timestamps[physicalIndex(size - 1)]) {
+            return false;
+        }
+
+        // Find the last sample at or before the requested timestamp.
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (timestamps[physicalIndex(mid)] <= timestamp) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int before = physicalIndex(low);
+        if (low == size - 1 || timestamps[before] == timestamp) {
+            System.arraycopy(translations, before * 3, outTranslation, 0, 3);
+            System.arraycopy(rotations, before * 4, outRotation, 0, 4);
+            return true;
+        }
+
+        int after = physicalIndex(low + 1);
+        double alpha = (timestamp - timestamps[before]) / (timestamps[after] - timestamps[before]);
+        PoseMath.lerp(translations, before * 3, translations, after * 3, alpha, outTranslation, 0);
+        PoseMath.slerp(rotations, before * 4, rotations, after * 4, alpha, outRotation, 0);
+        return true;
+    }
+
+    /**
+     * @return the timestamp of the most recent pose, or 0 if the history is empty.
+     */
+    public synchronized double getLatestTimestamp() {
+        return size == 0 ? 0 : timestamps[physicalIndex(size - 1)];
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    // Maps a logical index (0 = oldest) to its slot in the backing arrays.
+    private int physicalIndex(int logicalIndex) {
+        return (head - size + logicalIndex + capacity) % capacity;
+    }
+}
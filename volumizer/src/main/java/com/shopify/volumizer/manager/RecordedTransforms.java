@@ -0,0 +1,107 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.PoseMath;
+import com.kanawish.raja.raja.TransformKernel;
+
+/**
+ * Answers {@link TransformCache} queries from the pose history and the camera calibration, for
+ * replays where there's no TangoSupport to ask. Only transforms between the start of service,
+ * device, color camera and depth camera frames, in the Tango engine, are known.
+ */
+class RecordedTransforms {
+
+    private static final int[] FRAMES = {
+            TangoPoseData.COORDINATE_FRAME_DEVICE,
+            TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR,
+            TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH
+    };
+
+    private final PoseRingBuffer poseHistory;
+    // Device from frame, for each of FRAMES.
+    private final double[][] deviceTFrameTranslations = new double[FRAMES.length][3];
+    private final double[][] deviceTFrameRotations = new double[FRAMES.length][4];
+
+    // *** Scratch, guarded by this ***
+    private final double[] translation = new double[3];
+    private final double[] rotation = new double[4];
+    private final double[] otherTranslation = new double[3];
+    private final double[] otherRotation = new double[4];
+
+    RecordedTransforms(PoseRingBuffer poseHistory, CameraCalibration calibration) {
+        this.poseHistory = poseHistory;
+
+        double[] deviceTImuTranslation = new double[3];
+        double[] deviceTImuRotation = new double[4];
+        PoseMath.invert(calibration.imuTDevice.translation, calibration.imuTDevice.rotation,
+                deviceTImuTranslation, deviceTImuRotation);
+        TangoPoseData[] imuTFrames = {
+                calibration.imuTDevice, calibration.imuTColorCamera, calibration.imuTDepthCamera};
+        for (int i = 0; i < FRAMES.length; i++) {
+            PoseMath.compose(deviceTImuTranslation, deviceTImuRotation,
+                    imuTFrames[i].translation, imuTFrames[i].rotation,
+                    deviceTFrameTranslations[i], deviceTFrameRotations[i]);
+        }
+    }
+
+    /**
+     * Start of service from {@code targetFrame} transform, column-major.
+     *
+     * @return false if the frames are unknown or the history doesn't cover the timestamp.
+     */
+    synchronized boolean getMatrixTransformAtTime(double timestamp, int baseFrame, int targetFrame,
+                                                  float[] out) {
+        if (baseFrame != TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE
+                || !getStartServiceTFrame(timestamp, targetFrame, translation, rotation)) {
+            return false;
+        }
+        TransformKernel.fromPose(translation, 0, rotation, 0, out, 0);
+        return true;
+    }
+
+    /**
+     * {@code baseFrame} at {@code baseTimestamp} from {@code targetFrame} at
+     * {@code targetTimestamp}, like {@code TangoSupport.calculateRelativePose}.
+     *
+     * @return a new pose, invalid if either frame is unknown or not covered by the history.
+     */
+    synchronized TangoPoseData calculateRelativePose(double baseTimestamp, int baseFrame,
+                                                     double targetTimestamp, int targetFrame) {
+        TangoPoseData pose = new TangoPoseData();
+        pose.timestamp = targetTimestamp;
+        pose.baseFrame = baseFrame;
+        pose.targetFrame = targetFrame;
+        pose.statusCode = TangoPoseData.POSE_INVALID;
+        if (!getStartServiceTFrame(baseTimestamp, baseFrame, otherTranslation, otherRotation)
+                || !getStartServiceTFrame(targetTimestamp, targetFrame, translation, rotation)) {
+            return pose;
+        }
+
+        PoseMath.invert(otherTranslation, otherRotation, otherTranslation, otherRotation);
+        PoseMath.compose(otherTranslation, otherRotation, translation, rotation,
+                pose.translation, pose.rotation);
+        pose.statusCode = TangoPoseData.POSE_VALID;
+        return pose;
+    }
+
+    private boolean getStartServiceTFrame(double timestamp, int frame,
+                                          double[] outTranslation, double[] outRotation) {
+        int index = indexOf(frame);
+        if (index < 0 || !poseHistory.getPoseAtTime(timestamp, outTranslation, outRotation)) {
+            return false;
+        }
+        PoseMath.compose(outTranslation, outRotation,
+                deviceTFrameTranslations[index], deviceTFrameRotations[index],
+                outTranslation, outRotation);
+        return true;
+    }
+
+    private static int indexOf(int frame) {
+        for (int i = 0; i < FRAMES.length; i++) {
+            if (FRAMES[i] == frame) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
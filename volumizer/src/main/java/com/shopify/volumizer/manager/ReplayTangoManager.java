@@ -0,0 +1,193 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import timber.log.Timber;
+
+/**
+ * {@link TangoManager} that plays back a session recorded by {@link SessionRecorder} instead of
+ * talking to the Tango service, emitting on the same typed streams and pose history.
+ * <p>
+ * Records are emitted from a dedicated replay thread, paced on their original receive times
+ * divided by the playback speed. The ready handler runs on the given scheduler, e.g. the main
+ * thread like with the live service, and the replay only starts once it returned, so it sees every
+ * record. Nothing else here touches the Android framework, so it can drive rendering,
+ * cloud fusion and pose handling on a machine without Tango hardware. Plane fitting still needs
+ * the service.
+ * <p>
+ * There's no service to query during replay, {@link #getCameraCalibration()} is read back from
+ * the session's calibration record, which version 1 sessions don't have.
+ */
+public class ReplayTangoManager extends TangoManager {
+
+    private final File sessionFile;
+    private final double speed;
+    private final Scheduler readyScheduler;
+
+    private Thread replayThread;
+    private Disposable readyDisposable;
+    private volatile CameraCalibration cameraCalibration;
+
+    /**
+     * @param speed          playback rate relative to the recording, e.g. 2 plays twice as fast.
+     *                       Zero or less replays as fast as the subscribers allow.
+     * @param readyScheduler where the ready handler passed to {@link #startTango} runs.
+     */
+    public ReplayTangoManager(File sessionFile, double speed, Scheduler readyScheduler) {
+        this.sessionFile = sessionFile;
+        this.speed = speed;
+        this.readyScheduler = readyScheduler;
+    }
+
+    /**
+     * Reads the session's calibration, then starts the replay. There is no live service during
+     * replay, so {@code tangoReadyHandler} receives null.
+     */
+    @Override
+    public void startTango(Consumer<Tango> tangoReadyHandler) {
+        getPoseHistory().clear();
+        getPosePredictor().clear();
+        getPoseTelemetry().clear();
+        getFrameTimings().reset();
+
+        try (SessionReader reader = new SessionReader(sessionFile)) {
+            cameraCalibration = readCalibration(reader);
+        } catch (IOException e) {
+            Timber.e(e, "Can't replay %s", sessionFile);
+            return;
+        }
+        if (cameraCalibration == null) {
+            Timber.e("Can't replay %s, it has no calibration record", sessionFile);
+            return;
+        }
+
+        readyDisposable = readyScheduler.scheduleDirect(() -> {
+            try {
+                tangoReadyHandler.accept(null);
+            } catch (Exception e) {
+                Timber.e(e, "Replay ready handler failed");
+                return;
+            }
+            replayThread = new Thread(this::replay, "SessionReplay");
+            replayThread.start();
+        });
+    }
+
+    @Override
+    public void stopTango() {
+        Timber.d("replayTangoManager.stopTango()");
+        if (readyDisposable != null) {
+            readyDisposable.dispose();
+            readyDisposable = null;
+        }
+        if (replayThread != null) {
+            replayThread.interrupt();
+            replayThread = null;
+        }
+    }
+
+    @Override
+    public boolean hasTangoService() {
+        return false;
+    }
+
+    @Override
+    public CameraCalibration getCameraCalibration() {
+        return cameraCalibration;
+    }
+
+    private static CameraCalibration readCalibration(SessionReader reader) {
+        if (!reader.next() || reader.type != SessionFormat.RECORD_CALIBRATION) {
+            return null;
+        }
+        TangoCameraIntrinsics intrinsics = new TangoCameraIntrinsics();
+        intrinsics.cameraId = TangoCameraIntrinsics.TANGO_CAMERA_COLOR;
+        intrinsics.width = reader.colorWidth;
+        intrinsics.height = reader.colorHeight;
+        intrinsics.fx = reader.colorIntrinsics[0];
+        intrinsics.fy = reader.colorIntrinsics[1];
+        intrinsics.cx = reader.colorIntrinsics[2];
+        intrinsics.cy = reader.colorIntrinsics[3];
+        return new CameraCalibration(
+                calibrationPose(reader, 0, TangoPoseData.COORDINATE_FRAME_DEVICE),
+                calibrationPose(reader, 1, TangoPoseData.COORDINATE_FRAME_CAMERA_COLOR),
+                calibrationPose(reader, 2, TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH),
+                intrinsics);
+    }
+
+    private static TangoPoseData calibrationPose(SessionReader reader, int index, int targetFrame) {
+        TangoPoseData pose = new TangoPoseData();
+        pose.baseFrame = TangoPoseData.COORDINATE_FRAME_IMU;
+        pose.targetFrame = targetFrame;
+        pose.statusCode = TangoPoseData.POSE_VALID;
+        System.arraycopy(reader.imuTFrameTranslations, index * 3, pose.translation, 0, 3);
+        System.arraycopy(reader.imuTFrameRotations, index * 4, pose.rotation, 0, 4);
+        return pose;
+    }
+
+    private void replay() {
+        int recordCount = 0;
+        try (SessionReader reader = new SessionReader(sessionFile)) {
+            long startNanos = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted() && reader.next()) {
+                if (speed > 0) {
+                    long waitNanos = startNanos + (long) (reader.receiveNanos / speed) - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                dispatchRecord(reader);
+                recordCount++;
+            }
+            Timber.i("Replayed %d records from %s", recordCount, sessionFile);
+        } catch (InterruptedException e) {
+            Timber.i("Replay of %s stopped after %d records", sessionFile, recordCount);
+        } catch (Exception e) {
+            Timber.e(e, "Replay of %s failed after %d records", sessionFile, recordCount);
+        }
+    }
+
+    private void dispatchRecord(SessionReader reader) {
+        switch (reader.type) {
+            case SessionFormat.RECORD_POSE:
+                TangoPoseData pose = new TangoPoseData();
+                pose.timestamp = reader.timestamp;
+                pose.baseFrame = reader.baseFrame;
+                pose.targetFrame = reader.targetFrame;
+                pose.statusCode = reader.statusCode;
+                pose.translation = reader.translation.clone();
+                pose.rotation = reader.rotation.clone();
+                dispatchPose(pose);
+                break;
+            case SessionFormat.RECORD_POINT_CLOUD:
+                TangoPointCloudData pointCloud = new TangoPointCloudData();
+                pointCloud.timestamp = reader.timestamp;
+                pointCloud.numPoints = reader.numPoints;
+                pointCloud.points = reader.points;
+                dispatchPointCloud(pointCloud);
+                break;
+            case SessionFormat.RECORD_FRAME:
+                dispatchFrame(reader.cameraId);
+                break;
+            case SessionFormat.RECORD_EVENT:
+                TangoEvent event = new TangoEvent();
+                event.timestamp = reader.timestamp;
+                event.eventType = reader.eventType;
+                event.eventKey = reader.eventKey;
+                event.eventValue = reader.eventValue;
+                dispatchTangoEvent(event);
+                break;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.shopify.volumizer.manager;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the append-only binary session files written by {@link SessionRecorder} and read
+ * back by {@link SessionReader}.
+ * <p>
+ * A file is a header ({@code int} magic, {@code int} version) followed by records. Every record
+ * starts with a {@code byte} type and a {@code long} receive time in nanoseconds since the start
+ * of the recording, which is what replay is paced against. Payloads are:
+ * <ul>
+ * <li>{@link #RECORD_POSE}: {@code double} timestamp, {@code int} base frame, {@code int} target
+ * frame, {@code int} status code, 3 {@code double} translation, 4 {@code double} rotation.</li>
+ * <li>{@link #RECORD_POINT_CLOUD}: {@code double} timestamp, {@code int} point count, then
+ * 4 {@code float} (x, y, z, confidence) per point.</li>
+ * <li>{@link #RECORD_FRAME}: {@code int} camera id.</li>
+ * <li>{@link #RECORD_EVENT}: {@code double} timestamp, {@code int} event type, then key and
+ * value as {@code short}-length-prefixed UTF-8.</li>
+ * <li>{@link #RECORD_CALIBRATION}: device, color camera and depth camera poses relative to the
+ * IMU, each as 3 {@code double} translation and 4 {@code double} rotation, then the color
+ * camera's {@code int} width, {@code int} height and {@code double} fx, fy, cx, cy. Written
+ * once, as the first record.</li>
+ * </ul>
+ * Version 1 files have no calibration record.
+ */
+public final class SessionFormat {
+
+    public static final int MAGIC = 0x54534553; // "TSES"
+    public static final int VERSION = 2;
+    public static final int MIN_VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+
+    // Tango devices and the Linux boxes we replay on are both little endian.
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final byte RECORD_POSE = 1;
+    public static final byte RECORD_POINT_CLOUD = 2;
+    public static final byte RECORD_FRAME = 3;
+    public static final byte RECORD_EVENT = 4;
+    public static final byte RECORD_CALIBRATION = 5;
+
+    // type + receive time
+    public static final int RECORD_HEADER_SIZE = 1 + 8;
+    public static final int POSE_PAYLOAD_SIZE = 8 + 3 * 4 + 3 * 8 + 4 * 8;
+    public static final int FRAME_PAYLOAD_SIZE = 4;
+    public static final int CALIBRATION_PAYLOAD_SIZE = 3 * (3 * 8 + 4 * 8) + 2 * 4 + 4 * 8;
+    public static final int FLOATS_PER_POINT = 4;
+
+    private SessionFormat() {
+    }
+}
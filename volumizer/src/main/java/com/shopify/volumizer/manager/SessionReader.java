@@ -0,0 +1,166 @@
+package com.shopify.volumizer.manager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Cursor over a memory-mapped {@link SessionFormat} file.
+ * <p>
+ * Deliberately free of Tango and Android types so it can also be used from plain JVM tooling.
+ * Each call to {@link #next()} decodes one record into the public fields below; only the fields
+ * relevant to the current {@link #type} are meaningful. Point cloud data isn't copied,
+ * {@link #points} is a view into the mapped file.
+ */
+public class SessionReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+
+    // *** Current record ***
+    public byte type;
+    public long receiveNanos;
+    public double timestamp;
+
+    public int baseFrame;
+    public int targetFrame;
+    public int statusCode;
+    public final double[] translation = new double[3];
+    public final double[] rotation = new double[4];
+
+    public int numPoints;
+    public FloatBuffer points;
+
+    public int cameraId;
+
+    public int eventType;
+    public String eventKey;
+    public String eventValue;
+
+    // Device, color camera and depth camera, relative to the IMU, in that order.
+    public final double[] imuTFrameTranslations = new double[3 * 3];
+    public final double[] imuTFrameRotations = new double[3 * 4];
+    public int colorWidth;
+    public int colorHeight;
+    // fx, fy, cx, cy
+    public final double[] colorIntrinsics = new double[4];
+
+    public SessionReader(File sessionFile) throws IOException {
+        file = new RandomAccessFile(sessionFile, "r");
+        FileChannel channel = file.getChannel();
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped.order(SessionFormat.BYTE_ORDER);
+
+        if (mapped.remaining() < SessionFormat.HEADER_SIZE
+                || mapped.getInt() != SessionFormat.MAGIC) {
+            close();
+            throw new IOException("Not a session file: " + sessionFile);
+        }
+        int version = mapped.getInt();
+        if (version < SessionFormat.MIN_VERSION || version > SessionFormat.VERSION) {
+            close();
+            throw new IOException("Unsupported session version " + version + ": " + sessionFile);
+        }
+    }
+
+    /**
+     * Decodes the next record.
+     *
+     * @return false once the end of the file, or a truncated trailing record, is reached.
+     */
+    public boolean next() {
+        if (mapped.remaining() < SessionFormat.RECORD_HEADER_SIZE) {
+            return false;
+        }
+        int recordStart = mapped.position();
+        type = mapped.get();
+        receiveNanos = mapped.getLong();
+
+        try {
+            switch (type) {
+                case SessionFormat.RECORD_POSE:
+                    timestamp = mapped.getDouble();
+                    baseFrame = mapped.getInt();
+                    targetFrame = mapped.getInt();
+                    statusCode = mapped.getInt();
+                    for (int i = 0; i < 3; i++) {
+                        translation[i] = mapped.getDouble();
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        rotation[i] = mapped.getDouble();
+                    }
+                    break;
+                case SessionFormat.RECORD_POINT_CLOUD:
+                    timestamp = mapped.getDouble();
+                    numPoints = mapped.getInt();
+                    int byteCount = numPoints * SessionFormat.FLOATS_PER_POINT * 4;
+                    ByteBuffer slice = mapped.slice();
+                    slice.limit(byteCount);
+                    points = slice.order(SessionFormat.BYTE_ORDER).asFloatBuffer();
+                    mapped.position(mapped.position() + byteCount);
+                    break;
+                case SessionFormat.RECORD_FRAME:
+                    cameraId = mapped.getInt();
+                    break;
+                case SessionFormat.RECORD_EVENT:
+                    timestamp = mapped.getDouble();
+                    eventType = mapped.getInt();
+                    eventKey = readString();
+                    eventValue = readString();
+                    break;
+                case SessionFormat.RECORD_CALIBRATION:
+                    for (int frame = 0; frame < 3; frame++) {
+                        for (int i = 0; i < 3; i++) {
+                            imuTFrameTranslations[frame * 3 + i] = mapped.getDouble();
+                        }
+                        for (int i = 0; i < 4; i++) {
+                            imuTFrameRotations[frame * 4 + i] = mapped.getDouble();
+                        }
+                    }
+                    colorWidth = mapped.getInt();
+                    colorHeight = mapped.getInt();
+                    for (int i = 0; i < 4; i++) {
+                        colorIntrinsics[i] = mapped.getDouble();
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type " + type + " at " + recordStart);
+            }
+        } catch (RuntimeException e) {
+            // BufferUnderflow / IllegalArgument, the recording was cut short mid-record.
+            mapped.position(recordStart);
+            if (e instanceof IllegalStateException) {
+                throw e;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rewinds to the first record.
+     */
+    public void rewind() {
+        mapped.position(SessionFormat.HEADER_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private String readString() {
+        int length = mapped.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        mapped.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,262 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.reactivex.disposables.CompositeDisposable;
+import timber.log.Timber;
+
+/**
+ * Records the pose, point cloud, frame and event streams of a {@link TangoManager} into an
+ * append-only {@link SessionFormat} file, for later replay with {@link ReplayTangoManager}.
+ * <p>
+ * Records are encoded on the Tango callback threads, each into its own pooled direct buffer, and
+ * handed to a dedicated writer thread that does the {@link FileChannel} writes. Copying during the
+ * callback means we never hold on to Tango owned buffers, and the callbacks never wait on storage.
+ * If the writer falls too far behind, records are dropped rather than queued without bound.
+ */
+public class SessionRecorder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Enough for poses and events, point clouds get buffers of their own size.
+    private static final int SMALL_BUFFER_SIZE = 4096;
+    // Recycled buffers, enough for the writer to lag a few point clouds behind.
+    private static final int SMALL_POOL_SIZE = 64;
+    private static final int CLOUD_POOL_SIZE = 4;
+    // Past this many bytes waiting for the writer, new records are dropped.
+    private static final long MAX_PENDING_BYTES = 32 * 1024 * 1024;
+    // Queued by stop(), the writer closes the file when it gets to it.
+    private static final ByteBuffer END_OF_SESSION = ByteBuffer.allocate(0);
+
+    private final File file;
+    private final FileChannel channel;
+    private final long startNanos;
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final TangoManager.OnFrameAvailableListener frameListener = this::writeFrame;
+    private final BlockingQueue<ByteBuffer> pending = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ByteBuffer> smallPool = new ArrayBlockingQueue<>(SMALL_POOL_SIZE);
+    private final BlockingQueue<ByteBuffer> cloudPool = new ArrayBlockingQueue<>(CLOUD_POOL_SIZE);
+    private final Thread writerThread;
+
+    private TangoManager tangoManager;
+
+    // *** Guarded by this ***
+    private boolean closed;
+    private long pendingBytes;
+    private long droppedCount;
+
+    public SessionRecorder(File file) throws IOException {
+        this.file = file;
+        channel = new FileOutputStream(file).getChannel();
+        startNanos = System.nanoTime();
+
+        ByteBuffer header = allocate(SessionFormat.HEADER_SIZE);
+        header.putInt(SessionFormat.MAGIC).putInt(SessionFormat.VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+
+        writerThread = new Thread(this::writeLoop, "SessionWriter");
+        writerThread.start();
+    }
+
+    /**
+     * Writes the manager's calibration, then subscribes to all of its streams, until
+     * {@link #stop()} is called.
+     */
+    public void start(TangoManager tangoManager) {
+        this.tangoManager = tangoManager;
+        writeCalibration(tangoManager.getCameraCalibration());
+        disposables.add(tangoManager.getPoseFlowable().subscribe(this::writePose, this::onWriteError));
+        disposables.add(tangoManager.getPointCloudFlowable().subscribe(this::writePointCloud, this::onWriteError));
+        disposables.add(tangoManager.getTangoEventFlowable().subscribe(this::writeEvent, this::onWriteError));
+        tangoManager.addOnFrameAvailableListener(frameListener);
+        Timber.i("Recording session to %s", file);
+    }
+
+    /**
+     * Stops recording. Records already queued are still written, the file is closed by the writer
+     * thread once they are, without blocking the caller.
+     */
+    public void stop() {
+        disposables.dispose();
+        if (tangoManager != null) {
+            tangoManager.removeOnFrameAvailableListener(frameListener);
+        }
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            pending.add(END_OF_SESSION);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void writePose(TangoPoseData pose) {
+        ByteBuffer buffer = beginRecord(SessionFormat.RECORD_POSE, SessionFormat.POSE_PAYLOAD_SIZE);
+        buffer.putDouble(pose.timestamp)
+                .putInt(pose.baseFrame)
+                .putInt(pose.targetFrame)
+                .putInt(pose.statusCode);
+        putPose(buffer, pose);
+        enqueue(buffer);
+    }
+
+    private void writePointCloud(TangoPointCloudData pointCloud) {
+        int floatCount = pointCloud.numPoints * SessionFormat.FLOATS_PER_POINT;
+        ByteBuffer buffer = beginRecord(SessionFormat.RECORD_POINT_CLOUD, 8 + 4 + floatCount * 4);
+        buffer.putDouble(pointCloud.timestamp).putInt(pointCloud.numPoints);
+        // Bulk copy from a duplicate, the cloud's buffer position belongs to other subscribers.
+        FloatBuffer points = (FloatBuffer) pointCloud.points.duplicate().rewind().limit(floatCount);
+        buffer.asFloatBuffer().put(points);
+        buffer.position(buffer.position() + floatCount * 4);
+        enqueue(buffer);
+    }
+
+    private void writeFrame(int cameraId) {
+        ByteBuffer buffer = beginRecord(SessionFormat.RECORD_FRAME, SessionFormat.FRAME_PAYLOAD_SIZE);
+        buffer.putInt(cameraId);
+        enqueue(buffer);
+    }
+
+    private void writeEvent(TangoEvent event) {
+        byte[] key = event.eventKey == null ? new byte[0] : event.eventKey.getBytes(UTF_8);
+        byte[] value = event.eventValue == null ? new byte[0] : event.eventValue.getBytes(UTF_8);
+        ByteBuffer buffer = beginRecord(SessionFormat.RECORD_EVENT, 8 + 4 + 2 + key.length + 2 + value.length);
+        buffer.putDouble(event.timestamp).putInt(event.eventType);
+        buffer.putShort((short) key.length).put(key);
+        buffer.putShort((short) value.length).put(value);
+        enqueue(buffer);
+    }
+
+    private void writeCalibration(CameraCalibration calibration) {
+        ByteBuffer buffer = beginRecord(SessionFormat.RECORD_CALIBRATION, SessionFormat.CALIBRATION_PAYLOAD_SIZE);
+        putPose(buffer, calibration.imuTDevice);
+        putPose(buffer, calibration.imuTColorCamera);
+        putPose(buffer, calibration.imuTDepthCamera);
+        TangoCameraIntrinsics intrinsics = calibration.colorIntrinsics;
+        buffer.putInt(intrinsics.width).putInt(intrinsics.height)
+                .putDouble(intrinsics.fx).putDouble(intrinsics.fy)
+                .putDouble(intrinsics.cx).putDouble(intrinsics.cy);
+        enqueue(buffer);
+    }
+
+    private static void putPose(ByteBuffer buffer, TangoPoseData pose) {
+        for (int i = 0; i < 3; i++) {
+            buffer.putDouble(pose.translation[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            buffer.putDouble(pose.rotation[i]);
+        }
+    }
+
+    /**
+     * @return a cleared buffer from the pools, or a new one if none is large enough, with the
+     * record type written and room left for the receive time, set by {@link #enqueue}.
+     */
+    private ByteBuffer beginRecord(byte type, int payloadSize) {
+        int recordSize = SessionFormat.RECORD_HEADER_SIZE + payloadSize;
+        ByteBuffer buffer = recordSize <= SMALL_BUFFER_SIZE ? smallPool.poll() : cloudPool.poll();
+        if (buffer == null || buffer.capacity() < recordSize) {
+            // Too small pooled clouds are let go, so the pool grows with the clouds.
+            buffer = allocate(Math.max(recordSize, SMALL_BUFFER_SIZE));
+        }
+        buffer.clear();
+        buffer.put(type).putLong(0);
+        return buffer;
+    }
+
+    /**
+     * Stamps the receive time and queues the record, under the lock so records from different
+     * callback threads land in the file in receive time order.
+     */
+    private synchronized void enqueue(ByteBuffer buffer) {
+        if (closed) {
+            recycle(buffer);
+            return;
+        }
+        buffer.flip();
+        if (pendingBytes + buffer.limit() > MAX_PENDING_BYTES) {
+            droppedCount++;
+            recycle(buffer);
+            return;
+        }
+        buffer.putLong(1, System.nanoTime() - startNanos);
+        pendingBytes += buffer.limit();
+        pending.add(buffer);
+    }
+
+    private void writeLoop() {
+        boolean failed = false;
+        try {
+            while (true) {
+                ByteBuffer buffer = pending.take();
+                if (buffer == END_OF_SESSION) {
+                    break;
+                }
+                int size = buffer.limit();
+                if (!failed) {
+                    try {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch (IOException e) {
+                        // Keep draining so the callbacks' queue doesn't grow, nothing more lands.
+                        onWriteError(e);
+                        failed = true;
+                    }
+                }
+                synchronized (this) {
+                    pendingBytes -= size;
+                }
+                recycle(buffer);
+            }
+        } catch (InterruptedException e) {
+            Timber.w("Session writer interrupted, %s is incomplete", file);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Timber.e(e, "Failed to close session file %s", file);
+            }
+        }
+
+        long dropped;
+        synchronized (this) {
+            dropped = droppedCount;
+        }
+        Timber.i("Session recorded to %s, %d bytes, %d records dropped", file, file.length(), dropped);
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        if (buffer.capacity() <= SMALL_BUFFER_SIZE) {
+            smallPool.offer(buffer);
+        } else {
+            cloudPool.offer(buffer);
+        }
+    }
+
+    private void onWriteError(Throwable throwable) {
+        Timber.e(throwable, "Session recording to %s failed", file);
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(SessionFormat.BYTE_ORDER);
+    }
+}
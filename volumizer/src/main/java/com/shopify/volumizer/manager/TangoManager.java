@@ -16,18 +16,25 @@ import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
 import com.projecttango.tangosupport.TangoSupport;
 import com.shopify.volumizer.R;
+import com.shopify.volumizer.telemetry.FrameTimings;
+import com.shopify.volumizer.telemetry.PoseTelemetry;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import io.reactivex.Observable;
+import io.reactivex.Flowable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
 import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 import timber.log.Timber;
@@ -38,6 +45,13 @@ import timber.log.Timber;
 @Singleton
 public class TangoManager {
 
+    /**
+     * Non-boxing alternative to {@link #getFrameFlowable()}, called directly on the Tango thread.
+     */
+    public interface OnFrameAvailableListener {
+        void onFrameAvailable(int cameraId);
+    }
+
     @Inject Application appContext ;
 
     // TODO: This might be a clever thing, or a very bad idea. Ask someone to review.
@@ -46,10 +60,30 @@ public class TangoManager {
     // Tango `connect()` can't run off of main thread,
     private PublishSubject<Action> internalActionQueue = PublishSubject.create();
 
+    // Number of device poses kept for in-process pose-at-time lookups, ~2.5s at 100Hz.
+    private static final int POSE_HISTORY_CAPACITY = 256;
+    // Furthest device poses are extrapolated past the latest one, a few color frames.
+    private static final double MAX_POSE_PREDICTION_SECONDS = 0.1;
+    // Pose snapshots for telemetry overlays, matches the 10Hz overlay refresh.
+    private static final long POSE_TELEMETRY_INTERVAL_MS = 100;
+
     // *** Tango Service State ***
     private Tango tango;
+    private volatile CameraCalibration cameraCalibration;
+
+    private final PoseRingBuffer poseHistory = new PoseRingBuffer(POSE_HISTORY_CAPACITY);
+    private final PosePredictor posePredictor = new PosePredictor(MAX_POSE_PREDICTION_SECONDS);
+    private final PoseTelemetry poseTelemetry = new PoseTelemetry(POSE_TELEMETRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    private final FrameTimings frameTimings = new FrameTimings();
+
+    // One processor per event type, so subscribers never have to filter a shared stream.
+    private final FlowableProcessor<TangoPoseData> poseProcessor = PublishProcessor.<TangoPoseData>create().toSerialized();
+    private final FlowableProcessor<TangoXyzIjData> xyzIjProcessor = PublishProcessor.<TangoXyzIjData>create().toSerialized();
+    private final FlowableProcessor<Integer> frameProcessor = PublishProcessor.<Integer>create().toSerialized();
+    private final FlowableProcessor<TangoEvent> tangoEventProcessor = PublishProcessor.<TangoEvent>create().toSerialized();
+    private final FlowableProcessor<TangoPointCloudData> pointCloudProcessor = PublishProcessor.<TangoPointCloudData>create().toSerialized();
+    private final List<OnFrameAvailableListener> frameListeners = new CopyOnWriteArrayList<>();
 
-    private Observable<Object> sharedObservable;
     private Disposable disposableMain;
     private Disposable disposableInternal;
 
@@ -66,6 +100,10 @@ public class TangoManager {
      */
     @MainThread
     public void startTango(Consumer<Tango> tangoReadyHandler) {
+        poseHistory.clear();
+        posePredictor.clear();
+        poseTelemetry.clear();
+        frameTimings.reset();
 
         // Creates a main-thread job queue.
         disposableMain = mainThreadActionQueue
@@ -94,7 +132,9 @@ public class TangoManager {
                     framePairs.add(new TangoCoordinateFramePair(
                             TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
                             TangoPoseData.COORDINATE_FRAME_DEVICE));
-                    sharedObservable = buildSourceSharedObservable(tango, framePairs);
+                    tango.connectListener(framePairs, new TangoUpdateDispatcher());
+
+                    cameraCalibration = CameraCalibration.query(tango);
 
                 } catch (TangoOutOfDateException e) {
                     Timber.e(e, appContext.getString(R.string.exception_out_of_date));
@@ -148,42 +188,70 @@ public class TangoManager {
         return config;
     }
 
-    private static Observable<Object> buildSourceSharedObservable(Tango tango, ArrayList<TangoCoordinateFramePair> framePairs) {
-        return Observable
-                .create(e -> {
-                    Tango.OnTangoUpdateListener updateListener = new Tango.OnTangoUpdateListener() {
-                        @Override
-                        public void onPoseAvailable(TangoPoseData tangoPoseData) {
-                            Timber.i(buildPoseLogMessage(tangoPoseData));
-                            e.onNext(tangoPoseData);
-                        }
-
-                        @Override
-                        public void onXyzIjAvailable(TangoXyzIjData tangoXyzIjData) {
-                            e.onNext(tangoXyzIjData);
-                        }
-
-                        @Override
-                        public void onFrameAvailable(int i) {
-                            e.onNext(i);
-                        }
-
-                        @Override
-                        public void onTangoEvent(TangoEvent tangoEvent) {
-                            e.onNext(tangoEvent);
-                        }
-
-                        @Override
-                        public void onPointCloudAvailable(TangoPointCloudData tangoPointCloudData) {
-                            e.onNext(tangoPointCloudData);
-                        }
-                    };
-
-                    tango.connectListener(framePairs, updateListener);
-
-                    e.setCancellable(() -> tango.connectListener(null, null));
-                })
-                .share();
+    /**
+     * Forwards the Tango callbacks to the dispatch methods below.
+     */
+    private class TangoUpdateDispatcher implements Tango.OnTangoUpdateListener {
+        @Override
+        public void onPoseAvailable(TangoPoseData tangoPoseData) {
+            dispatchPose(tangoPoseData);
+        }
+
+        @Override
+        public void onXyzIjAvailable(TangoXyzIjData tangoXyzIjData) {
+            dispatchXyzIj(tangoXyzIjData);
+        }
+
+        @Override
+        public void onFrameAvailable(int cameraId) {
+            dispatchFrame(cameraId);
+        }
+
+        @Override
+        public void onTangoEvent(TangoEvent tangoEvent) {
+            dispatchTangoEvent(tangoEvent);
+        }
+
+        @Override
+        public void onPointCloudAvailable(TangoPointCloudData tangoPointCloudData) {
+            dispatchPointCloud(tangoPointCloudData);
+        }
+    }
+
+    // *** Dispatch, shared by the live Tango listener and session replay ***
+
+    protected void dispatchPose(TangoPoseData tangoPoseData) {
+        poseTelemetry.onPose(tangoPoseData);
+        // Recorded straight from the callback, ahead of any Rx operators.
+        poseHistory.add(tangoPoseData);
+        posePredictor.add(tangoPoseData);
+        poseProcessor.onNext(tangoPoseData);
+    }
+
+    protected void dispatchXyzIj(TangoXyzIjData tangoXyzIjData) {
+        xyzIjProcessor.onNext(tangoXyzIjData);
+    }
+
+    protected void dispatchFrame(int cameraId) {
+        if (cameraId == TangoCameraIntrinsics.TANGO_CAMERA_COLOR) {
+            frameTimings.onFrameAvailable();
+        }
+        // Indexed loop, CopyOnWriteArrayList.get() doesn't allocate an iterator.
+        for (int i = 0; i < frameListeners.size(); i++) {
+            frameListeners.get(i).onFrameAvailable(cameraId);
+        }
+        // Only box when someone is actually listening on the Rx side.
+        if (frameProcessor.hasSubscribers()) {
+            frameProcessor.onNext(cameraId);
+        }
+    }
+
+    protected void dispatchTangoEvent(TangoEvent tangoEvent) {
+        tangoEventProcessor.onNext(tangoEvent);
+    }
+
+    protected void dispatchPointCloud(TangoPointCloudData tangoPointCloudData) {
+        pointCloudProcessor.onNext(tangoPointCloudData);
     }
 
     @MainThread
@@ -203,24 +271,89 @@ public class TangoManager {
         });
     }
 
-    public Observable<TangoPoseData> getPoseObservable() {
-        return sharedObservable.ofType(TangoPoseData.class);
+    /**
+     * @return false when the streams don't come from a live service, e.g. replays, so there's no
+     * {@link Tango} or TangoSupport to query.
+     */
+    public boolean hasTangoService() {
+        return true;
+    }
+
+    /**
+     * Extrinsics and color intrinsics of the current connection, available once the ready handler
+     * passed to {@link #startTango} was called.
+     */
+    public CameraCalibration getCameraCalibration() {
+        return cameraCalibration;
     }
 
-    public Observable<TangoXyzIjData> getXyzIjObservable() {
-        return sharedObservable.ofType(TangoXyzIjData.class);
+    /**
+     * Start of service to device poses, recorded as they come in from the Tango callback.
+     */
+    public PoseRingBuffer getPoseHistory() {
+        return poseHistory;
     }
 
-    public Observable<Integer> getFrameObservable() {
-        return sharedObservable.ofType(Integer.class);
+    /**
+     * Start of service to device poses extrapolated past the latest one, fed by the same callback.
+     */
+    public PosePredictor getPosePredictor() {
+        return posePredictor;
     }
 
-    public Observable<TangoEvent> getTangoEventObservable() {
-        return sharedObservable.ofType(TangoEvent.class);
+    /**
+     * Rate-limited pose snapshots, for display. Nothing is formatted on the pose path.
+     */
+    public PoseTelemetry getPoseTelemetry() {
+        return poseTelemetry;
     }
 
-    public Observable<TangoPointCloudData> getPointCloudData() {
-        return sharedObservable.ofType(TangoPointCloudData.class);
+    /**
+     * Latency histograms along the camera frame pipeline, fed by the frame callback and renderer.
+     */
+    public FrameTimings getFrameTimings() {
+        return frameTimings;
+    }
+
+    /**
+     * Slow subscribers only ever see the most recent pose.
+     */
+    public Flowable<TangoPoseData> getPoseFlowable() {
+        return poseProcessor.onBackpressureLatest();
+    }
+
+    public Flowable<TangoXyzIjData> getXyzIjFlowable() {
+        return xyzIjProcessor.onBackpressureLatest();
+    }
+
+    /**
+     * Frame ids are dropped when the subscriber isn't keeping up, the next frame supersedes them.
+     * Prefer {@link #addOnFrameAvailableListener} on hot paths, it doesn't box.
+     */
+    public Flowable<Integer> getFrameFlowable() {
+        return frameProcessor.onBackpressureDrop();
+    }
+
+    public void addOnFrameAvailableListener(OnFrameAvailableListener listener) {
+        frameListeners.add(listener);
+    }
+
+    public void removeOnFrameAvailableListener(OnFrameAvailableListener listener) {
+        frameListeners.remove(listener);
+    }
+
+    /**
+     * Events are rare and meaningful, so they are buffered rather than dropped.
+     */
+    public Flowable<TangoEvent> getTangoEventFlowable() {
+        return tangoEventProcessor.onBackpressureBuffer();
+    }
+
+    /**
+     * Slow subscribers (plane fitting, etc.) only ever see the most recent cloud, never a backlog.
+     */
+    public Flowable<TangoPointCloudData> getPointCloudFlowable() {
+        return pointCloudProcessor.onBackpressureLatest();
     }
 
     private String loadAdfName(String latestUuid) {
@@ -242,17 +375,5 @@ public class TangoManager {
         tango.saveAreaDescriptionMetadata(uuid, metadata);
     }
 
-    @NonNull
-    public static String buildPoseLogMessage(TangoPoseData pose) {
-        StringBuilder stringBuilder = new StringBuilder();
-        float translation[] = pose.getTranslationAsFloats();
-        float orientation[] = pose.getRotationAsFloats();
-
-        stringBuilder.append(String.format("[%+3.3f,%+3.3f,%+3.3f]\n", translation[0], translation[1], translation[2]));
-        stringBuilder.append(String.format("(%+3.3f,%+3.3f,%+3.3f,%+3.3f)", orientation[0], orientation[1], orientation[2], orientation[3]));
-
-        return stringBuilder.toString();
-    }
-
 
 }
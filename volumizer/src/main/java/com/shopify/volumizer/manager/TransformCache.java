@@ -0,0 +1,337 @@
+package com.shopify.volumizer.manager;
+
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.kanawish.raja.raja.TransformKernel;
+import com.projecttango.tangosupport.TangoSupport;
+
+import javax.inject.Singleton;
+
+import io.reactivex.disposables.Disposable;
+import timber.log.Timber;
+
+import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_OPENGL;
+import static com.projecttango.tangosupport.TangoSupport.TANGO_SUPPORT_ENGINE_TANGO;
+import static com.projecttango.tangosupport.TangoSupport.TangoMatrixTransformData;
+
+/**
+ * Small bounded cache in front of the TangoSupport pose queries, keyed by timestamps, frames and
+ * engines. The render thread, plane fits and point cloud consumers keep asking for transforms at
+ * the same few RGB and depth timestamps; this saves the repeated JNI calls and their result
+ * allocations.
+ * <p>
+ * Only valid results are cached. Poses returned from the cache are shared instances and must not
+ * be modified. Everything is dropped on Tango events that can make past poses jump, like area
+ * learning relocalization, lost tracking or a service fault.
+ * <p>
+ * During replays there's no TangoSupport, start of service to camera transforms are then derived
+ * from the pose history and the recorded calibration instead, see {@link RecordedTransforms}.
+ */
+@Singleton
+public class TransformCache {
+
+    private static final int CAPACITY = 32;
+
+    private static final int KIND_MATRIX = 0;
+    private static final int KIND_RELATIVE_POSE = 1;
+    private static final int KIND_POSE = 2;
+
+    // ScenePoseCalculator.OPENGL_T_TANGO_WORLD, column-major.
+    private static final float[] OPENGL_T_TANGO_WORLD = {
+            1, 0, 0, 0,
+            0, 0, -1, 0,
+            0, 1, 0, 0,
+            0, 0, 0, 1
+    };
+
+    private static class Entry {
+        boolean used;
+        long lastUsed;
+
+        // *** Key ***
+        int kind;
+        double baseTimestamp;
+        double targetTimestamp;
+        int baseFrame;
+        int targetFrame;
+        // Engines for matrices, engine and display rotation for poses.
+        int optionA;
+        int optionB;
+
+        // *** Value ***
+        final float[] matrix = new float[16];
+        TangoPoseData pose;
+
+        boolean matches(int kind, double baseTimestamp, double targetTimestamp,
+                        int baseFrame, int targetFrame, int optionA, int optionB) {
+            return used
+                    && this.kind == kind
+                    && this.baseTimestamp == baseTimestamp
+                    && this.targetTimestamp == targetTimestamp
+                    && this.baseFrame == baseFrame
+                    && this.targetFrame == targetFrame
+                    && this.optionA == optionA
+                    && this.optionB == optionB;
+        }
+    }
+
+    private final Entry[] entries = new Entry[CAPACITY];
+    private long tick;
+    // Bumped on invalidation, so results queried before it are never stored after it.
+    private long generation;
+
+    // *** Metrics ***
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    private Disposable disposable;
+    // Set while replaying.
+    private volatile RecordedTransforms recordedTransforms;
+
+    public TransformCache() {
+        for (int i = 0; i < CAPACITY; i++) {
+            entries[i] = new Entry();
+        }
+    }
+
+    /**
+     * Invalidates the cache on the manager's relocalization and tracking events, until
+     * {@link #stop()}.
+     */
+    public void start(TangoManager tangoManager) {
+        stop();
+        invalidate();
+        recordedTransforms = tangoManager.hasTangoService() ? null
+                : new RecordedTransforms(tangoManager.getPoseHistory(), tangoManager.getCameraCalibration());
+        disposable = tangoManager.getTangoEventFlowable()
+                .filter(TransformCache::isPoseDiscontinuity)
+                .subscribe(event -> {
+                    Timber.d("Transform cache invalidated by %s", event.eventKey);
+                    invalidate();
+                }, throwable -> Timber.e(throwable, "Transform cache event error"));
+    }
+
+    public void stop() {
+        if (disposable != null) {
+            disposable.dispose();
+            disposable = null;
+        }
+    }
+
+    private static boolean isPoseDiscontinuity(TangoEvent event) {
+        switch (event.eventType) {
+            case TangoEvent.EVENT_AREA_LEARNING:
+            case TangoEvent.EVENT_CLOUD_ADF:
+                return true;
+            case TangoEvent.EVENT_FEATURE_TRACKING:
+                return TangoEvent.DESCRIPTION_TOO_FEW_FEATURES_TRACKED.equals(event.eventKey);
+            case TangoEvent.EVENT_GENERAL:
+                return TangoEvent.KEY_SERVICE_EXCEPTION.equals(event.eventKey);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Cached {@link TangoSupport#getMatrixTransformAtTime}.
+     * <p>
+     * An OpenGL world base is only a fixed rotation of the Tango one, so those are cached and
+     * queried with a Tango engine base and converted on the way out. Callers asking for either
+     * engine at the same timestamp share the entry.
+     *
+     * @param out receives the column-major transform when valid.
+     * @return true if the transform is valid.
+     */
+    public boolean getMatrixTransformAtTime(double timestamp, int baseFrame, int targetFrame,
+                                            int baseEngine, int targetEngine, float[] out) {
+        boolean openGlWorld = baseEngine == TANGO_SUPPORT_ENGINE_OPENGL && isWorldFrame(baseFrame);
+        int keyBaseEngine = openGlWorld ? TANGO_SUPPORT_ENGINE_TANGO : baseEngine;
+
+        boolean hit;
+        long queryGeneration;
+        synchronized (this) {
+            Entry entry = find(KIND_MATRIX, timestamp, timestamp, baseFrame, targetFrame, keyBaseEngine, targetEngine);
+            hit = entry != null;
+            if (hit) {
+                System.arraycopy(entry.matrix, 0, out, 0, 16);
+            }
+            queryGeneration = generation;
+        }
+
+        if (!hit) {
+            if (!queryMatrixTransformAtTime(timestamp, baseFrame, targetFrame, keyBaseEngine, targetEngine, out)) {
+                return false;
+            }
+            synchronized (this) {
+                if (queryGeneration == generation) {
+                    Entry entry = store(KIND_MATRIX, timestamp, timestamp, baseFrame, targetFrame, keyBaseEngine, targetEngine);
+                    System.arraycopy(out, 0, entry.matrix, 0, 16);
+                }
+            }
+        }
+
+        if (openGlWorld) {
+            TransformKernel.multiply(OPENGL_T_TANGO_WORLD, 0, out, 0, out, 0);
+        }
+        return true;
+    }
+
+    private static boolean isWorldFrame(int frame) {
+        return frame == TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE
+                || frame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION;
+    }
+
+    private boolean queryMatrixTransformAtTime(double timestamp, int baseFrame, int targetFrame,
+                                               int baseEngine, int targetEngine, float[] out) {
+        RecordedTransforms recorded = recordedTransforms;
+        if (recorded != null) {
+            // OpenGL world bases were converted by the caller, camera frames stay Tango's.
+            return baseEngine == TANGO_SUPPORT_ENGINE_TANGO
+                    && targetEngine == TANGO_SUPPORT_ENGINE_TANGO
+                    && recorded.getMatrixTransformAtTime(timestamp, baseFrame, targetFrame, out);
+        }
+
+        TangoMatrixTransformData transform = TangoSupport.getMatrixTransformAtTime(
+                timestamp, baseFrame, targetFrame, baseEngine, targetEngine);
+        if (transform.statusCode != TangoPoseData.POSE_VALID) {
+            return false;
+        }
+        System.arraycopy(transform.matrix, 0, out, 0, 16);
+        return true;
+    }
+
+    /**
+     * Cached {@link TangoSupport#calculateRelativePose}.
+     *
+     * @return a shared, read-only pose. Check its status code, invalid poses aren't cached.
+     */
+    public TangoPoseData calculateRelativePose(double baseTimestamp, int baseFrame,
+                                               double targetTimestamp, int targetFrame) {
+        long queryGeneration;
+        synchronized (this) {
+            Entry entry = find(KIND_RELATIVE_POSE, baseTimestamp, targetTimestamp, baseFrame, targetFrame, 0, 0);
+            if (entry != null) {
+                return entry.pose;
+            }
+            queryGeneration = generation;
+        }
+
+        RecordedTransforms recorded = recordedTransforms;
+        TangoPoseData pose = recorded != null
+                ? recorded.calculateRelativePose(baseTimestamp, baseFrame, targetTimestamp, targetFrame)
+                : TangoSupport.calculateRelativePose(baseTimestamp, baseFrame, targetTimestamp, targetFrame);
+        if (pose.statusCode == TangoPoseData.POSE_VALID) {
+            synchronized (this) {
+                if (queryGeneration == generation) {
+                    store(KIND_RELATIVE_POSE, baseTimestamp, targetTimestamp, baseFrame, targetFrame, 0, 0).pose = pose;
+                }
+            }
+        }
+        return pose;
+    }
+
+    /**
+     * Cached {@link TangoSupport#getPoseAtTime}.
+     *
+     * @return a shared, read-only pose. Check its status code, invalid poses aren't cached.
+     */
+    public TangoPoseData getPoseAtTime(double timestamp, int baseFrame, int targetFrame,
+                                       int engine, int displayRotation) {
+        long queryGeneration;
+        synchronized (this) {
+            Entry entry = find(KIND_POSE, timestamp, timestamp, baseFrame, targetFrame, engine, displayRotation);
+            if (entry != null) {
+                return entry.pose;
+            }
+            queryGeneration = generation;
+        }
+
+        if (recordedTransforms != null) {
+            // Engine and display rotation conversions aren't replayed.
+            TangoPoseData invalid = new TangoPoseData();
+            invalid.statusCode = TangoPoseData.POSE_INVALID;
+            return invalid;
+        }
+        TangoPoseData pose = TangoSupport.getPoseAtTime(
+                timestamp, baseFrame, targetFrame, engine, displayRotation);
+        if (pose.statusCode == TangoPoseData.POSE_VALID) {
+            synchronized (this) {
+                if (queryGeneration == generation) {
+                    store(KIND_POSE, timestamp, timestamp, baseFrame, targetFrame, engine, displayRotation).pose = pose;
+                }
+            }
+        }
+        return pose;
+    }
+
+    public synchronized void invalidate() {
+        for (Entry entry : entries) {
+            entry.used = false;
+            entry.pose = null;
+        }
+        generation++;
+        invalidations++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // *** Lookups, guarded by this ***
+
+    private Entry find(int kind, double baseTimestamp, double targetTimestamp,
+                       int baseFrame, int targetFrame, int optionA, int optionB) {
+        for (Entry entry : entries) {
+            if (entry.matches(kind, baseTimestamp, targetTimestamp, baseFrame, targetFrame, optionA, optionB)) {
+                entry.lastUsed = ++tick;
+                hits++;
+                return entry;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Claims the least recently used entry, or the existing one if another thread stored the
+     * same key meanwhile.
+     */
+    private Entry store(int kind, double baseTimestamp, double targetTimestamp,
+                        int baseFrame, int targetFrame, int optionA, int optionB) {
+        Entry victim = null;
+        for (Entry entry : entries) {
+            if (entry.matches(kind, baseTimestamp, targetTimestamp, baseFrame, targetFrame, optionA, optionB)) {
+                victim = entry;
+                break;
+            }
+            if (victim == null || !entry.used && victim.used
+                    || entry.used == victim.used && entry.lastUsed < victim.lastUsed) {
+                victim = entry;
+            }
+        }
+        victim.used = true;
+        victim.lastUsed = ++tick;
+        victim.kind = kind;
+        victim.baseTimestamp = baseTimestamp;
+        victim.targetTimestamp = targetTimestamp;
+        victim.baseFrame = baseFrame;
+        victim.targetFrame = targetFrame;
+        victim.optionA = optionA;
+        victim.optionB = optionB;
+        return victim;
+    }
+}
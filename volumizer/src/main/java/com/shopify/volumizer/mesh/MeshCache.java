@@ -0,0 +1,135 @@
+package com.shopify.volumizer.mesh;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes {@link MeshData} to {@link MeshFormat} files, and memory-maps them back.
+ * <p>
+ * Mapped meshes aren't copied, their vertex and index buffers are views into the file. Each file
+ * carries a stamp of its source, a mismatching stamp reads as a cache miss.
+ */
+public final class MeshCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private MeshCache() {
+    }
+
+    /**
+     * Writes to a temporary file first, so a crash never leaves a truncated cache behind.
+     */
+    public static void write(MeshData mesh, File file, long stamp) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        int tableSize = 0;
+        for (MeshData.SubMesh subMesh : mesh.getSubMeshes()) {
+            byte[] name = subMesh.material.getBytes(UTF_8);
+            names.add(name);
+            tableSize += 2 + name.length + 5 * 4;
+        }
+        int dataOffset = align(MeshFormat.HEADER_SIZE + tableSize);
+        int vertexFloats = mesh.getVertexCount() * MeshFormat.FLOATS_PER_VERTEX;
+        int size = dataOffset + vertexFloats * 4 + mesh.getIndexCount() * 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(MeshFormat.BYTE_ORDER);
+        buffer.putInt(MeshFormat.MAGIC)
+                .putInt(MeshFormat.VERSION)
+                .putLong(stamp)
+                .putInt(mesh.getVertexCount())
+                .putInt(mesh.getIndexCount())
+                .putInt(mesh.getSubMeshes().size());
+        for (int i = 0; i < names.size(); i++) {
+            MeshData.SubMesh subMesh = mesh.getSubMeshes().get(i);
+            byte[] name = names.get(i);
+            buffer.putShort((short) name.length).put(name)
+                    .putInt(subMesh.color)
+                    .putInt(subMesh.firstVertex)
+                    .putInt(subMesh.vertexCount)
+                    .putInt(subMesh.firstIndex)
+                    .putInt(subMesh.indexCount);
+        }
+        buffer.position(dataOffset);
+        FloatBuffer vertices = mesh.getVertices().duplicate();
+        vertices.position(0);
+        buffer.asFloatBuffer().put(vertices);
+        buffer.position(dataOffset + vertexFloats * 4);
+        IntBuffer indices = mesh.getIndices().duplicate();
+        indices.position(0);
+        buffer.asIntBuffer().put(indices);
+        buffer.position(0);
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = new FileOutputStream(temporary).getChannel()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Couldn't move mesh cache to " + file);
+        }
+    }
+
+    /**
+     * @return the mapped mesh, or null if the file doesn't exist or was written from another
+     * source stamp.
+     */
+    public static MeshData read(File file, long stamp) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        MappedByteBuffer mapped;
+        // The mapping stays valid once the file is closed.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(MeshFormat.BYTE_ORDER);
+
+        if (mapped.remaining() < MeshFormat.HEADER_SIZE
+                || mapped.getInt() != MeshFormat.MAGIC
+                || mapped.getInt() != MeshFormat.VERSION
+                || mapped.getLong() != stamp) {
+            return null;
+        }
+        int vertexCount = mapped.getInt();
+        int indexCount = mapped.getInt();
+        int subMeshCount = mapped.getInt();
+
+        try {
+            List<MeshData.SubMesh> subMeshes = new ArrayList<>(subMeshCount);
+            for (int i = 0; i < subMeshCount; i++) {
+                byte[] name = new byte[mapped.getShort()];
+                mapped.get(name);
+                subMeshes.add(new MeshData.SubMesh(new String(name, UTF_8),
+                        mapped.getInt(), mapped.getInt(), mapped.getInt(), mapped.getInt(), mapped.getInt()));
+            }
+
+            int vertexFloats = vertexCount * MeshFormat.FLOATS_PER_VERTEX;
+            mapped.position(align(mapped.position()));
+            FloatBuffer vertices = mapped.slice().order(MeshFormat.BYTE_ORDER).asFloatBuffer();
+            vertices.limit(vertexFloats);
+            mapped.position(mapped.position() + vertexFloats * 4);
+            IntBuffer indices = mapped.slice().order(MeshFormat.BYTE_ORDER).asIntBuffer();
+            indices.limit(indexCount);
+            return new MeshData(vertices, indices, subMeshes);
+        } catch (RuntimeException e) {
+            // Buffer underflows and bad limits, from a truncated or corrupted file.
+            throw new IOException("Corrupted mesh cache " + file, e);
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+}
@@ -0,0 +1,99 @@
+package com.shopify.volumizer.mesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * A mesh in {@link MeshFormat} layout, either freshly parsed or memory-mapped from the cache.
+ * <p>
+ * Deliberately free of Android and Rajawali types so it can also be used from plain JVM tooling.
+ */
+public class MeshData {
+
+    public static class SubMesh {
+        public final String material;
+        public final int color;
+        public final int firstVertex;
+        public final int vertexCount;
+        public final int firstIndex;
+        public final int indexCount;
+
+        public SubMesh(String material, int color,
+                       int firstVertex, int vertexCount, int firstIndex, int indexCount) {
+            this.material = material;
+            this.color = color;
+            this.firstVertex = firstVertex;
+            this.vertexCount = vertexCount;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+        }
+    }
+
+    private final FloatBuffer vertices;
+    private final IntBuffer indices;
+    private final List<SubMesh> subMeshes;
+
+    /**
+     * @param vertices interleaved as {@link MeshFormat#FLOATS_PER_VERTEX} floats per vertex.
+     * @param indices  relative to their sub-mesh's first vertex.
+     */
+    public MeshData(FloatBuffer vertices, IntBuffer indices, List<SubMesh> subMeshes) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.subMeshes = subMeshes;
+    }
+
+    public List<SubMesh> getSubMeshes() {
+        return subMeshes;
+    }
+
+    public int getVertexCount() {
+        return vertices.limit() / MeshFormat.FLOATS_PER_VERTEX;
+    }
+
+    public int getIndexCount() {
+        return indices.limit();
+    }
+
+    public FloatBuffer getVertices() {
+        return vertices;
+    }
+
+    public IntBuffer getIndices() {
+        return indices;
+    }
+
+    public float[] getPositions(SubMesh subMesh) {
+        return extract(subMesh, 0, 3);
+    }
+
+    public float[] getNormals(SubMesh subMesh) {
+        return extract(subMesh, MeshFormat.NORMAL_OFFSET, 3);
+    }
+
+    public float[] getTextureCoords(SubMesh subMesh) {
+        return extract(subMesh, MeshFormat.TEXTURE_COORD_OFFSET, 2);
+    }
+
+    public int[] getIndices(SubMesh subMesh) {
+        int[] out = new int[subMesh.indexCount];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = indices.get(subMesh.firstIndex + i);
+        }
+        return out;
+    }
+
+    // De-interleaves one attribute of a sub-mesh.
+    private float[] extract(SubMesh subMesh, int offset, int components) {
+        float[] out = new float[subMesh.vertexCount * components];
+        int source = subMesh.firstVertex * MeshFormat.FLOATS_PER_VERTEX + offset;
+        for (int i = 0; i < subMesh.vertexCount; i++) {
+            for (int c = 0; c < components; c++) {
+                out[i * components + c] = vertices.get(source + c);
+            }
+            source += MeshFormat.FLOATS_PER_VERTEX;
+        }
+        return out;
+    }
+}
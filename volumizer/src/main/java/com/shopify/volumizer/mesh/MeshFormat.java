@@ -0,0 +1,31 @@
+package com.shopify.volumizer.mesh;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary mesh cache files written and memory-mapped by {@link MeshCache}.
+ * <p>
+ * A file is a header ({@code int} magic, {@code int} version, {@code long} source stamp,
+ * {@code int} vertex count, {@code int} index count, {@code int} sub-mesh count), then one entry
+ * per sub-mesh ({@code short}-length-prefixed UTF-8 material name, {@code int} ARGB diffuse color,
+ * {@code int} first vertex, {@code int} vertex count, {@code int} first index, {@code int} index
+ * count). After padding to 4 bytes come the interleaved vertices, {@link #FLOATS_PER_VERTEX}
+ * {@code float} (x, y, z, nx, ny, nz, u, v) each, then the {@code int} indices, relative to
+ * their sub-mesh's first vertex.
+ */
+public final class MeshFormat {
+
+    public static final int MAGIC = 0x48534d56; // "VMSH"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+    public static final String EXTENSION = ".vmesh";
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int FLOATS_PER_VERTEX = 8;
+    public static final int NORMAL_OFFSET = 3;
+    public static final int TEXTURE_COORD_OFFSET = 6;
+
+    private MeshFormat() {
+    }
+}
@@ -0,0 +1,83 @@
+package com.shopify.volumizer.mesh;
+
+import android.app.Application;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.support.annotation.RawRes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Loads OBJ/MTL raw resources off the OpenGL thread.
+ * <p>
+ * The first load parses the text and writes a {@link MeshFormat} file to the cache directory,
+ * later ones memory-map it instead. Cache files are stamped with the app's last update time, so
+ * they're invalidated whenever an app update ships new models.
+ */
+@Singleton
+public class MeshLoader {
+
+    @Inject Application application;
+
+    public MeshLoader() {
+    }
+
+    /**
+     * @param mtlResource 0 if there's no material library.
+     * @return a mesh ready for {@link PreparedMesh#build()}, prepared on the io scheduler.
+     */
+    public Single<PreparedMesh> load(@RawRes int objResource, @RawRes int mtlResource) {
+        return Single.fromCallable(() -> prepare(objResource, mtlResource))
+                .subscribeOn(Schedulers.io());
+    }
+
+    private PreparedMesh prepare(int objResource, int mtlResource) throws IOException {
+        Resources resources = application.getResources();
+        String name = resources.getResourceEntryName(objResource);
+        File cacheFile = new File(application.getCacheDir(), name + MeshFormat.EXTENSION);
+        long stamp = getSourceStamp();
+
+        long start = System.nanoTime();
+        MeshData mesh = null;
+        try {
+            mesh = MeshCache.read(cacheFile, stamp);
+        } catch (IOException e) {
+            Timber.w(e, "Discarding mesh cache %s", cacheFile);
+        }
+        if (mesh != null) {
+            return new PreparedMesh(name, mesh, 0, System.nanoTime() - start);
+        }
+
+        try (InputStream obj = resources.openRawResource(objResource);
+             InputStream mtl = mtlResource != 0 ? resources.openRawResource(mtlResource) : null) {
+            mesh = new ObjParser().parse(obj, mtl);
+        }
+        long parseNanos = System.nanoTime() - start;
+        try {
+            MeshCache.write(mesh, cacheFile, stamp);
+        } catch (IOException e) {
+            // Still usable, it'll just be parsed again next time.
+            Timber.w(e, "Couldn't write mesh cache %s", cacheFile);
+        }
+        return new PreparedMesh(name, mesh, parseNanos, 0);
+    }
+
+    private long getSourceStamp() {
+        try {
+            return application.getPackageManager()
+                    .getPackageInfo(application.getPackageName(), 0)
+                    .lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
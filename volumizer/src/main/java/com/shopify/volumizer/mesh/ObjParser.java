@@ -0,0 +1,359 @@
+package com.shopify.volumizer.mesh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses Wavefront OBJ geometry, with the diffuse colors of its MTL library, into a
+ * {@link MeshData} with one sub-mesh per material.
+ * <p>
+ * Supports what our Blender exports use: positions, texture coordinates, normals, polygonal faces
+ * (triangulated as fans) and {@code usemtl}. Missing normals are smoothed from the faces. This is
+ * slow text parsing, keep it off the OpenGL thread.
+ */
+public class ObjParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DEFAULT_MATERIAL = "default";
+    private static final int DEFAULT_COLOR = 0xffcccccc;
+
+    private final FloatList positions = new FloatList();
+    private final FloatList textureCoords = new FloatList();
+    private final FloatList normals = new FloatList();
+    private final Map<String, Integer> colors = new HashMap<>();
+    // Insertion ordered, so sub-meshes follow the file.
+    private final Map<String, SubMeshBuilder> builders = new LinkedHashMap<>();
+
+    /**
+     * @param mtl optional.
+     */
+    public MeshData parse(InputStream obj, InputStream mtl) throws IOException {
+        if (mtl != null) {
+            parseMaterials(mtl);
+        }
+
+        SubMeshBuilder current = builder(DEFAULT_MATERIAL);
+        int[] face = new int[3 * 16];
+        BufferedReader reader = new BufferedReader(new InputStreamReader(obj, UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String[] tokens = tokenize(line);
+            if (tokens.length == 0) {
+                continue;
+            }
+            try {
+                switch (tokens[0]) {
+                    case "v":
+                        positions.add(parse(tokens, 1), parse(tokens, 2), parse(tokens, 3));
+                        break;
+                    case "vt":
+                        textureCoords.add(parse(tokens, 1), tokens.length > 2 ? parse(tokens, 2) : 0);
+                        break;
+                    case "vn":
+                        normals.add(parse(tokens, 1), parse(tokens, 2), parse(tokens, 3));
+                        break;
+                    case "usemtl":
+                        current = builder(tokens.length > 1 ? tokens[1] : DEFAULT_MATERIAL);
+                        break;
+                    case "f":
+                        int corners = tokens.length - 1;
+                        if (face.length < corners * 3) {
+                            face = new int[corners * 3];
+                        }
+                        for (int i = 0; i < corners; i++) {
+                            parseCorner(tokens[i + 1], face, i * 3);
+                        }
+                        for (int i = 1; i + 1 < corners; i++) {
+                            current.addTriangle(face, 0, i * 3, (i + 1) * 3);
+                        }
+                        break;
+                    default:
+                        // o, g, s, mtllib and comments don't affect the geometry.
+                        break;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Malformed OBJ line " + lineNumber + ": " + line, e);
+            }
+        }
+        return build();
+    }
+
+    private void parseMaterials(InputStream mtl) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(mtl, UTF_8));
+        String material = null;
+        float[] diffuse = {0.8f, 0.8f, 0.8f, 1};
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] tokens = tokenize(line);
+            if (tokens.length == 0) {
+                continue;
+            }
+            switch (tokens[0]) {
+                case "newmtl":
+                    material = tokens.length > 1 ? tokens[1] : DEFAULT_MATERIAL;
+                    diffuse[0] = diffuse[1] = diffuse[2] = 0.8f;
+                    diffuse[3] = 1;
+                    colors.put(material, toArgb(diffuse));
+                    break;
+                case "Kd":
+                    diffuse[0] = parse(tokens, 1);
+                    diffuse[1] = parse(tokens, 2);
+                    diffuse[2] = parse(tokens, 3);
+                    if (material != null) {
+                        colors.put(material, toArgb(diffuse));
+                    }
+                    break;
+                case "d":
+                    diffuse[3] = parse(tokens, 1);
+                    if (material != null) {
+                        colors.put(material, toArgb(diffuse));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static int toArgb(float[] rgba) {
+        return channel(rgba[3]) << 24 | channel(rgba[0]) << 16 | channel(rgba[1]) << 8 | channel(rgba[2]);
+    }
+
+    private static int channel(float value) {
+        return Math.round(Math.max(0, Math.min(1, value)) * 255);
+    }
+
+    private static String[] tokenize(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.charAt(0) == '#') {
+            return new String[0];
+        }
+        return trimmed.split("\\s+");
+    }
+
+    private static float parse(String[] tokens, int index) {
+        return Float.parseFloat(tokens[index]);
+    }
+
+    /**
+     * Resolves "v", "v/vt", "v//vn" or "v/vt/vn" to zero based indices, -1 when absent.
+     */
+    private void parseCorner(String corner, int[] out, int offset) {
+        int firstSlash = corner.indexOf('/');
+        int secondSlash = firstSlash < 0 ? -1 : corner.indexOf('/', firstSlash + 1);
+        String v = firstSlash < 0 ? corner : corner.substring(0, firstSlash);
+        String vt = firstSlash < 0 ? "" : corner.substring(firstSlash + 1, secondSlash < 0 ? corner.length() : secondSlash);
+        String vn = secondSlash < 0 ? "" : corner.substring(secondSlash + 1);
+        out[offset] = resolve(v, positions.size() / 3);
+        out[offset + 1] = vt.isEmpty() ? -1 : resolve(vt, textureCoords.size() / 2);
+        out[offset + 2] = vn.isEmpty() ? -1 : resolve(vn, normals.size() / 3);
+    }
+
+    // OBJ indices are one based, negative ones count back from the last element.
+    private static int resolve(String index, int count) {
+        int value = Integer.parseInt(index);
+        int resolved = value < 0 ? count + value : value - 1;
+        if (resolved < 0 || resolved >= count) {
+            throw new ArrayIndexOutOfBoundsException("Index " + value + " out of " + count);
+        }
+        return resolved;
+    }
+
+    private SubMeshBuilder builder(String material) {
+        SubMeshBuilder builder = builders.get(material);
+        if (builder == null) {
+            builder = new SubMeshBuilder(material);
+            builders.put(material, builder);
+        }
+        return builder;
+    }
+
+    private MeshData build() {
+        int vertexFloats = 0;
+        int indexCount = 0;
+        for (SubMeshBuilder builder : builders.values()) {
+            if (builder.smoothNormals) {
+                builder.normalize();
+            }
+            vertexFloats += builder.vertices.size();
+            indexCount += builder.indices.size();
+        }
+
+        FloatBuffer vertices = ByteBuffer.allocate(vertexFloats * 4).order(MeshFormat.BYTE_ORDER).asFloatBuffer();
+        IntBuffer indices = ByteBuffer.allocate(indexCount * 4).order(MeshFormat.BYTE_ORDER).asIntBuffer();
+        List<MeshData.SubMesh> subMeshes = new ArrayList<>();
+        for (SubMeshBuilder builder : builders.values()) {
+            if (builder.indices.size() == 0) {
+                continue;
+            }
+            Integer color = colors.get(builder.material);
+            subMeshes.add(new MeshData.SubMesh(builder.material, color != null ? color : DEFAULT_COLOR,
+                    vertices.position() / MeshFormat.FLOATS_PER_VERTEX,
+                    builder.vertices.size() / MeshFormat.FLOATS_PER_VERTEX,
+                    indices.position(), builder.indices.size()));
+            vertices.put(builder.vertices.values, 0, builder.vertices.size());
+            indices.put(builder.indices.values, 0, builder.indices.size());
+        }
+        vertices.flip();
+        indices.flip();
+        return new MeshData(vertices, indices, subMeshes);
+    }
+
+    private class SubMeshBuilder {
+        final String material;
+        final FloatList vertices = new FloatList();
+        final IntList indices = new IntList();
+        // (position, texture coord, normal) index triples to vertex index.
+        final Map<Long, Integer> vertexIndices = new HashMap<>();
+        boolean smoothNormals;
+
+        SubMeshBuilder(String material) {
+            this.material = material;
+        }
+
+        void addTriangle(int[] face, int a, int b, int c) {
+            int ia = vertex(face, a);
+            int ib = vertex(face, b);
+            int ic = vertex(face, c);
+            indices.add(ia);
+            indices.add(ib);
+            indices.add(ic);
+            if (face[a + 2] < 0 || face[b + 2] < 0 || face[c + 2] < 0) {
+                smoothNormals = true;
+                accumulateFaceNormal(ia, ib, ic, face[a + 2] < 0, face[b + 2] < 0, face[c + 2] < 0);
+            }
+        }
+
+        int vertex(int[] face, int offset) {
+            int position = face[offset];
+            int textureCoord = face[offset + 1];
+            int normal = face[offset + 2];
+            long key = ((long) position << 42) | ((long) (textureCoord + 1) << 21) | (normal + 1);
+            Integer index = vertexIndices.get(key);
+            if (index != null) {
+                return index;
+            }
+            index = vertices.size() / MeshFormat.FLOATS_PER_VERTEX;
+            vertexIndices.put(key, index);
+            vertices.add(positions.get(position * 3), positions.get(position * 3 + 1), positions.get(position * 3 + 2));
+            if (normal >= 0) {
+                vertices.add(normals.get(normal * 3), normals.get(normal * 3 + 1), normals.get(normal * 3 + 2));
+            } else {
+                vertices.add(0, 0, 0);
+            }
+            if (textureCoord >= 0) {
+                vertices.add(textureCoords.get(textureCoord * 2), textureCoords.get(textureCoord * 2 + 1));
+            } else {
+                vertices.add(0, 0);
+            }
+            return index;
+        }
+
+        // Area weighted, added to the corners without a normal of their own.
+        void accumulateFaceNormal(int a, int b, int c, boolean addA, boolean addB, boolean addC) {
+            float[] v = vertices.values;
+            int pa = a * MeshFormat.FLOATS_PER_VERTEX;
+            int pb = b * MeshFormat.FLOATS_PER_VERTEX;
+            int pc = c * MeshFormat.FLOATS_PER_VERTEX;
+            float abx = v[pb] - v[pa];
+            float aby = v[pb + 1] - v[pa + 1];
+            float abz = v[pb + 2] - v[pa + 2];
+            float acx = v[pc] - v[pa];
+            float acy = v[pc + 1] - v[pa + 1];
+            float acz = v[pc + 2] - v[pa + 2];
+            float nx = aby * acz - abz * acy;
+            float ny = abz * acx - abx * acz;
+            float nz = abx * acy - aby * acx;
+            if (addA) {
+                addNormal(pa, nx, ny, nz);
+            }
+            if (addB) {
+                addNormal(pb, nx, ny, nz);
+            }
+            if (addC) {
+                addNormal(pc, nx, ny, nz);
+            }
+        }
+
+        private void addNormal(int vertexOffset, float nx, float ny, float nz) {
+            float[] v = vertices.values;
+            v[vertexOffset + MeshFormat.NORMAL_OFFSET] += nx;
+            v[vertexOffset + MeshFormat.NORMAL_OFFSET + 1] += ny;
+            v[vertexOffset + MeshFormat.NORMAL_OFFSET + 2] += nz;
+        }
+
+        void normalize() {
+            float[] v = vertices.values;
+            for (int i = MeshFormat.NORMAL_OFFSET; i < vertices.size(); i += MeshFormat.FLOATS_PER_VERTEX) {
+                float length = (float) Math.sqrt(v[i] * v[i] + v[i + 1] * v[i + 1] + v[i + 2] * v[i + 2]);
+                if (length > 0) {
+                    v[i] /= length;
+                    v[i + 1] /= length;
+                    v[i + 2] /= length;
+                }
+            }
+        }
+    }
+
+    private static class FloatList {
+        float[] values = new float[1024];
+        int size;
+
+        void add(float x, float y) {
+            ensure(2);
+            values[size++] = x;
+            values[size++] = y;
+        }
+
+        void add(float x, float y, float z) {
+            ensure(3);
+            values[size++] = x;
+            values[size++] = y;
+            values[size++] = z;
+        }
+
+        float get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[1024];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.shopify.volumizer.mesh;
+
+import org.rajawali3d.Object3D;
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.materials.methods.DiffuseMethod;
+import org.rajawali3d.materials.methods.SpecularMethod;
+
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * A mesh de-interleaved into the arrays Rajawali takes, so building it on the OpenGL thread is
+ * only buffer creation and upload.
+ */
+public class PreparedMesh {
+
+    private static class Part {
+        String material;
+        int color;
+        float[] positions;
+        float[] normals;
+        float[] textureCoords;
+        int[] indices;
+    }
+
+    private final String name;
+    private final Part[] parts;
+    private final long parseNanos;
+    private final long loadNanos;
+    private long uploadNanos;
+    private double boundingRadius;
+
+    /**
+     * @param parseNanos time spent parsing OBJ text, 0 when loaded from the cache.
+     * @param loadNanos  time spent mapping the cache and de-interleaving.
+     */
+    PreparedMesh(String name, MeshData mesh, long parseNanos, long loadNanos) {
+        this.name = name;
+        this.parseNanos = parseNanos;
+        long start = System.nanoTime();
+        parts = new Part[mesh.getSubMeshes().size()];
+        for (int i = 0; i < parts.length; i++) {
+            MeshData.SubMesh subMesh = mesh.getSubMeshes().get(i);
+            Part part = new Part();
+            part.material = subMesh.material;
+            part.color = subMesh.color;
+            part.positions = mesh.getPositions(subMesh);
+            for (int p = 0; p < part.positions.length; p += 3) {
+                double x = part.positions[p], y = part.positions[p + 1], z = part.positions[p + 2];
+                boundingRadius = Math.max(boundingRadius, Math.sqrt(x * x + y * y + z * z));
+            }
+            part.normals = mesh.getNormals(subMesh);
+            part.textureCoords = mesh.getTextureCoords(subMesh);
+            part.indices = mesh.getIndices(subMesh);
+            parts[i] = part;
+        }
+        this.loadNanos = loadNanos + System.nanoTime() - start;
+    }
+
+    /**
+     * Creates the mesh's buffers, one child object per material.
+     * <p>
+     * NOTE: This must be called from the OpenGL render thread.
+     */
+    public Object3D build() {
+        long start = System.nanoTime();
+        Object3D container = new Object3D(name);
+        for (Part part : parts) {
+            Object3D child = new Object3D(name + "/" + part.material);
+            child.setData(part.positions, part.normals, part.textureCoords, null, part.indices, true);
+            Material material = new Material();
+            material.setColor(part.color);
+            material.enableLighting(true);
+            material.setDiffuseMethod(new DiffuseMethod.Lambert());
+            material.setSpecularMethod(new SpecularMethod.Phong());
+            child.setMaterial(material);
+            container.addChild(child);
+        }
+        uploadNanos = System.nanoTime() - start;
+        Timber.d("Mesh %s: parse %.1fms, load %.1fms, upload %.1fms on %s",
+                name, parseNanos / 1e6, loadNanos / 1e6, uploadNanos / 1e6, Thread.currentThread().getName());
+        return container;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return radius of a bounding sphere centered on the mesh origin.
+     */
+    public double getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    public long getParseTime(TimeUnit unit) {
+        return unit.convert(parseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getLoadTime(TimeUnit unit) {
+        return unit.convert(loadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return 0 until {@link #build()} ran.
+     */
+    public long getUploadTime(TimeUnit unit) {
+        return unit.convert(uploadNanos, TimeUnit.NANOSECONDS);
+    }
+}
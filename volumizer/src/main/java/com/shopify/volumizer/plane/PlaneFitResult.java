@@ -0,0 +1,37 @@
+package com.shopify.volumizer.plane;
+
+/**
+ * Output of a {@link RansacPlaneFitter} run, laid out like TangoSupport's
+ * {@code IntersectionPointPlaneModelPair} so it can go straight into
+ * {@code TangoMath.calculatePlaneTransform(intersectionPoint, planeModel, openGlTdepth)}.
+ * <p>
+ * Meant to be re-used across fits.
+ */
+public class PlaneFitResult {
+
+    /**
+     * Point on the plane, in the depth camera frame.
+     */
+    public final double[] intersectionPoint = new double[3];
+
+    /**
+     * Plane as (a,b,c,d) with ax + by + cz + d = 0, unit normal facing the depth camera.
+     */
+    public final double[] planeModel = new double[4];
+
+    public boolean valid;
+    public int candidateCount;
+    public int inlierCount;
+    public int iterations;
+
+    public double getInlierRatio() {
+        return candidateCount == 0 ? 0 : (double) inlierCount / candidateCount;
+    }
+
+    void reset() {
+        valid = false;
+        candidateCount = 0;
+        inlierCount = 0;
+        iterations = 0;
+    }
+}
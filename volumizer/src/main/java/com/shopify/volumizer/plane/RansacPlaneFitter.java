@@ -0,0 +1,361 @@
+package com.shopify.volumizer.plane;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Pure Java plane fitting over raw Tango point cloud buffers, an alternative to the native
+ * {@code TangoSupport.fitPlaneModelNearPoint} we can tune, profile and run off-device.
+ * <p>
+ * Points are packed as (x, y, z, confidence) floats in the depth camera frame, exactly like
+ * {@code TangoPointCloudData.points}. A fit goes through three phases:
+ * <ol>
+ * <li>Candidates passing the confidence threshold, and optionally within a radius of a tap ray,
+ * are copied once into a re-used float array.</li>
+ * <li>Bounded RANSAC on triples of candidates. Stops early once the best model explains enough
+ * of the candidates, or once enough iterations ran for the observed inlier ratio.</li>
+ * <li>Least-squares refinement of the best model over its inliers.</li>
+ * </ol>
+ * Instances keep their scratch buffers between fits and are not thread safe.
+ */
+public class RansacPlaneFitter {
+
+    private static final int FLOATS_PER_POINT = 4;
+
+    // *** Tuning ***
+    private int maxIterations = 200;
+    private float inlierDistance = 0.02f;
+    private float minConfidence = 0.5f;
+    private double earlyExitInlierRatio = 0.8;
+    private double successProbability = 0.99;
+    private int minInliers = 10;
+
+    // *** Scratch, grown on demand ***
+    private float[] candidates = new float[0];
+    private int candidateCount;
+
+    // xorshift state, deterministic so fits are reproducible.
+    private long randomState = 0x9E3779B97F4A7C15L;
+
+    public RansacPlaneFitter setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    /**
+     * Maximum point to plane distance, in meters, for a point to count as an inlier.
+     */
+    public RansacPlaneFitter setInlierDistance(float inlierDistance) {
+        this.inlierDistance = inlierDistance;
+        return this;
+    }
+
+    /**
+     * Points under this confidence (0;1) are ignored.
+     */
+    public RansacPlaneFitter setMinConfidence(float minConfidence) {
+        this.minConfidence = minConfidence;
+        return this;
+    }
+
+    /**
+     * RANSAC stops as soon as the best model has at least this ratio of candidates as inliers.
+     */
+    public RansacPlaneFitter setEarlyExitInlierRatio(double earlyExitInlierRatio) {
+        this.earlyExitInlierRatio = earlyExitInlierRatio;
+        return this;
+    }
+
+    /**
+     * Target probability of having drawn at least one all-inlier sample, bounds the iterations.
+     */
+    public RansacPlaneFitter setSuccessProbability(double successProbability) {
+        this.successProbability = successProbability;
+        return this;
+    }
+
+    public RansacPlaneFitter setMinInliers(int minInliers) {
+        this.minInliers = minInliers;
+        return this;
+    }
+
+    public RansacPlaneFitter setSeed(long seed) {
+        this.randomState = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        return this;
+    }
+
+    /**
+     * Fits the dominant plane of the whole cloud. The intersection point is the inlier centroid.
+     *
+     * @return {@code result.valid}
+     */
+    public boolean fit(FloatBuffer points, int numPoints, PlaneFitResult result) {
+        result.reset();
+        gatherCandidates(points, numPoints, null, 0);
+        return fitCandidates(null, result);
+    }
+
+    /**
+     * Fits the plane around a tap ray cast from the depth camera origin, keeping only points
+     * within {@code radius} meters of the ray. The intersection point is where the ray hits
+     * the fitted plane.
+     *
+     * @param rayDirection ray direction in the depth camera frame, doesn't need to be normalized.
+     * @return {@code result.valid}
+     */
+    public boolean fitNearRay(FloatBuffer points, int numPoints, double[] rayDirection,
+                              float radius, PlaneFitResult result) {
+        result.reset();
+        gatherCandidates(points, numPoints, rayDirection, radius);
+        return fitCandidates(rayDirection, result);
+    }
+
+    // *** Candidate selection ***
+
+    private void gatherCandidates(FloatBuffer points, int numPoints, double[] ray, float radius) {
+        int required = numPoints * 3;
+        if (candidates.length < required) {
+            candidates = new float[required];
+        }
+        float[] out = candidates;
+        int count = 0;
+
+        float rx = 0, ry = 0, rz = 0;
+        float radiusSquared = radius * radius;
+        if (ray != null) {
+            double length = Math.sqrt(ray[0] * ray[0] + ray[1] * ray[1] + ray[2] * ray[2]);
+            rx = (float) (ray[0] / length);
+            ry = (float) (ray[1] / length);
+            rz = (float) (ray[2] / length);
+        }
+
+        // Absolute gets, the buffer position belongs to the caller.
+        int limit = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < limit; i += FLOATS_PER_POINT) {
+            if (points.get(i + 3) < minConfidence) {
+                continue;
+            }
+            float x = points.get(i);
+            float y = points.get(i + 1);
+            float z = points.get(i + 2);
+            if (ray != null) {
+                // Squared distance from the point to the ray, points behind the camera rejected.
+                float along = x * rx + y * ry + z * rz;
+                if (along <= 0) {
+                    continue;
+                }
+                float squared = x * x + y * y + z * z - along * along;
+                if (squared > radiusSquared) {
+                    continue;
+                }
+            }
+            out[count++] = x;
+            out[count++] = y;
+            out[count++] = z;
+        }
+        candidateCount = count / 3;
+    }
+
+    // *** RANSAC ***
+
+    private boolean fitCandidates(double[] ray, PlaneFitResult result) {
+        int n = candidateCount;
+        result.candidateCount = n;
+        if (n < Math.max(3, minInliers)) {
+            return false;
+        }
+        float[] c = candidates;
+        float threshold = inlierDistance;
+
+        float bestA = 0, bestB = 0, bestC = 0, bestD = 0;
+        int bestInliers = 0;
+        int iterationLimit = maxIterations;
+        int iteration = 0;
+
+        while (iteration < iterationLimit) {
+            iteration++;
+
+            int i0 = nextIndex(n) * 3;
+            int i1 = nextIndex(n) * 3;
+            int i2 = nextIndex(n) * 3;
+            if (i0 == i1 || i1 == i2 || i0 == i2) {
+                continue;
+            }
+
+            float ux = c[i1] - c[i0], uy = c[i1 + 1] - c[i0 + 1], uz = c[i1 + 2] - c[i0 + 2];
+            float vx = c[i2] - c[i0], vy = c[i2 + 1] - c[i0 + 1], vz = c[i2 + 2] - c[i0 + 2];
+            float a = uy * vz - uz * vy;
+            float b = uz * vx - ux * vz;
+            float cc = ux * vy - uy * vx;
+            float norm = (float) Math.sqrt(a * a + b * b + cc * cc);
+            if (norm < 1e-9f) {
+                // Collinear sample.
+                continue;
+            }
+            a /= norm;
+            b /= norm;
+            cc /= norm;
+            float d = -(a * c[i0] + b * c[i0 + 1] + cc * c[i0 + 2]);
+
+            int inliers = countInliers(c, n, a, b, cc, d, threshold);
+            if (inliers > bestInliers) {
+                bestInliers = inliers;
+                bestA = a;
+                bestB = b;
+                bestC = cc;
+                bestD = d;
+
+                double ratio = (double) inliers / n;
+                if (ratio >= earlyExitInlierRatio) {
+                    break;
+                }
+                iterationLimit = Math.min(iterationLimit, requiredIterations(ratio));
+            }
+        }
+        result.iterations = iteration;
+
+        if (bestInliers < minInliers) {
+            return false;
+        }
+        refine(c, n, bestA, bestB, bestC, bestD, threshold, ray, result);
+        return result.valid;
+    }
+
+    private static int countInliers(float[] c, int n, float a, float b, float cc, float d, float threshold) {
+        int inliers = 0;
+        int limit = n * 3;
+        for (int i = 0; i < limit; i += 3) {
+            float distance = a * c[i] + b * c[i + 1] + cc * c[i + 2] + d;
+            if (distance <= threshold && distance >= -threshold) {
+                inliers++;
+            }
+        }
+        return inliers;
+    }
+
+    /**
+     * Standard RANSAC bound, iterations needed to draw one all-inlier triple with
+     * {@link #successProbability}, given the current best inlier ratio.
+     */
+    private int requiredIterations(double inlierRatio) {
+        double allInliers = inlierRatio * inlierRatio * inlierRatio;
+        if (allInliers >= 1) {
+            return 1;
+        }
+        if (allInliers <= 0) {
+            return maxIterations;
+        }
+        double required = Math.log(1 - successProbability) / Math.log(1 - allInliers);
+        return required >= maxIterations ? maxIterations : (int) Math.ceil(required);
+    }
+
+    private int nextIndex(int bound) {
+        long x = randomState;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        randomState = x;
+        return (int) ((x >>> 33) % bound);
+    }
+
+    // *** Least-squares refinement ***
+
+    /**
+     * Re-fits the plane to the inliers of the RANSAC model, through their centroid, with the
+     * normal taken from the covariance matrix. The normal's largest component is solved for
+     * directly, which avoids an eigen decomposition.
+     */
+    private void refine(float[] c, int n, float a, float b, float cc, float d, float threshold,
+                        double[] ray, PlaneFitResult result) {
+        int limit = n * 3;
+
+        double sumX = 0, sumY = 0, sumZ = 0;
+        int count = 0;
+        for (int i = 0; i < limit; i += 3) {
+            float distance = a * c[i] + b * c[i + 1] + cc * c[i + 2] + d;
+            if (distance <= threshold && distance >= -threshold) {
+                sumX += c[i];
+                sumY += c[i + 1];
+                sumZ += c[i + 2];
+                count++;
+            }
+        }
+        double cx = sumX / count, cy = sumY / count, cz = sumZ / count;
+
+        double xx = 0, xy = 0, xz = 0, yy = 0, yz = 0, zz = 0;
+        for (int i = 0; i < limit; i += 3) {
+            float distance = a * c[i] + b * c[i + 1] + cc * c[i + 2] + d;
+            if (distance <= threshold && distance >= -threshold) {
+                double rx = c[i] - cx, ry = c[i + 1] - cy, rz = c[i + 2] - cz;
+                xx += rx * rx;
+                xy += rx * ry;
+                xz += rx * rz;
+                yy += ry * ry;
+                yz += ry * rz;
+                zz += rz * rz;
+            }
+        }
+
+        double detX = yy * zz - yz * yz;
+        double detY = xx * zz - xz * xz;
+        double detZ = xx * yy - xy * xy;
+        double nx, ny, nz;
+        if (detX >= detY && detX >= detZ) {
+            nx = detX;
+            ny = xz * yz - xy * zz;
+            nz = xy * yz - xz * yy;
+        } else if (detY >= detZ) {
+            nx = xz * yz - xy * zz;
+            ny = detY;
+            nz = xy * xz - yz * xx;
+        } else {
+            nx = xy * yz - xz * yy;
+            ny = xy * xz - yz * xx;
+            nz = detZ;
+        }
+        double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (norm < 1e-12) {
+            // Degenerate inlier set, keep the RANSAC model.
+            nx = a;
+            ny = b;
+            nz = cc;
+        } else {
+            nx /= norm;
+            ny /= norm;
+            nz /= norm;
+        }
+
+        double pd = -(nx * cx + ny * cy + nz * cz);
+        // Face the depth camera, which sits at the origin.
+        if (pd < 0) {
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+            pd = -pd;
+        }
+
+        double[] model = result.planeModel;
+        model[0] = nx;
+        model[1] = ny;
+        model[2] = nz;
+        model[3] = pd;
+
+        double[] point = result.intersectionPoint;
+        point[0] = cx;
+        point[1] = cy;
+        point[2] = cz;
+        if (ray != null) {
+            double denominator = nx * ray[0] + ny * ray[1] + nz * ray[2];
+            if (Math.abs(denominator) > 1e-9) {
+                double t = -pd / denominator;
+                if (t > 0) {
+                    point[0] = t * ray[0];
+                    point[1] = t * ray[1];
+                    point[2] = t * ray[2];
+                }
+            }
+        }
+
+        result.inlierCount = count;
+        result.valid = count >= minInliers;
+    }
+}
@@ -0,0 +1,123 @@
+package com.shopify.volumizer.telemetry;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing probes along the camera frame pipeline, from Tango's frame available callback to the
+ * end of the render pass that showed the frame, feeding one {@link LatencyHistogram} per stage.
+ * <p>
+ * Probes only read {@link System#nanoTime()} and write primitives, so they can stay on in
+ * release builds. "Photon" is approximated by the end of the render pass, before the buffer swap.
+ */
+public class FrameTimings {
+
+    // 0.25ms buckets up to 100ms.
+    private static final long BUCKET_WIDTH_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final int BUCKET_COUNT = 400;
+
+    private final LatencyHistogram cameraToPhoton = new LatencyHistogram("camera-to-photon", BUCKET_WIDTH_NANOS, BUCKET_COUNT);
+    private final LatencyHistogram textureUpdate = new LatencyHistogram("texture update", BUCKET_WIDTH_NANOS, BUCKET_COUNT);
+    private final LatencyHistogram sceneUpdate = new LatencyHistogram("scene update", BUCKET_WIDTH_NANOS, BUCKET_COUNT);
+    private final LatencyHistogram poseLag = new LatencyHistogram("pose lag", BUCKET_WIDTH_NANOS, BUCKET_COUNT);
+    private final LatencyHistogram[] histograms = {cameraToPhoton, textureUpdate, sceneUpdate, poseLag};
+
+    // Written on the Tango thread, read on the OpenGL thread.
+    private volatile long frameAvailableNanos;
+
+    // *** OpenGL thread only ***
+    private long textureUpdateStartNanos;
+    private long latchedFrameNanos;
+    private long sceneUpdateStartNanos;
+
+    /**
+     * Tango thread, a color camera frame is ready to be latched.
+     */
+    public void onFrameAvailable() {
+        frameAvailableNanos = System.nanoTime();
+    }
+
+    public void onTextureUpdateStart() {
+        textureUpdateStartNanos = System.nanoTime();
+    }
+
+    /**
+     * The frame signaled by the last {@link #onFrameAvailable()} is now in the texture.
+     */
+    public void onTextureUpdated() {
+        long now = System.nanoTime();
+        textureUpdate.record(now - textureUpdateStartNanos);
+        latchedFrameNanos = frameAvailableNanos;
+    }
+
+    public void onSceneUpdateStart() {
+        sceneUpdateStartNanos = System.nanoTime();
+    }
+
+    public void onSceneUpdated() {
+        sceneUpdate.record(System.nanoTime() - sceneUpdateStartNanos);
+    }
+
+    /**
+     * @param latestPoseTimestamp  newest pose known to the app, in Tango seconds.
+     * @param renderedPoseTimestamp timestamp of the pose the camera is rendered with.
+     */
+    public void onCameraPoseUpdated(double latestPoseTimestamp, double renderedPoseTimestamp) {
+        if (latestPoseTimestamp > 0) {
+            poseLag.record((long) ((latestPoseTimestamp - renderedPoseTimestamp) * 1e9));
+        }
+    }
+
+    /**
+     * End of the render pass, closes the camera-to-photon span of a newly latched frame.
+     */
+    public void onFrameRendered() {
+        if (latchedFrameNanos != 0) {
+            cameraToPhoton.record(System.nanoTime() - latchedFrameNanos);
+            latchedFrameNanos = 0;
+        }
+    }
+
+    /**
+     * Appends one p50/p95/p99 line per stage.
+     */
+    public void appendSummary(TelemetryFormatter formatter) {
+        for (LatencyHistogram histogram : histograms) {
+            formatter.append('\n');
+            histogram.appendSummary(formatter);
+        }
+    }
+
+    public void dump(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            for (LatencyHistogram histogram : histograms) {
+                histogram.dump(writer);
+            }
+        }
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    public LatencyHistogram getCameraToPhoton() {
+        return cameraToPhoton;
+    }
+
+    public LatencyHistogram getTextureUpdate() {
+        return textureUpdate;
+    }
+
+    public LatencyHistogram getSceneUpdate() {
+        return sceneUpdate;
+    }
+
+    public LatencyHistogram getPoseLag() {
+        return poseLag;
+    }
+}
@@ -0,0 +1,93 @@
+package com.shopify.volumizer.telemetry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram, cheap and allocation free to record into from any thread.
+ * <p>
+ * Buckets are linear, {@code bucketWidthNanos} wide, with a last bucket catching everything
+ * past the range. Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    private final String name;
+    private final long bucketWidthNanos;
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram(String name, long bucketWidthNanos, int bucketCount) {
+        this.name = name;
+        this.bucketWidthNanos = bucketWidthNanos;
+        // One extra bucket for overflow.
+        this.counts = new AtomicLongArray(bucketCount + 1);
+    }
+
+    public void record(long nanos) {
+        int overflow = counts.length() - 1;
+        long bucket = nanos < 0 ? 0 : nanos / bucketWidthNanos;
+        counts.incrementAndGet(bucket > overflow ? overflow : (int) bucket);
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return (i + 1) * bucketWidthNanos;
+            }
+        }
+        return counts.length() * bucketWidthNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Appends "name p50/p95/p99 ms" to an overlay line.
+     */
+    public void appendSummary(TelemetryFormatter formatter) {
+        formatter.append(name).append(' ')
+                .append(getPercentileNanos(50) / 1e6, 1).append('/')
+                .append(getPercentileNanos(95) / 1e6, 1).append('/')
+                .append(getPercentileNanos(99) / 1e6, 1).append("ms");
+    }
+
+    /**
+     * Writes the summary and non-empty buckets, one "upper bound ms, count" line per bucket.
+     */
+    public void dump(PrintWriter writer) {
+        writer.printf("# %s, %d samples, p50 %.2fms, p95 %.2fms, p99 %.2fms%n",
+                name, getCount(),
+                getPercentileNanos(50) / 1e6, getPercentileNanos(95) / 1e6, getPercentileNanos(99) / 1e6);
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                writer.printf("%.2f,%d%n", (i + 1) * bucketWidthNanos / 1e6, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.shopify.volumizer.telemetry;
+
+import com.google.atap.tangoservice.TangoPoseData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-allocated, rate-limited snapshot of the device pose stream.
+ * <p>
+ * {@link #onPose(TangoPoseData)} is called for every pose on the Tango callback thread. It only
+ * bumps a counter, and copies the pose into the snapshot fields at most once per sample
+ * interval. Readers pull the latest snapshot into their own {@link Sample} when they need it,
+ * so no formatting or allocation happens on the pose path.
+ */
+public class PoseTelemetry {
+
+    /**
+     * Reader owned copy of a snapshot.
+     */
+    public static class Sample {
+        public long sequence;
+        public long sampleNanos;
+        public long poseCount;
+        public double timestamp;
+        public int statusCode;
+        public final double[] translation = new double[3];
+        public final double[] rotation = new double[4];
+    }
+
+    private final long sampleIntervalNanos;
+
+    // *** Writer state, Tango callback thread only ***
+    private long lastSampleNanos;
+    private volatile long poseCount;
+
+    // *** Snapshot, guarded by this ***
+    private final Sample snapshot = new Sample();
+
+    public PoseTelemetry(long sampleInterval, TimeUnit unit) {
+        this.sampleIntervalNanos = unit.toNanos(sampleInterval);
+        this.lastSampleNanos = System.nanoTime() - sampleIntervalNanos;
+    }
+
+    public void onPose(TangoPoseData pose) {
+        // Single writer, so the non-atomic increment is safe.
+        long count = poseCount + 1;
+        poseCount = count;
+
+        long now = System.nanoTime();
+        if (now - lastSampleNanos < sampleIntervalNanos) {
+            return;
+        }
+        lastSampleNanos = now;
+
+        synchronized (this) {
+            snapshot.sequence++;
+            snapshot.sampleNanos = now;
+            snapshot.poseCount = count;
+            snapshot.timestamp = pose.timestamp;
+            snapshot.statusCode = pose.statusCode;
+            System.arraycopy(pose.translation, 0, snapshot.translation, 0, 3);
+            System.arraycopy(pose.rotation, 0, snapshot.rotation, 0, 4);
+        }
+    }
+
+    /**
+     * Copies the latest snapshot into {@code out}.
+     *
+     * @return false if {@code out} already holds the latest snapshot, or none was taken yet.
+     */
+    public synchronized boolean readSample(Sample out) {
+        if (snapshot.sequence == out.sequence) {
+            return false;
+        }
+        out.sequence = snapshot.sequence;
+        out.sampleNanos = snapshot.sampleNanos;
+        out.poseCount = snapshot.poseCount;
+        out.timestamp = snapshot.timestamp;
+        out.statusCode = snapshot.statusCode;
+        System.arraycopy(snapshot.translation, 0, out.translation, 0, 3);
+        System.arraycopy(snapshot.rotation, 0, out.rotation, 0, 4);
+        return true;
+    }
+
+    /**
+     * Total number of poses seen, including the ones that weren't sampled.
+     */
+    public long getPoseCount() {
+        return poseCount;
+    }
+
+    public synchronized void clear() {
+        snapshot.sequence++;
+        snapshot.poseCount = 0;
+        poseCount = 0;
+    }
+}
@@ -0,0 +1,131 @@
+package com.shopify.volumizer.telemetry;
+
+/**
+ * Fixed capacity char buffer with allocation-free numeric appends, for overlays that refresh
+ * several times a second. Pair with {@code TextView.setText(char[], int, int)}.
+ * <p>
+ * Characters past the capacity are silently dropped.
+ */
+public class TelemetryFormatter {
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final char[] chars;
+    private int length;
+
+    public TelemetryFormatter(int capacity) {
+        chars = new char[capacity];
+    }
+
+    public TelemetryFormatter reset() {
+        length = 0;
+        return this;
+    }
+
+    public TelemetryFormatter append(char c) {
+        if (length < chars.length) {
+            chars[length++] = c;
+        }
+        return this;
+    }
+
+    public TelemetryFormatter append(String s) {
+        int count = Math.min(s.length(), chars.length - length);
+        s.getChars(0, count, chars, length);
+        length += count;
+        return this;
+    }
+
+    public TelemetryFormatter append(long value) {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                // Can't be negated, not worth special casing further for an overlay.
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+        return appendDigits(value, 1);
+    }
+
+    /**
+     * Equivalent of {@code %.Nf}, with {@code decimals} between 0 and 9.
+     */
+    public TelemetryFormatter append(double value, int decimals) {
+        return appendFixed(value, decimals, false);
+    }
+
+    /**
+     * Equivalent of {@code %+.Nf}, always writes the sign.
+     */
+    public TelemetryFormatter appendSigned(double value, int decimals) {
+        return appendFixed(value, decimals, true);
+    }
+
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private TelemetryFormatter appendFixed(double value, int decimals, boolean forceSign) {
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        }
+        boolean negative = value < 0;
+        double magnitude = Math.abs(value);
+        long scale = POWERS_OF_TEN[decimals];
+        if (Double.isInfinite(magnitude) || magnitude * scale >= Long.MAX_VALUE) {
+            if (negative) {
+                append('-');
+            } else if (forceSign) {
+                append('+');
+            }
+            return append("Inf");
+        }
+
+        long scaled = Math.round(magnitude * scale);
+        if (negative && scaled != 0) {
+            append('-');
+        } else if (forceSign) {
+            append('+');
+        }
+        appendDigits(scaled / scale, 1);
+        if (decimals > 0) {
+            append('.');
+            appendDigits(scaled % scale, decimals);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a non-negative value, left padded with zeroes to {@code minDigits}.
+     */
+    private TelemetryFormatter appendDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < minDigits; i++) {
+            append('0');
+        }
+        int end = Math.min(length + digits, chars.length);
+        for (int i = length + digits - 1; i >= length; i--) {
+            if (i < end) {
+                chars[i] = (char) ('0' + value % 10);
+            }
+            value /= 10;
+        }
+        length = end;
+        return this;
+    }
+}